@@ -0,0 +1,71 @@
+package no.difi.sdp.client2.asice.signature;
+
+import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.benchmarks.Testdata;
+import no.difi.sdp.client2.domain.Dokument;
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.Noekkelpar;
+import no.difi.sdp.client2.domain.Sertifikat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kostnaden ved å lage XAdES-delen av signature.xml, og gjøre den klar for digest. {@link #marshallet(Blackhole)}
+ * bygger og marshaller QualifyingProperties med JAXB for hver signatur, mens {@link #fraMal(Blackhole)} kopierer en
+ * ferdig marshallet mal for sertifikatet og fyller inn signeringstidspunkt og filer.
+ * <p>
+ * Ligger i samme pakke som {@link CreateXAdESArtifacts} for å kunne sammenligne de to direkte.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XAdESBenchmark {
+
+    private final CreateXAdESArtifacts createXAdESArtifacts = new CreateXAdESArtifacts(Clock.systemDefaultZone());
+    private final DomUtils domUtils = new DomUtils();
+    private Sertifikat sertifikat;
+    private XAdESTemplate template;
+    private List<AsicEAttachable> filer;
+
+    @Setup
+    public void setUp() {
+        Noekkelpar noekkelpar = Testdata.noekkelpar();
+        sertifikat = noekkelpar.getVirksomhetssertifikat();
+        template = createXAdESArtifacts.createTemplate(sertifikat);
+        Forsendelse forsendelse = Testdata.forsendelse(noekkelpar, 1024, 2);
+        filer = new ArrayList<>();
+        filer.add(forsendelse.getDokumentpakke().getHoveddokument());
+        for (Dokument vedlegg : forsendelse.getDokumentpakke().getVedlegg()) {
+            filer.add(vedlegg);
+        }
+    }
+
+    @Benchmark
+    public void marshallet(Blackhole blackhole) {
+        XAdESArtifacts artifacts = createXAdESArtifacts.createArtifactsToSign(filer, sertifikat);
+        domUtils.allNodesBelow(artifacts.signableProperties).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void fraMal(Blackhole blackhole) {
+        XAdESArtifacts artifacts = createXAdESArtifacts.createArtifactsToSign(filer, template);
+        domUtils.allNodesBelow(artifacts.signableProperties).forEach(blackhole::consume);
+    }
+}
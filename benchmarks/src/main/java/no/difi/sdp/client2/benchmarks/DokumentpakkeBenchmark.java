@@ -0,0 +1,153 @@
+package no.difi.sdp.client2.benchmarks;
+
+import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.asice.archive.Archive;
+import no.difi.sdp.client2.asice.archive.CreateZip;
+import no.difi.sdp.client2.asice.archive.ZipWriter;
+import no.difi.sdp.client2.asice.manifest.CreateManifest;
+import no.difi.sdp.client2.asice.manifest.Manifest;
+import no.difi.sdp.client2.asice.signature.CreateSignature;
+import no.difi.sdp.client2.asice.signature.Signature;
+import no.difi.sdp.client2.domain.Databehandler;
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.Miljo;
+import no.difi.sdp.client2.domain.Noekkelpar;
+import no.difi.sdp.client2.domain.Sertifikat;
+import no.difi.sdp.client2.internal.Billable;
+import no.difi.sdp.client2.internal.CMSDocument;
+import no.difi.sdp.client2.internal.CreateCMSDocument;
+import no.difi.sdp.client2.internal.CreateDokumentpakke;
+import no.difi.sdp.client2.internal.EbmsForsendelseBuilder;
+import no.digipost.api.representations.EbmsForsendelse;
+import no.digipost.api.representations.Organisasjonsnummer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hvert steg i byggingen av en forsendelse, og hele byggingen fra {@link Forsendelse} til {@link EbmsForsendelse},
+ * for ulike størrelser på dokumentene og antall vedlegg. Brukes for å se om en ny versjon av klienten bruker mer tid
+ * på å bygge forsendelser enn den forrige:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar DokumentpakkeBenchmark -p dokumentStoerrelse=1048576 -rf json
+ * </pre>
+ * De største dokumentene krever en heap på flere hundre MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DokumentpakkeBenchmark {
+
+    private static final Organisasjonsnummer MELDINGSFORMIDLER = Organisasjonsnummer.of("984661185");
+
+    /**
+     * Antall bytes i hoveddokumentet og hvert vedlegg: 10 KB, 1 MB og 50 MB.
+     */
+    @Param({"10240", "1048576", "52428800"})
+    public int dokumentStoerrelse;
+
+    @Param({"0", "4"})
+    public int antallVedlegg;
+
+    private final CreateManifest createManifest = new CreateManifest();
+    private final CreateSignature createSignature = new CreateSignature();
+    private final CreateZip createZip = new CreateZip();
+    private final CreateCMSDocument createCMS = new CreateCMSDocument();
+    private final EbmsForsendelseBuilder ebmsForsendelseBuilder = new EbmsForsendelseBuilder();
+    private EbmsForsendelseBuilder stroemmendeEbmsForsendelseBuilder;
+
+    private Noekkelpar noekkelpar;
+    private Sertifikat mottakerSertifikat;
+    private Databehandler databehandler;
+    private Forsendelse forsendelse;
+    private List<AsicEAttachable> filer;
+    private byte[] asicE;
+
+    @Setup
+    public void setUp() {
+        noekkelpar = Testdata.noekkelpar();
+        mottakerSertifikat = noekkelpar.getVirksomhetssertifikat();
+        databehandler = Testdata.databehandler(noekkelpar);
+        forsendelse = Testdata.forsendelse(noekkelpar, dokumentStoerrelse, antallVedlegg);
+
+        filer = new ArrayList<>();
+        filer.add(forsendelse.getDokumentpakke().getHoveddokument());
+        filer.addAll(forsendelse.getDokumentpakke().getVedlegg());
+        filer.add(createManifest.createManifest(forsendelse));
+        filer.add(createSignature.createSignature(noekkelpar, filer));
+        asicE = createZip.zipIt(filer).getBytes();
+
+        stroemmendeEbmsForsendelseBuilder = new EbmsForsendelseBuilder(new CreateDokumentpakke(KlientKonfigurasjon.builder(Miljo.FUNKSJONELT_TESTMILJO)
+                .dokumentpakkeBufferSize(1024 * 1024)
+                .build()));
+    }
+
+    @Benchmark
+    public Manifest manifest() {
+        return createManifest.createManifest(forsendelse);
+    }
+
+    @Benchmark
+    public Signature signatur() {
+        return createSignature.createSignature(noekkelpar, filer);
+    }
+
+    @Benchmark
+    public Archive zip() {
+        return createZip.zipIt(filer);
+    }
+
+    /**
+     * Som {@link #zip()}, men med filene komprimert parallelt, se
+     * {@link KlientKonfigurasjon.Builder#parallellZipping(ForkJoinPool)}.
+     */
+    @Benchmark
+    public byte[] parallellZip() {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipWriter zipWriter = createZip.open(archive)) {
+            zipWriter.writeAll(filer, ForkJoinPool.commonPool());
+        }
+        return archive.toByteArray();
+    }
+
+    @Benchmark
+    public CMSDocument kryptering() {
+        return createCMS.createCMS(asicE, mottakerSertifikat);
+    }
+
+    @Benchmark
+    public EbmsForsendelse ebmsForsendelse() {
+        return ebmsForsendelseBuilder.buildEbmsForsendelse(databehandler, MELDINGSFORMIDLER, forsendelse).entity;
+    }
+
+    /**
+     * Som {@link #ebmsForsendelse()}, men med dokumentpakken strømmet gjennom kryptering til en buffer, se
+     * {@link KlientKonfigurasjon.Builder#dokumentpakkeBufferSize(int)}.
+     */
+    @Benchmark
+    public long stroemmetEbmsForsendelse() throws IOException {
+        Billable<EbmsForsendelse> ebmsForsendelse = stroemmendeEbmsForsendelseBuilder.buildEbmsForsendelse(databehandler, MELDINGSFORMIDLER, forsendelse);
+        ((Closeable) ebmsForsendelse.entity.getDokumentpakke()).close();
+        return ebmsForsendelse.billableBytes;
+    }
+}
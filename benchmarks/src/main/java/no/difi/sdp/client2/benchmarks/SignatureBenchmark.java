@@ -0,0 +1,65 @@
+package no.difi.sdp.client2.benchmarks;
+
+import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.asice.signature.CreateSignature;
+import no.difi.sdp.client2.asice.signature.Signature;
+import no.difi.sdp.client2.domain.Dokument;
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.Noekkelpar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kostnaden ved å lage signature.xml for en forsendelse. {@link #sammeNoekkelpar()} gjenbruker signaturfabrikk,
+ * {@code KeyInfo} og privatnøkkel mellom signaturer, mens {@link #nyttNoekkelparHverGang()} må slå opp og låse opp alt
+ * på nytt, slik klienten gjorde for hver forsendelse tidligere.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+
+    private CreateSignature createSignature;
+    private KeyStore keyStore;
+    private Noekkelpar noekkelpar;
+    private List<AsicEAttachable> filer;
+
+    @Setup
+    public void setUp() {
+        createSignature = new CreateSignature();
+        keyStore = Testdata.keyStore();
+        noekkelpar = Testdata.noekkelpar(keyStore);
+        Forsendelse forsendelse = Testdata.forsendelse(noekkelpar, 1024, 2);
+        filer = new ArrayList<>();
+        filer.add(forsendelse.getDokumentpakke().getHoveddokument());
+        for (Dokument vedlegg : forsendelse.getDokumentpakke().getVedlegg()) {
+            filer.add(vedlegg);
+        }
+    }
+
+    @Benchmark
+    public Signature sammeNoekkelpar() {
+        return createSignature.createSignature(noekkelpar, filer);
+    }
+
+    @Benchmark
+    public Signature nyttNoekkelparHverGang() {
+        return createSignature.createSignature(Testdata.noekkelpar(keyStore), filer);
+    }
+}
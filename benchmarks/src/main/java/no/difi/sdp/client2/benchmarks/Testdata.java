@@ -0,0 +1,87 @@
+package no.difi.sdp.client2.benchmarks;
+
+import no.difi.sdp.client2.domain.AktoerOrganisasjonsnummer;
+import no.difi.sdp.client2.domain.Avsender;
+import no.difi.sdp.client2.domain.Databehandler;
+import no.difi.sdp.client2.domain.Dokument;
+import no.difi.sdp.client2.domain.Dokumentpakke;
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.Mottaker;
+import no.difi.sdp.client2.domain.Noekkelpar;
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.digital_post.DigitalPost;
+import no.difi.sdp.client2.domain.digital_post.Sikkerhetsnivaa;
+import no.digipost.api.representations.Organisasjonsnummer;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Selvsignert nøkkelpar og forsendelser med tilfeldig innhold, til bruk i ytelsestestene.
+ */
+public final class Testdata {
+
+    private static final String ALIAS = "avsender";
+    private static final String PASSORD = "password1234";
+
+    public static Noekkelpar noekkelpar() {
+        return noekkelpar(keyStore());
+    }
+
+    public static Noekkelpar noekkelpar(KeyStore keyStore) {
+        return Noekkelpar.fraKeyStoreUtenTrustStore(keyStore, ALIAS, PASSORD);
+    }
+
+    public static KeyStore keyStore() {
+        try (InputStream keyStoreStream = Testdata.class.getResourceAsStream("/selfsigned-keystore.jks")) {
+            KeyStore keyStore = KeyStore.getInstance("jks");
+            keyStore.load(keyStoreStream, PASSORD.toCharArray());
+            return keyStore;
+        } catch (Exception e) {
+            throw new RuntimeException("Kunne ikke laste keystore", e);
+        }
+    }
+
+    public static Databehandler databehandler(Noekkelpar noekkelpar) {
+        return Databehandler.builder(AktoerOrganisasjonsnummer.of("984661185").forfremTilDatabehandler(), noekkelpar).build();
+    }
+
+    /**
+     * @param dokumentStoerrelse antall bytes i hoveddokumentet.
+     * @param antallVedlegg      antall vedlegg, hver på samme størrelse som hoveddokumentet.
+     */
+    public static Forsendelse forsendelse(Noekkelpar noekkelpar, int dokumentStoerrelse, int antallVedlegg) {
+        Random random = new Random(dokumentStoerrelse);
+        Mottaker mottaker = Mottaker.builder("04036125433", "ove.jonsen#6K5A", noekkelpar.getVirksomhetssertifikat(), Organisasjonsnummer.of("984661185")).build();
+        DigitalPost digitalPost = DigitalPost.builder(mottaker, "Ikke-sensitiv tittel")
+                .sikkerhetsnivaa(Sikkerhetsnivaa.NIVAA_3)
+                .build();
+
+        List<Dokument> vedlegg = new ArrayList<>();
+        for (int i = 0; i < antallVedlegg; i++) {
+            vedlegg.add(dokument("vedlegg-" + i + ".pdf", dokumentStoerrelse, random));
+        }
+        Dokumentpakke dokumentpakke = Dokumentpakke.builder(dokument("hoveddokument.pdf", dokumentStoerrelse, random))
+                .vedlegg(vedlegg)
+                .build();
+
+        return Forsendelse.digital(Avsender.builder(AktoerOrganisasjonsnummer.of("984661185").forfremTilAvsender()).build(), digitalPost, dokumentpakke)
+                .konversasjonsId(UUID.randomUUID().toString())
+                .prioritet(Prioritet.NORMAL)
+                .spraakkode("NO")
+                .build();
+    }
+
+    private static Dokument dokument(String filnavn, int stoerrelse, Random random) {
+        byte[] innhold = new byte[stoerrelse];
+        random.nextBytes(innhold);
+        return Dokument.builder("Tittel", filnavn, innhold).mimeType("application/pdf").build();
+    }
+
+    private Testdata() {
+    }
+}
@@ -0,0 +1,81 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.Prioritet;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Øyeblikksbilde av hvor mange forespørsler mot meldingsformidler som har sluppet til, blitt avvist og ventet, per
+ * {@link Prioritet}. Tallene er summert siden transporten ble opprettet, bortsett fra {@link #getPaagaaende(Prioritet)}
+ * og {@link #getVentende(Prioritet)}, og egner seg for å eksporteres som metrikker.
+ *
+ * @see KlientKonfigurasjon.Builder#maxRequestsPerSecond(int)
+ * @see KlientKonfigurasjon.Builder#maxInFlightRequests(Prioritet, int)
+ */
+public final class AdmissionStatistics {
+
+    public static final class Tall {
+        final long sluppetInn;
+        final long avvist;
+        final long ventetidNanos;
+        final long lengsteVentetidNanos;
+        final int paagaaende;
+        final int ventende;
+
+        public Tall(long sluppetInn, long avvist, long ventetidNanos, long lengsteVentetidNanos, int paagaaende, int ventende) {
+            this.sluppetInn = sluppetInn;
+            this.avvist = avvist;
+            this.ventetidNanos = ventetidNanos;
+            this.lengsteVentetidNanos = lengsteVentetidNanos;
+            this.paagaaende = paagaaende;
+            this.ventende = ventende;
+        }
+    }
+
+    private final Map<Prioritet, Tall> tall;
+
+    public AdmissionStatistics(Map<Prioritet, Tall> tall) {
+        this.tall = new EnumMap<>(tall);
+    }
+
+    /**
+     * @return antall forespørsler som har sluppet til og blitt sendt.
+     */
+    public long getSluppetInn(Prioritet prioritet) {
+        return tall.get(prioritet).sluppetInn;
+    }
+
+    /**
+     * @return antall forespørsler som er avvist med {@link no.difi.sdp.client2.domain.exceptions.ForespoerselAvvistException}.
+     */
+    public long getAvvist(Prioritet prioritet) {
+        return tall.get(prioritet).avvist;
+    }
+
+    /**
+     * @return samlet tid forespørslene har ventet på å slippe til, inkludert de som ble avvist.
+     */
+    public Duration getSamletVentetid(Prioritet prioritet) {
+        return Duration.ofNanos(tall.get(prioritet).ventetidNanos);
+    }
+
+    public Duration getLengsteVentetid(Prioritet prioritet) {
+        return Duration.ofNanos(tall.get(prioritet).lengsteVentetidNanos);
+    }
+
+    /**
+     * @return antall forespørsler som er sendt og venter på svar fra meldingsformidler nå.
+     */
+    public int getPaagaaende(Prioritet prioritet) {
+        return tall.get(prioritet).paagaaende;
+    }
+
+    /**
+     * @return antall forespørsler som venter på å slippe til nå.
+     */
+    public int getVentende(Prioritet prioritet) {
+        return tall.get(prioritet).ventende;
+    }
+}
@@ -0,0 +1,306 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.asice.ArchivedASiCE;
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.internal.Billable;
+import no.difi.sdp.client2.internal.ThreadPools;
+import no.digipost.api.representations.EbmsForsendelse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Sender store mengder forsendelser gjennom en {@link SikkerDigitalPostKlient}, der signering, kryptering og sending
+ * gjøres i separate steg med hver sin trådpool og en begrenset kø mellom stegene. Mens en forsendelse venter på svar fra
+ * meldingsformidler kan dermed neste forsendelse signeres og krypteres, og totalt gjennomløp blir tilnærmet det minste av
+ * CPU-kapasitet og størrelsen på connection-poolen.
+ * <p>
+ * Når køen foran et steg er full, blokkeres steget foran til det er ledig plass. Det gjelder også
+ * {@link #leggTil(Forsendelse)}, slik at det aldri ligger flere forsendelser i minnet enn køene og trådene har plass til.
+ * <p>
+ * Resultatet for hver enkelt forsendelse leveres til {@link ResultatHandler}, som kalles fra trådene i pipelinen.
+ */
+public class BulkSender implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkSender.class);
+
+    public enum Steg {
+        /**
+         * Manifest, signatur og zipping av dokumentpakken.
+         */
+        SIGNERING,
+
+        /**
+         * Kryptering av dokumentpakken til mottakers sertifikat.
+         */
+        KRYPTERING,
+
+        /**
+         * Sending til meldingsformidler.
+         */
+        SENDING
+    }
+
+    public interface ResultatHandler {
+
+        void sendt(Forsendelse forsendelse, SendResultat sendResultat);
+
+        /**
+         * @param sendException feilen, mappet med klientens {@link ExceptionMapper}.
+         */
+        void feilet(Forsendelse forsendelse, SendException sendException);
+    }
+
+    /**
+     * @param klient          klienten som skal brukes til å bygge og sende forsendelsene.
+     * @param resultatHandler mottar resultatet for hver forsendelse etter hvert som de blir ferdige.
+     */
+    public static Builder builder(SikkerDigitalPostKlient klient, ResultatHandler resultatHandler) {
+        return new Builder(klient, resultatHandler);
+    }
+
+    private final SikkerDigitalPostKlient klient;
+    private final ResultatHandler resultatHandler;
+    private final Map<Steg, ThreadPoolExecutor> steg = new EnumMap<>(Steg.class);
+
+    private final Object underBehandlingLock = new Object();
+    private long underBehandling = 0;
+    private volatile boolean lukket = false;
+
+    private BulkSender(SikkerDigitalPostKlient klient, ResultatHandler resultatHandler, Map<Steg, Integer> traader, Map<Steg, Integer> koeStoerrelser) {
+        this.klient = klient;
+        this.resultatHandler = resultatHandler;
+        for (Steg s : Steg.values()) {
+            int antallTraader = traader.get(s);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(antallTraader, antallTraader, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(koeStoerrelser.getOrDefault(s, 2 * antallTraader)),
+                    ThreadPools.daemonThreadFactory("sdp-bulk-" + s.name().toLowerCase()), BLOKKER_NAAR_KOEN_ER_FULL);
+            steg.put(s, executor);
+        }
+    }
+
+    /**
+     * Legger en forsendelse inn i pipelinen. Blokkerer dersom køen foran signeringssteget er full.
+     */
+    public void leggTil(Forsendelse forsendelse) {
+        if (lukket) {
+            throw new IllegalStateException(BulkSender.class.getSimpleName() + " er lukket");
+        }
+        synchronized (underBehandlingLock) {
+            underBehandling++;
+        }
+        Behandling behandling = new Behandling(forsendelse);
+        utfoer(Steg.SIGNERING, behandling, () -> signer(behandling), INGENTING_AA_FRIGI);
+    }
+
+    /**
+     * Legger alle forsendelsene inn i pipelinen, og venter til alle er ferdig behandlet.
+     */
+    public void sendAlle(Iterator<? extends Forsendelse> forsendelser) throws InterruptedException {
+        while (forsendelser.hasNext()) {
+            leggTil(forsendelser.next());
+        }
+        ventTilFerdig();
+    }
+
+    /**
+     * Legger alle forsendelsene inn i pipelinen, og venter til alle er ferdig behandlet.
+     */
+    public void sendAlle(Stream<? extends Forsendelse> forsendelser) throws InterruptedException {
+        sendAlle(forsendelser.iterator());
+    }
+
+    /**
+     * Venter til alle forsendelser som er lagt til er ferdig behandlet, og resultatet er levert til {@link ResultatHandler}.
+     */
+    public void ventTilFerdig() throws InterruptedException {
+        synchronized (underBehandlingLock) {
+            while (underBehandling > 0) {
+                underBehandlingLock.wait();
+            }
+        }
+    }
+
+    /**
+     * @return antall forsendelser som ligger i kø og venter på det gitte steget.
+     */
+    public int getKoeDybde(Steg steg) {
+        return this.steg.get(steg).getQueue().size();
+    }
+
+    /**
+     * @return antall forsendelser som er lagt til, men som ennå ikke har fått et resultat.
+     */
+    public long getAntallUnderBehandling() {
+        synchronized (underBehandlingLock) {
+            return underBehandling;
+        }
+    }
+
+    /**
+     * Venter til alle forsendelser er ferdig behandlet, og stopper trådene i pipelinen.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        lukket = true;
+        try {
+            ventTilFerdig();
+        } finally {
+            steg.values().forEach(ThreadPoolExecutor::shutdown);
+        }
+    }
+
+    private void signer(Behandling behandling) {
+        ArchivedASiCE archivedASiCE = klient.signer(behandling.forsendelse);
+        utfoer(Steg.KRYPTERING, behandling, () -> krypter(behandling, archivedASiCE), () -> lukk(archivedASiCE));
+    }
+
+    private void krypter(Behandling behandling, ArchivedASiCE archivedASiCE) {
+        Billable<EbmsForsendelse> ebmsForsendelse = klient.krypter(behandling.forsendelse, archivedASiCE);
+        utfoer(Steg.SENDING, behandling, () -> send(behandling, ebmsForsendelse),
+                () -> SikkerDigitalPostKlient.frigi(ebmsForsendelse.entity.getDokumentpakke()));
+    }
+
+    private void send(Behandling behandling, Billable<EbmsForsendelse> ebmsForsendelse) {
+        SendResultat sendResultat = klient.sendEbmsForsendelse(ebmsForsendelse);
+        ferdig(behandling, () -> resultatHandler.sendt(behandling.forsendelse, sendResultat));
+    }
+
+    /**
+     * @param frigi frigir det oppgaven har fått fra steget foran, f.eks. en midlertidig fil, dersom oppgaven ikke blir
+     *              kjørt eller feiler. Kan kalles selv om oppgaven allerede har frigitt det.
+     */
+    private void utfoer(Steg s, Behandling behandling, Runnable oppgave, Runnable frigi) {
+        try {
+            steg.get(s).execute(() -> {
+                boolean fullfoert = false;
+                try {
+                    oppgave.run();
+                    fullfoert = true;
+                } catch (RuntimeException e) {
+                    frigi.run();
+                    fullfoert = true;
+                    feilet(behandling, e);
+                } finally {
+                    if (!fullfoert) {
+                        // En Error, f.eks. OutOfMemoryError. Den kastes videre, men forsendelsen må likevel telles som
+                        // ferdig, ellers venter ventTilFerdig() og close() for alltid.
+                        frigi.run();
+                        ferdig(behandling, () -> LOG.error("Behandling av forsendelse med konversasjonsId {} ble avbrutt i steg {}",
+                                behandling.forsendelse.getKonversasjonsId(), s));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            frigi.run();
+            feilet(behandling, e);
+        }
+    }
+
+    private static void lukk(ArchivedASiCE archivedASiCE) {
+        try {
+            archivedASiCE.close();
+        } catch (RuntimeException e) {
+            LOG.warn("Kunne ikke slette midlertidig ASiC-E", e);
+        }
+    }
+
+    private void feilet(Behandling behandling, Exception e) {
+        SendException sendException = klient.tilSendException(e);
+        ferdig(behandling, () -> resultatHandler.feilet(behandling.forsendelse, sendException));
+    }
+
+    /**
+     * Leverer resultatet og teller forsendelsen som ferdig, kun første gang det kalles for samme forsendelse.
+     */
+    private void ferdig(Behandling behandling, Runnable leverResultat) {
+        if (!behandling.ferdig.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            leverResultat.run();
+        } catch (RuntimeException e) {
+            LOG.warn("{} kastet feil for forsendelse med konversasjonsId {}", ResultatHandler.class.getSimpleName(), behandling.forsendelse.getKonversasjonsId(), e);
+        } finally {
+            synchronized (underBehandlingLock) {
+                underBehandling--;
+                underBehandlingLock.notifyAll();
+            }
+        }
+    }
+
+    private static final Runnable INGENTING_AA_FRIGI = () -> { };
+
+    private static final class Behandling {
+        final Forsendelse forsendelse;
+        final AtomicBoolean ferdig = new AtomicBoolean();
+
+        Behandling(Forsendelse forsendelse) {
+            this.forsendelse = forsendelse;
+        }
+    }
+
+    private static final RejectedExecutionHandler BLOKKER_NAAR_KOEN_ER_FULL = (oppgave, executor) -> {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException(BulkSender.class.getSimpleName() + " er lukket");
+        }
+        try {
+            executor.getQueue().put(oppgave);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Avbrutt under venting på ledig plass i kø", e);
+        }
+    };
+
+
+    public static class Builder {
+
+        private final SikkerDigitalPostKlient klient;
+        private final ResultatHandler resultatHandler;
+        private final Map<Steg, Integer> traader = new EnumMap<>(Steg.class);
+        private final Map<Steg, Integer> koeStoerrelser = new EnumMap<>(Steg.class);
+
+        private Builder(SikkerDigitalPostKlient klient, ResultatHandler resultatHandler) {
+            this.klient = klient;
+            this.resultatHandler = resultatHandler;
+            int prosessorer = Runtime.getRuntime().availableProcessors();
+            traader.put(Steg.SIGNERING, prosessorer);
+            traader.put(Steg.KRYPTERING, prosessorer);
+            traader.put(Steg.SENDING, klient.getKlientKonfigurasjon().getMaxConnectionPoolSize());
+        }
+
+        /**
+         * Antall tråder for et steg. Standard er antall prosessorer for {@link Steg#SIGNERING} og {@link Steg#KRYPTERING},
+         * og {@link KlientKonfigurasjon#getMaxConnectionPoolSize()} for {@link Steg#SENDING}.
+         */
+        public Builder traader(Steg steg, int antallTraader) {
+            traader.put(steg, antallTraader);
+            return this;
+        }
+
+        /**
+         * Maks antall forsendelser som kan ligge i kø foran et steg. Standard er to ganger antall tråder i steget.
+         */
+        public Builder koeStoerrelse(Steg steg, int koeStoerrelse) {
+            koeStoerrelser.put(steg, koeStoerrelse);
+            return this;
+        }
+
+        public BulkSender build() {
+            BulkSender bulkSender = new BulkSender(klient, resultatHandler, traader, koeStoerrelser);
+            klient.getKlientKonfigurasjon().getMetrics().bulkSender(bulkSender);
+            return bulkSender;
+        }
+    }
+}
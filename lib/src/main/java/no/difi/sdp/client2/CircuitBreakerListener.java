@@ -0,0 +1,37 @@
+package no.difi.sdp.client2;
+
+import java.net.URI;
+
+/**
+ * Varsles når en circuit breaker mot meldingsformidler endrer tilstand. Kalles fra tråden som utløste endringen, og
+ * bør derfor returnere raskt, f.eks. ved å logge eller oppdatere en metrikk.
+ *
+ * @see CircuitBreakerPolicy.Builder#lytter(CircuitBreakerListener)
+ */
+public interface CircuitBreakerListener {
+
+    enum Operasjon {
+        SEND,
+        HENT_KVITTERING,
+        BEKREFT
+    }
+
+    enum Tilstand {
+        /**
+         * Forespørsler sendes som normalt.
+         */
+        LUKKET,
+
+        /**
+         * Forespørsler feiler umiddelbart med {@link no.difi.sdp.client2.domain.exceptions.MeldingsformidlerUtilgjengeligException}.
+         */
+        AAPEN,
+
+        /**
+         * Et begrenset antall forespørsler slipper gjennom for å undersøke om meldingsformidler fungerer igjen.
+         */
+        HALVAAPEN
+    }
+
+    void tilstandEndret(URI endepunkt, Operasjon operasjon, Tilstand fra, Tilstand til);
+}
@@ -0,0 +1,150 @@
+package no.difi.sdp.client2;
+
+import java.time.Duration;
+
+/**
+ * Regler for når forespørsler mot meldingsformidler skal feile umiddelbart i stedet for å bli sendt. Uten dette vil
+ * hver forespørsel vente i opptil {@link KlientKonfigurasjon#getSocketTimeoutInMillis() socketTimeout} når
+ * meldingsformidler har problemer, og binde opp tråder i mellomtiden.
+ * <p>
+ * Utfallet av de siste forespørslene telles for hver type forespørsel, se {@link CircuitBreakerListener.Operasjon}.
+ * Når andelen som feilet, eller andelen som tok lengre tid enn grensen for trege forespørsler, når terskelen, åpnes
+ * circuit breakeren, og forespørsler av samme type feiler med
+ * {@link no.difi.sdp.client2.domain.exceptions.MeldingsformidlerUtilgjengeligException}. Etter en gitt tid slippes et
+ * begrenset antall forespørsler gjennom. Går alle disse bra lukkes circuit breakeren igjen, ellers åpnes den på nytt.
+ * <p>
+ * Feil som antas å være klientens skyld, se {@link no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig},
+ * telles ikke som feil.
+ *
+ * @see KlientKonfigurasjon.Builder#circuitBreaker(CircuitBreakerPolicy)
+ */
+public final class CircuitBreakerPolicy {
+
+    /**
+     * Forespørsler sendes alltid. Dette er standard.
+     */
+    public static final CircuitBreakerPolicy INGEN = new CircuitBreakerPolicy(false);
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final boolean aktiv;
+    private int vindu = 50;
+    private int minimumAntall = 20;
+    private double feilrate = 0.5;
+    private Duration tregForespoersel = Duration.ofSeconds(10);
+    private double tregRate = 0.8;
+    private Duration aapenVentetid = Duration.ofSeconds(30);
+    private int antallProever = 3;
+    private CircuitBreakerListener lytter = (endepunkt, operasjon, fra, til) -> {};
+
+    private CircuitBreakerPolicy(boolean aktiv) {
+        this.aktiv = aktiv;
+    }
+
+    public boolean isAktiv() {
+        return aktiv;
+    }
+
+    public int getVindu() {
+        return vindu;
+    }
+
+    public int getMinimumAntall() {
+        return minimumAntall;
+    }
+
+    public double getFeilrate() {
+        return feilrate;
+    }
+
+    public Duration getTregForespoersel() {
+        return tregForespoersel;
+    }
+
+    public double getTregRate() {
+        return tregRate;
+    }
+
+    public Duration getAapenVentetid() {
+        return aapenVentetid;
+    }
+
+    public int getAntallProever() {
+        return antallProever;
+    }
+
+    public CircuitBreakerListener getLytter() {
+        return lytter;
+    }
+
+
+    public static class Builder {
+
+        private final CircuitBreakerPolicy target = new CircuitBreakerPolicy(true);
+
+        private Builder() {
+        }
+
+        /**
+         * Antall av de siste forespørslene som vurderes, og minste antall som må være gjort før circuit breakeren kan
+         * åpnes. Standard er 50 og 20.
+         */
+        public Builder vindu(int vindu, int minimumAntall) {
+            if (vindu < 1 || minimumAntall < 1 || minimumAntall > vindu) {
+                throw new IllegalArgumentException("Ugyldig vindu " + vindu + " med minimum antall " + minimumAntall);
+            }
+            target.vindu = vindu;
+            target.minimumAntall = minimumAntall;
+            return this;
+        }
+
+        /**
+         * Andel av forespørslene i vinduet som må ha feilet for at circuit breakeren åpnes. Standard er 0.5.
+         */
+        public Builder feilrate(double feilrate) {
+            target.feilrate = requireRate(feilrate);
+            return this;
+        }
+
+        /**
+         * Forespørsler som tar lengre tid enn {@code tregForespoersel} regnes som trege, og circuit breakeren åpnes når
+         * andelen trege forespørsler i vinduet når {@code tregRate}. Standard er 10 sekunder og 0.8.
+         */
+        public Builder treghet(Duration tregForespoersel, double tregRate) {
+            target.tregForespoersel = tregForespoersel;
+            target.tregRate = requireRate(tregRate);
+            return this;
+        }
+
+        /**
+         * Hvor lenge circuit breakeren er åpen før forespørsler slipper gjennom igjen, og hvor mange forespørsler som
+         * da slipper gjennom for å undersøke om meldingsformidler fungerer. Standard er 30 sekunder og 3.
+         */
+        public Builder aapen(Duration ventetid, int antallProever) {
+            if (antallProever < 1) {
+                throw new IllegalArgumentException("Antall prøver må være minst 1, var " + antallProever);
+            }
+            target.aapenVentetid = ventetid;
+            target.antallProever = antallProever;
+            return this;
+        }
+
+        public Builder lytter(CircuitBreakerListener lytter) {
+            target.lytter = lytter;
+            return this;
+        }
+
+        public CircuitBreakerPolicy build() {
+            return target;
+        }
+
+        private static double requireRate(double rate) {
+            if (rate <= 0 || rate > 1) {
+                throw new IllegalArgumentException("Andel må være større enn 0 og maks 1, var " + rate);
+            }
+            return rate;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Regler for hvilke filer i dokumentpakken som komprimeres. Filer som allerede er komprimert, som de fleste PDF-er og
+ * bilder, blir knapt mindre av å komprimeres på nytt, men komprimeringen er likevel en stor del av CPU-bruken ved
+ * bygging av dokumentpakken. Slike filer kan lagres ukomprimert i stedet, enten basert på MIME-type, eller ved å
+ * prøvekomprimere starten av filen.
+ * <p>
+ * Fakturerbare bytes beregnes av størrelsen før komprimering, og påvirkes ikke av dette.
+ *
+ * @see KlientKonfigurasjon.Builder#compressionPolicy(CompressionPolicy)
+ */
+public final class CompressionPolicy {
+
+    /**
+     * Alle filer komprimeres med standard nivå. Dette er standard.
+     */
+    public static final CompressionPolicy STANDARD = builder().build();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private int nivaa = Deflater.DEFAULT_COMPRESSION;
+    private Set<String> ukomprimerteMimeTyper = Collections.emptySet();
+    private int proeveStoerrelse = 0;
+    private double minBesparelse = 0;
+
+    private CompressionPolicy() {
+    }
+
+    /**
+     * @return nivået filer som komprimeres komprimeres med, fra {@link Deflater#BEST_SPEED} til
+     * {@link Deflater#BEST_COMPRESSION}, eller {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public int getNivaa() {
+        return nivaa;
+    }
+
+    /**
+     * Om filen skal komprimeres, eller lagres ukomprimert i dokumentpakken. Kan lese starten av filen.
+     */
+    public boolean skalKomprimeres(AsicEAttachable fil) {
+        if (fil.getMimeType() != null && ukomprimerteMimeTyper.contains(fil.getMimeType().toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        return proeveStoerrelse <= 0 || besparelse(fil) >= minBesparelse;
+    }
+
+    private double besparelse(AsicEAttachable fil) {
+        byte[] proeve = new byte[proeveStoerrelse];
+        int lest;
+        try (InputStream innhold = fil.getSource().openStream()) {
+            lest = IOUtils.read(innhold, proeve);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        if (lest == 0) {
+            return 1;
+        }
+        Deflater deflater = new Deflater(nivaa, true);
+        try {
+            deflater.setInput(proeve, 0, lest);
+            deflater.finish();
+            byte[] utdata = new byte[8192];
+            long komprimert = 0;
+            while (!deflater.finished()) {
+                komprimert += deflater.deflate(utdata);
+            }
+            return 1 - (double) komprimert / lest;
+        } finally {
+            deflater.end();
+        }
+    }
+
+
+    public static class Builder {
+
+        private final CompressionPolicy target = new CompressionPolicy();
+
+        private Builder() {
+        }
+
+        /**
+         * Komprimeringsnivå fra 1 (raskest) til 9 (minst), eller -1 for standard nivå, som er 6.
+         */
+        public Builder nivaa(int nivaa) {
+            if (nivaa != Deflater.DEFAULT_COMPRESSION && (nivaa < Deflater.BEST_SPEED || nivaa > Deflater.BEST_COMPRESSION)) {
+                throw new IllegalArgumentException("Komprimeringsnivå må være fra 1 til 9, eller -1 for standard, var " + nivaa);
+            }
+            target.nivaa = nivaa;
+            return this;
+        }
+
+        /**
+         * Filer med disse MIME-typene lagres ukomprimert, for eksempel {@code application/pdf} og {@code image/jpeg}.
+         */
+        public Builder ukomprimert(String... mimeTyper) {
+            Set<String> ukomprimerte = new HashSet<>(target.ukomprimerteMimeTyper);
+            ukomprimerte.addAll(Arrays.stream(mimeTyper).map(mimeType -> mimeType.toLowerCase(Locale.ROOT)).collect(toSet()));
+            target.ukomprimerteMimeTyper = Collections.unmodifiableSet(ukomprimerte);
+            return this;
+        }
+
+        /**
+         * Prøvekomprimer starten av hver fil, og lagre filen ukomprimert dersom komprimeringen sparer mindre enn
+         * {@code minBesparelse} av størrelsen. Filen leses da én ekstra gang, opp til {@code proeveStoerrelse} bytes.
+         *
+         * @param proeveStoerrelse antall bytes fra starten av filen som prøvekomprimeres, for eksempel 64 KB.
+         * @param minBesparelse    andelen komprimeringen minst må spare, for eksempel 0.05 for 5 %.
+         */
+        public Builder proevekomprimering(int proeveStoerrelse, double minBesparelse) {
+            if (proeveStoerrelse < 1 || minBesparelse < 0 || minBesparelse > 1) {
+                throw new IllegalArgumentException("Ugyldig prøvekomprimering av " + proeveStoerrelse + " bytes med minste besparelse " + minBesparelse);
+            }
+            target.proeveStoerrelse = proeveStoerrelse;
+            target.minBesparelse = minBesparelse;
+            return this;
+        }
+
+        public CompressionPolicy build() {
+            return target;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package no.difi.sdp.client2;
 
 import no.difi.sdp.client2.domain.Miljo;
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.Valideringsmodus;
 import no.digipost.api.EbmsEndpointUriBuilder;
 import no.digipost.api.MessageFactorySupplier;
 import no.digipost.api.representations.Organisasjonsnummer;
@@ -8,7 +10,11 @@ import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponseInterceptor;
 import org.springframework.ws.client.support.interceptor.ClientInterceptor;
 
+import java.io.File;
 import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.lang3.StringUtils.isEmpty;
@@ -40,10 +46,28 @@ public class KlientKonfigurasjon {
     private long socketTimeoutInMillis = TimeUnit.SECONDS.toMillis(30);
     private long connectTimeoutInMillis = TimeUnit.SECONDS.toMillis(10);
     private long connectionRequestTimeoutInMillis = TimeUnit.SECONDS.toMillis(10);
+    private long connectionTimeToLiveInMillis = -1;
+    private long maxIdleTimeInMillis = -1;
+    private int warmUpConnections = 0;
+    private int maxRequestsPerSecond = 0;
+    private RetryPolicy retryPolicy = RetryPolicy.INGEN;
+    private CircuitBreakerPolicy circuitBreakerPolicy = CircuitBreakerPolicy.INGEN;
+    private Metrics metrics = Metrics.INGEN;
+    private final Map<Prioritet, Integer> maxInFlightRequests = new EnumMap<>(Prioritet.class);
     private ClientInterceptor[] soapInterceptors = new ClientInterceptor[0];
     private HttpRequestInterceptor[] httpRequestInterceptors = new HttpRequestInterceptor[0];
     private HttpResponseInterceptor[] httpResponseInterceptors = new HttpResponseInterceptor[0];
     private MessageFactorySupplier messageFactorySupplier;
+    private int dokumentpakkeBufferSize = 0;
+    private File tempDirectory;
+    private ForkJoinPool parallellZipping;
+    private CompressionPolicy compressionPolicy = CompressionPolicy.STANDARD;
+    private Valideringsmodus valideringsmodus = Valideringsmodus.ALWAYS;
+    private int valideringsantall = 100;
+    private Valideringsmodus requestValideringsmodus = Valideringsmodus.ALWAYS;
+    private int requestValideringsantall = 100;
+    private Valideringsmodus responseValideringsmodus = Valideringsmodus.ALWAYS;
+    private int responseValideringsantall = 100;
 
 
 
@@ -79,10 +103,105 @@ public class KlientKonfigurasjon {
         return connectionRequestTimeoutInMillis;
     }
 
+    /**
+     * @return maks levetid for en forbindelse i poolen, eller -1 dersom forbindelser kan gjenbrukes så lenge de er åpne.
+     */
+    public long getConnectionTimeToLiveInMillis() {
+        return connectionTimeToLiveInMillis;
+    }
+
+    /**
+     * @return hvor lenge en forbindelse kan stå ubrukt i poolen før den lukkes, eller -1 dersom ubrukte forbindelser ikke lukkes.
+     */
+    public long getMaxIdleTimeInMillis() {
+        return maxIdleTimeInMillis;
+    }
+
+    /**
+     * @return maks antall forespørsler til meldingsformidler per sekund, eller 0 dersom antallet ikke er begrenset.
+     */
+    public int getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    public int getMaxInFlightRequests(Prioritet prioritet) {
+        return maxInFlightRequests.getOrDefault(prioritet, Integer.MAX_VALUE);
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public int getWarmUpConnections() {
+        return warmUpConnections;
+    }
+
     public int getMaxConnectionPoolSize() {
         return maxConnectionPoolSize;
     }
 
+    public int getDokumentpakkeBufferSize() {
+        return dokumentpakkeBufferSize;
+    }
+
+    public boolean useStreamingDokumentpakke() {
+        return dokumentpakkeBufferSize > 0;
+    }
+
+    /**
+     * @return katalog for midlertidige filer, eller {@code null} for {@code java.io.tmpdir}.
+     */
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    /**
+     * @return pool for parallell zipping av dokumentene, eller {@code null} om de zippes sekvensielt.
+     * @see Builder#parallellZipping(ForkJoinPool)
+     */
+    public ForkJoinPool getParallellZipping() {
+        return parallellZipping;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    public Valideringsmodus getValideringsmodus() {
+        return valideringsmodus;
+    }
+
+    /**
+     * @see Builder#xmlValidering(Valideringsmodus, int)
+     */
+    public int getValideringsantall() {
+        return valideringsantall;
+    }
+
+    public Valideringsmodus getRequestValideringsmodus() {
+        return requestValideringsmodus;
+    }
+
+    public int getRequestValideringsantall() {
+        return requestValideringsantall;
+    }
+
+    public Valideringsmodus getResponseValideringsmodus() {
+        return responseValideringsmodus;
+    }
+
+    public int getResponseValideringsantall() {
+        return responseValideringsantall;
+    }
+
     public boolean useProxy() {
         return !isEmpty(proxyHost) && proxyPort > 0;
     }
@@ -153,11 +272,241 @@ public class KlientKonfigurasjon {
             return this;
         }
 
+        /**
+         * Maks levetid for en forbindelse til meldingsformidler. Forbindelser som er eldre enn dette gjenbrukes ikke,
+         * men lukkes og erstattes av nye. Nyttig når meldingsformidler ligger bak en lastbalanserer, slik at nye
+         * forbindelser fordeles på nye noder over tid.
+         * <p>
+         * Standard er at forbindelser gjenbrukes så lenge de er åpne.
+         */
+        public Builder connectionTimeToLive(int timeToLive, TimeUnit timeUnit) {
+            target.connectionTimeToLiveInMillis = timeUnit.toMillis(timeToLive);
+            return this;
+        }
+
+        /**
+         * Lukk forbindelser som har stått ubrukt i poolen lenger enn gitt tid, og forbindelser som har passert
+         * {@link #connectionTimeToLive(int, TimeUnit) maks levetid}. Dette gjøres av en egen bakgrunnstråd, slik at
+         * forbindelser som er lukket av serveren eller en brannmur ikke blir forsøkt brukt ved neste sending.
+         * <p>
+         * Standard er at ubrukte forbindelser står i poolen til de brukes igjen.
+         */
+        public Builder evictIdleConnections(int maxIdleTime, TimeUnit timeUnit) {
+            target.maxIdleTimeInMillis = timeUnit.toMillis(maxIdleTime);
+            return this;
+        }
+
+        /**
+         * Varm opp klienten når den opprettes, med {@link SikkerDigitalPostKlient#warmUp(int)}. Første sending
+         * slipper da å betale for TLS-handshake og initialisering av signering, kryptering og XML-håndtering.
+         * <p>
+         * Standard er at klienten ikke varmes opp.
+         *
+         * @param antallForbindelser antall forbindelser til meldingsformidler som åpnes og legges i poolen. Begrenset
+         *                           av {@link #maxConnectionPoolSize(int)}.
+         */
+        public Builder warmUp(int antallForbindelser) {
+            if (antallForbindelser < 0) {
+                throw new IllegalArgumentException("Antall forbindelser kan ikke være negativt, var " + antallForbindelser);
+            }
+            target.warmUpConnections = antallForbindelser;
+            return this;
+        }
+
+        /**
+         * Begrens antall forespørsler til meldingsformidler per sekund, for alle prioriteter samlet. Etter en periode
+         * uten forespørsler kan ett sekunds kvote brukes på én gang. Forespørsler som ikke slipper til innen
+         * {@link #connectionRequestTimeout(int, TimeUnit)} avvises med
+         * {@link no.difi.sdp.client2.domain.exceptions.ForespoerselAvvistException}.
+         * <p>
+         * Forespørsler med {@link Prioritet#PRIORITERT} går foran ventende forespørsler med {@link Prioritet#NORMAL}.
+         * Bekreftelser av kvitteringer regnes som prioriterte. Standard er ingen begrensning.
+         *
+         * @see SikkerDigitalPostKlient#getAdmissionStatistics()
+         */
+        public Builder maxRequestsPerSecond(int maxRequestsPerSecond) {
+            if (maxRequestsPerSecond < 0) {
+                throw new IllegalArgumentException("Antall forespørsler per sekund kan ikke være negativt, var " + maxRequestsPerSecond);
+            }
+            target.maxRequestsPerSecond = maxRequestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Begrens antall samtidige forespørsler til meldingsformidler med gitt prioritet. Brukes typisk til å holde av
+         * en del av {@link #maxConnectionPoolSize(int) connection-poolen} til prioriterte forsendelser, ved å sette en
+         * lavere grense for {@link Prioritet#NORMAL}, slik at masseutsendelser ikke stenger ute prioritert post.
+         * <p>
+         * Standard er at kun størrelsen på connection-poolen begrenser antall samtidige forespørsler.
+         */
+        public Builder maxInFlightRequests(Prioritet prioritet, int maxInFlightRequests) {
+            if (maxInFlightRequests < 1) {
+                throw new IllegalArgumentException("Antall samtidige forespørsler må være minst 1, var " + maxInFlightRequests);
+            }
+            target.maxInFlightRequests.put(prioritet, maxInFlightRequests);
+            return this;
+        }
+
+        /**
+         * Send forsendelser på nytt når sendingen feiler, etter gitte regler. Forsendelsen bygges, signeres og
+         * krypteres kun én gang, og sendes på nytt med samme meldingsId. Gjelder {@link SikkerDigitalPostKlient#send}
+         * og {@link SikkerDigitalPostKlient#sendAsync}, ikke henting og bekreftelse av kvitteringer.
+         * <p>
+         * Standard er {@link RetryPolicy#INGEN}.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            target.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * La forespørsler mot meldingsformidler feile umiddelbart når for mange av de siste har feilet eller vært trege,
+         * i stedet for å vente på tidsavbrudd. Gjelder hver type forespørsel for seg, og deles av alle klienter på samme
+         * {@link MeldingsformidlerTransport}.
+         * <p>
+         * Standard er {@link CircuitBreakerPolicy#INGEN}.
+         */
+        public Builder circuitBreaker(CircuitBreakerPolicy circuitBreakerPolicy) {
+            target.circuitBreakerPolicy = circuitBreakerPolicy;
+            return this;
+        }
+
+        /**
+         * Rapporter tidsbruk for hvert steg i byggingen og sendingen av forsendelser, fakturerbare bytes, hentede
+         * kvitteringer og feil mot meldingsformidler.
+         * <p>
+         * Standard er {@link Metrics#INGEN}.
+         */
+        public Builder metrics(Metrics metrics) {
+            target.metrics = metrics;
+            return this;
+        }
+
         public Builder maxConnectionPoolSize(int maxConnectionPoolSize) {
             target.maxConnectionPoolSize = maxConnectionPoolSize;
             return this;
         }
 
+        /**
+         * Bygg og krypter dokumentpakken som en strøm, der zippet ASiC-E krypteres fortløpende i stedet for å holdes i
+         * minnet som en byte-array i hvert steg. Den krypterte pakken holdes i minnet opp til gitt størrelse; større pakker
+         * mellomlagres i en midlertidig fil som slettes når sendingen er ferdig. Minnebruken per sending blir dermed
+         * begrenset av denne størrelsen, og ikke av størrelsen på dokumentene.
+         * <p>
+         * I {@link BulkSender}, der signert ASiC-E venter i kø før kryptering, mellomlagres også ASiC-E på samme måte.
+         * SOAP-meldingen til meldingsformidler mellomlagres også på samme måte, og strømmes derfra som HTTP-body.
+         * <p>
+         * Standard er at hele dokumentpakken bygges i minnet.
+         *
+         * @param maxInMemoryBytes maks antall bytes av den krypterte dokumentpakken som holdes i minnet.
+         */
+        public Builder dokumentpakkeBufferSize(int maxInMemoryBytes) {
+            target.dokumentpakkeBufferSize = maxInMemoryBytes;
+            return this;
+        }
+
+        /**
+         * Zip dokumentene i dokumentpakken og beregn SHA-256 til signaturen parallelt i gitt pool, i stedet for ett og
+         * ett i tråden som bygger pakken. Filene skrives likevel til arkivet i samme rekkefølge som før, så innholdet
+         * i dokumentpakken er det samme. Nyttig for forsendelser med mange eller store vedlegg, der byggingen ellers
+         * begrenses av én kjerne.
+         * <p>
+         * Komprimerte filer som venter på at filene foran dem skal bli ferdige holdes i minnet, også ved
+         * {@link #dokumentpakkeBufferSize(int) strømming}.
+         * <p>
+         * Standard er at dokumentene zippes sekvensielt.
+         *
+         * @param pool for eksempel {@link ForkJoinPool#commonPool()}.
+         */
+        public Builder parallellZipping(ForkJoinPool pool) {
+            target.parallellZipping = pool;
+            return this;
+        }
+
+        /**
+         * Hvilke filer i dokumentpakken som komprimeres, og med hvilket nivå. Filer som allerede er komprimert, som
+         * de fleste PDF-er og bilder, kan lagres ukomprimert for å spare CPU.
+         * <p>
+         * Standard er {@link CompressionPolicy#STANDARD}, der alle filer komprimeres med standard nivå.
+         */
+        public Builder compressionPolicy(CompressionPolicy compressionPolicy) {
+            target.compressionPolicy = compressionPolicy;
+            return this;
+        }
+
+        /**
+         * Katalog for midlertidige filer. Standard er {@code java.io.tmpdir}.
+         */
+        public Builder tempDirectory(File tempDirectory) {
+            target.tempDirectory = tempDirectory;
+            return this;
+        }
+
+        /**
+         * Hvor ofte manifest.xml og signature.xml skal valideres mot XSD før sending. Valideringen fanger feil i
+         * input, som manglende påkrevde verdier, før forsendelsen sendes, men er også en stor del av CPU-bruken ved
+         * bygging av dokumentpakken. Når validering er avslått for en dokumentpakke, blir slike feil i stedet avvist
+         * av meldingsformidler.
+         * <p>
+         * Standard er {@link Valideringsmodus#ALWAYS}.
+         *
+         * @param antall for {@link Valideringsmodus#SAMPLED} valideres hver N-te dokumentpakke, og for
+         *               {@link Valideringsmodus#OFF_AFTER_WARMUP} de N første. Brukes ikke for
+         *               {@link Valideringsmodus#ALWAYS}. Standard er 100.
+         */
+        public Builder xmlValidering(Valideringsmodus valideringsmodus, int antall) {
+            requireAntall(antall);
+            target.valideringsmodus = valideringsmodus;
+            target.valideringsantall = antall;
+            return this;
+        }
+
+        public Builder xmlValidering(Valideringsmodus valideringsmodus) {
+            target.valideringsmodus = valideringsmodus;
+            return this;
+        }
+
+        /**
+         * Hvor ofte SOAP-meldinger som sendes til meldingsformidler skal valideres mot XSD. Standard er
+         * {@link Valideringsmodus#ALWAYS}. Schemaene kompileres én gang, og deles av alle klienter i JVM-en.
+         *
+         * @param antall se {@link #xmlValidering(Valideringsmodus, int)}.
+         */
+        public Builder requestValidering(Valideringsmodus valideringsmodus, int antall) {
+            requireAntall(antall);
+            target.requestValideringsmodus = valideringsmodus;
+            target.requestValideringsantall = antall;
+            return this;
+        }
+
+        public Builder requestValidering(Valideringsmodus valideringsmodus) {
+            target.requestValideringsmodus = valideringsmodus;
+            return this;
+        }
+
+        /**
+         * Hvor ofte svar fra meldingsformidler skal valideres mot XSD. Standard er {@link Valideringsmodus#ALWAYS}.
+         *
+         * @param antall se {@link #xmlValidering(Valideringsmodus, int)}.
+         */
+        public Builder responseValidering(Valideringsmodus valideringsmodus, int antall) {
+            requireAntall(antall);
+            target.responseValideringsmodus = valideringsmodus;
+            target.responseValideringsantall = antall;
+            return this;
+        }
+
+        public Builder responseValidering(Valideringsmodus valideringsmodus) {
+            target.responseValideringsmodus = valideringsmodus;
+            return this;
+        }
+
+        private static void requireAntall(int antall) {
+            if (antall < 1) {
+                throw new IllegalArgumentException("Antall må være minst 1, var " + antall);
+            }
+        }
+
         public Builder soapInterceptors(ClientInterceptor... soapInterceptors) {
             target.soapInterceptors = soapInterceptors;
             return this;
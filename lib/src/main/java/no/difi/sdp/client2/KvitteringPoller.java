@@ -0,0 +1,265 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.kvittering.ForretningsKvittering;
+import no.difi.sdp.client2.domain.kvittering.KvitteringForespoersel;
+import no.difi.sdp.client2.internal.ThreadPools;
+import no.digipost.api.representations.KanBekreftesSomBehandletKvittering;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Henter kvitteringer fra en eller flere kvitteringskøer, etter reglene beskrevet på
+ * {@link SikkerDigitalPostKlient#hentKvittering(KvitteringForespoersel)}.
+ * <p>
+ * Så lenge en kø returnerer kvitteringer, hentes neste kvittering med en gang. Først når køen er tom ventes det
+ * minimum 10 minutter for {@link Prioritet#NORMAL} og 1 minutt for {@link Prioritet#PRIORITERT} før køen spørres
+ * igjen. Hver kvittering bekreftes i samme kall som henter den neste, med
+ * {@link SikkerDigitalPostKlient#hentKvitteringOgBekreftForrige(KvitteringForespoersel, KanBekreftesSomBehandletKvittering)},
+ * slik at hver kvittering koster ett kall i stedet for to.
+ * <p>
+ * Køene hentes fra parallelt, på en trådpool med begrenset antall tråder. Kvitteringene gis videre til
+ * {@link KvitteringHandler} på en egen trådpool, slik at trådene som henter kan hente fra andre køer mens
+ * kvitteringer behandles, f.eks. lagres i en database. Gjennomløpet blir dermed begrenset av hvor mange kvitteringer
+ * som kan behandles samtidig, og ikke av tiden et kall til meldingsformidler tar.
+ * <p>
+ * Meldingsformidler gir ikke ut en ny kvittering fra en kø før den forrige er bekreftet, så hver kø har maks én
+ * kvittering under behandling. {@link KvitteringHandler} kalles dermed i rekkefølge for kvitteringene i en kø, og
+ * kvitteringene bekreftes i samme rekkefølge. Dersom henting av neste kvittering feiler, bekreftes den forrige med et
+ * eget kall til {@link SikkerDigitalPostKlient#bekreft(KanBekreftesSomBehandletKvittering)}.
+ */
+public class KvitteringPoller implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KvitteringPoller.class);
+
+    private static final Map<Prioritet, Duration> MINIMUM_VENTETID = new EnumMap<>(Prioritet.class);
+
+    static {
+        MINIMUM_VENTETID.put(Prioritet.NORMAL, Duration.ofMinutes(10));
+        MINIMUM_VENTETID.put(Prioritet.PRIORITERT, Duration.ofMinutes(1));
+    }
+
+    public interface KvitteringHandler {
+
+        /**
+         * Behandler en kvittering, f.eks. ved å lagre den. Kvitteringen bekreftes når metoden returnerer normalt.
+         * Dersom metoden kaster en exception, bekreftes ikke kvitteringen, og køen hentes fra igjen etter ventetiden
+         * for køens prioritet.
+         */
+        void behandle(ForretningsKvittering kvittering);
+
+        /**
+         * Kalles når henting fra en kø feiler. Køen hentes fra igjen etter ventetiden for køens prioritet.
+         *
+         * @param sendException feilen, mappet med klientens {@link ExceptionMapper}.
+         */
+        default void feilet(KvitteringForespoersel kvitteringForespoersel, SendException sendException) {
+        }
+    }
+
+    /**
+     * @param klient            klienten som skal brukes til å hente og bekrefte kvitteringer.
+     * @param kvitteringHandler behandler kvitteringene etter hvert som de hentes.
+     * @param koeer             kvitteringskøene som skal hentes fra, gitt ved prioritet og eventuell MPC Id.
+     */
+    public static Builder builder(SikkerDigitalPostKlient klient, KvitteringHandler kvitteringHandler, Collection<KvitteringForespoersel> koeer) {
+        return new Builder(klient, kvitteringHandler, koeer);
+    }
+
+    private final SikkerDigitalPostKlient klient;
+    private final KvitteringHandler kvitteringHandler;
+    private final Map<Prioritet, Duration> ventetid;
+    private final List<Koe> koeer = new ArrayList<>();
+    private final ScheduledThreadPoolExecutor executor;
+    private final ExecutorService behandling;
+    private volatile boolean stoppet = false;
+
+    private KvitteringPoller(SikkerDigitalPostKlient klient, KvitteringHandler kvitteringHandler, Collection<KvitteringForespoersel> koeer, Map<Prioritet, Duration> ventetid, int traader, int behandlingstraader) {
+        this.klient = klient;
+        this.kvitteringHandler = kvitteringHandler;
+        this.ventetid = ventetid;
+        for (KvitteringForespoersel forespoersel : koeer) {
+            this.koeer.add(new Koe(forespoersel));
+        }
+        this.executor = new ScheduledThreadPoolExecutor(traader, ThreadPools.daemonThreadFactory("sdp-kvittering"));
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.behandling = ThreadPools.newBoundedPool("sdp-kvittering-behandling", behandlingstraader);
+    }
+
+    /**
+     * Starter henting fra alle køene.
+     */
+    public void start() {
+        for (Koe koe : koeer) {
+            planlegg(koe, Duration.ZERO);
+        }
+    }
+
+    /**
+     * Stopper hentingen, venter på at kvitteringer som allerede er hentet blir ferdig behandlet, og bekrefter siste
+     * behandlede kvittering i hver kø.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        stoppet = true;
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        behandling.shutdown();
+        behandling.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        for (Koe koe : koeer) {
+            koe.bekreftForrige();
+        }
+    }
+
+    private void planlegg(Koe koe, Duration om) {
+        if (stoppet) {
+            return;
+        }
+        try {
+            executor.schedule(koe::hent, om.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            if (!stoppet) {
+                throw e;
+            }
+        }
+    }
+
+    private final class Koe {
+
+        final KvitteringForespoersel forespoersel;
+        private KanBekreftesSomBehandletKvittering forrige;
+
+        Koe(KvitteringForespoersel forespoersel) {
+            this.forespoersel = forespoersel;
+        }
+
+        void hent() {
+            if (stoppet) {
+                return;
+            }
+            ForretningsKvittering kvittering;
+            try {
+                kvittering = klient.hentKvitteringOgBekreftForrige(forespoersel, forrige);
+            } catch (RuntimeException e) {
+                feilet(e);
+                bekreftForrige();
+                planlegg(this, ventetid.get(forespoersel.getPrioritet()));
+                return;
+            }
+            forrige = null;
+
+            if (kvittering == null) {
+                planlegg(this, ventetid.get(forespoersel.getPrioritet()));
+                return;
+            }
+            behandling.execute(() -> behandle(kvittering));
+        }
+
+        private void behandle(ForretningsKvittering kvittering) {
+            try {
+                kvitteringHandler.behandle(kvittering);
+            } catch (RuntimeException e) {
+                LOG.warn("{} kastet feil for kvittering med konversasjonsId {}. Kvitteringen blir ikke bekreftet.",
+                        KvitteringHandler.class.getSimpleName(), kvittering.getKonversasjonsId(), e);
+                planlegg(this, ventetid.get(forespoersel.getPrioritet()));
+                return;
+            }
+            forrige = kvittering;
+            planlegg(this, Duration.ZERO);
+        }
+
+        private void feilet(RuntimeException e) {
+            try {
+                kvitteringHandler.feilet(forespoersel, klient.tilSendException(e));
+            } catch (RuntimeException handlerFeil) {
+                LOG.warn("{} kastet feil ved behandling av feil for kø med prioritet {} og MPC Id {}",
+                        KvitteringHandler.class.getSimpleName(), forespoersel.getPrioritet(), forespoersel.getMpcId(), handlerFeil);
+            }
+        }
+
+        void bekreftForrige() {
+            if (forrige != null) {
+                try {
+                    klient.bekreft(forrige);
+                    forrige = null;
+                } catch (RuntimeException e) {
+                    LOG.warn("Kunne ikke bekrefte siste kvittering for kø med prioritet {} og MPC Id {}", forespoersel.getPrioritet(), forespoersel.getMpcId(), e);
+                }
+            }
+        }
+    }
+
+
+    public static class Builder {
+
+        private final SikkerDigitalPostKlient klient;
+        private final KvitteringHandler kvitteringHandler;
+        private final Collection<KvitteringForespoersel> koeer;
+        private final Map<Prioritet, Duration> ventetid = new EnumMap<>(MINIMUM_VENTETID);
+        private int traader;
+        private int behandlingstraader;
+
+        private Builder(SikkerDigitalPostKlient klient, KvitteringHandler kvitteringHandler, Collection<KvitteringForespoersel> koeer) {
+            if (koeer.isEmpty()) {
+                throw new IllegalArgumentException("Må ha minst én kvitteringskø å hente fra");
+            }
+            this.klient = klient;
+            this.kvitteringHandler = kvitteringHandler;
+            this.koeer = new ArrayList<>(koeer);
+            this.traader = koeer.size();
+            this.behandlingstraader = koeer.size();
+        }
+
+        /**
+         * Hvor lenge det skal ventes før en tom kø spørres igjen. Kan ikke være kortere enn minimum for prioriteten,
+         * som også er standard: 10 minutter for {@link Prioritet#NORMAL} og 1 minutt for {@link Prioritet#PRIORITERT}.
+         */
+        public Builder ventetidNaarTom(Prioritet prioritet, Duration ventetid) {
+            if (ventetid.compareTo(MINIMUM_VENTETID.get(prioritet)) < 0) {
+                throw new IllegalArgumentException("Ventetid for " + prioritet + " kan ikke være kortere enn " + MINIMUM_VENTETID.get(prioritet) + ", var " + ventetid);
+            }
+            return ventetidUtenMinimum(prioritet, ventetid);
+        }
+
+        /**
+         * Kun for tester, der man ikke kan vente minuttvis.
+         */
+        Builder ventetidUtenMinimum(Prioritet prioritet, Duration ventetid) {
+            this.ventetid.put(prioritet, ventetid);
+            return this;
+        }
+
+        /**
+         * Maks antall køer som hentes fra samtidig. Standard er antall køer.
+         */
+        public Builder traader(int antallTraader) {
+            this.traader = antallTraader;
+            return this;
+        }
+
+        /**
+         * Maks antall kvitteringer som behandles av {@link KvitteringHandler} samtidig. Siden hver kø har maks én
+         * kvittering under behandling, gir det ingen gevinst å sette dette høyere enn antall køer. Standard er antall køer.
+         */
+        public Builder behandlingstraader(int antallTraader) {
+            this.behandlingstraader = antallTraader;
+            return this;
+        }
+
+        public KvitteringPoller build() {
+            return new KvitteringPoller(klient, kvitteringHandler, koeer, ventetid, traader, behandlingstraader);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.Databehandler;
+import no.difi.sdp.client2.domain.exceptions.KonfigurasjonException;
+import no.difi.sdp.client2.internal.AddClientVersionInterceptor;
+import no.difi.sdp.client2.internal.AdmissionController;
+import no.difi.sdp.client2.internal.CircuitBreakers;
+import no.difi.sdp.client2.internal.StreamingMessageSender;
+import no.digipost.api.interceptors.RemoveContentLengthInterceptor;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ws.transport.WebServiceMessageSender;
+import org.springframework.ws.transport.http.HttpComponentsMessageSender;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forbindelsen til meldingsformidler, som kan deles av flere {@link SikkerDigitalPostKlient}-er, f.eks. én per
+ * {@link Databehandler} i en løsning som sender på vegne av mange virksomheter.
+ * <p>
+ * Alle klienter som bygges på samme transport deler én connection-pool mot meldingsformidler, begrenset av
+ * {@link KlientKonfigurasjon#getMaxConnectionPoolSize()}, i stedet for at hver klient har sin egen. Hver klient
+ * signerer fortsatt meldingene med nøkkelparet til sin egen {@link Databehandler}.
+ * <p>
+ * Alle innstillinger hentes fra {@link KlientKonfigurasjon}en transporten lages med, og brukes av alle klientene.
+ * Man trenger altså én transport per miljø, f.eks. {@link no.difi.sdp.client2.domain.Miljo#PRODUKSJON}.
+ *
+ * @see SikkerDigitalPostKlient#SikkerDigitalPostKlient(Databehandler, MeldingsformidlerTransport)
+ */
+public class MeldingsformidlerTransport implements AutoCloseable {
+
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(MeldingsformidlerTransport.class);
+
+    private final KlientKonfigurasjon klientKonfigurasjon;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final HttpComponentsMessageSender messageSender;
+    private final AdmissionController admissionController;
+    private final CircuitBreakers circuitBreakers;
+
+    public MeldingsformidlerTransport(KlientKonfigurasjon klientKonfigurasjon) {
+        this.klientKonfigurasjon = klientKonfigurasjon;
+        this.connectionManager = connectionManager(klientKonfigurasjon);
+        this.httpClient = httpClient(klientKonfigurasjon, connectionManager);
+        this.messageSender = messageSender(klientKonfigurasjon, httpClient);
+        this.admissionController = AdmissionController.fra(klientKonfigurasjon);
+        this.circuitBreakers = CircuitBreakers.fra(klientKonfigurasjon);
+    }
+
+    public KlientKonfigurasjon getKlientKonfigurasjon() {
+        return klientKonfigurasjon;
+    }
+
+    WebServiceMessageSender getMessageSender() {
+        return messageSender;
+    }
+
+    AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    CircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * @return tilstanden til circuit breakeren for gitt type forespørsel. Alltid {@link CircuitBreakerListener.Tilstand#LUKKET}
+     *         med {@link CircuitBreakerPolicy#INGEN}.
+     */
+    public CircuitBreakerListener.Tilstand getCircuitBreakerTilstand(CircuitBreakerListener.Operasjon operasjon) {
+        return circuitBreakers.getTilstand(operasjon);
+    }
+
+    /**
+     * @return ventetid, avviste forespørsler og pågående forespørsler for alle klienter som bruker transporten.
+     * @see KlientKonfigurasjon.Builder#maxRequestsPerSecond(int)
+     * @see KlientKonfigurasjon.Builder#maxInFlightRequests(no.difi.sdp.client2.domain.Prioritet, int)
+     */
+    public AdmissionStatistics getAdmissionStatistics() {
+        return admissionController.statistikk();
+    }
+
+    /**
+     * Åpner forbindelser til meldingsformidler og legger dem i poolen, slik at de første sendingene slipper å vente på
+     * oppkobling og TLS-handshake. Forbindelser som allerede ligger åpne i poolen telles med, og det åpnes aldri flere
+     * enn {@link KlientKonfigurasjon#getMaxConnectionPoolSize()}.
+     * <p>
+     * Feil ved oppkobling logges, og fører ikke til exception. Ved bruk av proxy varmes ingen forbindelser opp, siden
+     * forbindelsen til meldingsformidler da først opprettes gjennom proxyen ved første sending.
+     *
+     * @return antall forbindelser som ligger klare i poolen.
+     */
+    public int warmUp(int antallForbindelser) {
+        if (klientKonfigurasjon.useProxy()) {
+            LOG.info("Varmer ikke opp forbindelser til meldingsformidler, siden de går via proxy");
+            return 0;
+        }
+        HttpRoute route = route(klientKonfigurasjon.getMeldingsformidlerRoot().getBaseUri());
+        List<HttpClientConnection> aapnet = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(antallForbindelser, klientKonfigurasjon.getMaxConnectionPoolSize()); i++) {
+                HttpClientConnection forbindelse = connectionManager
+                        .requestConnection(route, null)
+                        .get(klientKonfigurasjon.getConnectionRequestTimeoutInMillis(), TimeUnit.MILLISECONDS);
+                if (!forbindelse.isOpen()) {
+                    try {
+                        connectionManager.connect(forbindelse, route, (int) klientKonfigurasjon.getConnectTimeoutInMillis(), HttpClientContext.create());
+                        connectionManager.routeComplete(forbindelse, route, HttpClientContext.create());
+                    } catch (IOException e) {
+                        connectionManager.releaseConnection(forbindelse, null, 0, TimeUnit.MILLISECONDS);
+                        LOG.warn("Kunne ikke åpne forbindelse til {} ved oppvarming", route.getTargetHost(), e);
+                        break;
+                    }
+                }
+                aapnet.add(forbindelse);
+            }
+        } catch (ConnectionPoolTimeoutException | ExecutionException e) {
+            LOG.warn("Fikk ikke forbindelse fra poolen ved oppvarming", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (HttpClientConnection forbindelse : aapnet) {
+                connectionManager.releaseConnection(forbindelse, null, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+        return aapnet.size();
+    }
+
+    /**
+     * Samme rute som {@link org.apache.http.impl.conn.DefaultRoutePlanner} gir for forespørsler uten proxy, slik at
+     * forbindelsene som åpnes ved oppvarming blir gjenbrukt ved sending.
+     */
+    private static HttpRoute route(URI meldingsformidlerRoot) {
+        HttpHost host = URIUtils.extractHost(meldingsformidlerRoot);
+        try {
+            host = new HttpHost(host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host), host.getSchemeName());
+        } catch (UnsupportedSchemeException e) {
+            throw new KonfigurasjonException("Ukjent protokoll for meldingsformidler: " + meldingsformidlerRoot, e);
+        }
+        return new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+    }
+
+    /**
+     * Lukker alle forbindelser i poolen. Klienter som er bygget på transporten kan ikke brukes etter dette.
+     */
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    /**
+     * Med strømming av dokumentpakken strømmes også SOAP-meldingen til meldingsformidler fra et buffer av samme
+     * størrelse, i stedet for at hele meldingen kopieres inn i minnet før sending.
+     */
+    private static HttpComponentsMessageSender messageSender(KlientKonfigurasjon klientKonfigurasjon, CloseableHttpClient httpClient) {
+        if (klientKonfigurasjon.useStreamingDokumentpakke()) {
+            return new StreamingMessageSender(httpClient, klientKonfigurasjon.getDokumentpakkeBufferSize(), klientKonfigurasjon.getTempDirectory());
+        }
+        return new HttpComponentsMessageSender(httpClient);
+    }
+
+    private static PoolingHttpClientConnectionManager connectionManager(KlientKonfigurasjon klientKonfigurasjon) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(klientKonfigurasjon.getConnectionTimeToLiveInMillis(), TimeUnit.MILLISECONDS);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+        connectionManager.setMaxTotal(klientKonfigurasjon.getMaxConnectionPoolSize());
+        connectionManager.setDefaultMaxPerRoute(klientKonfigurasjon.getMaxConnectionPoolSize());
+        return connectionManager;
+    }
+
+    private static CloseableHttpClient httpClient(KlientKonfigurasjon klientKonfigurasjon, PoolingHttpClientConnectionManager connectionManager) {
+
+        RequestConfig.Builder requestConfig = RequestConfig.custom()
+                .setSocketTimeout((int) klientKonfigurasjon.getSocketTimeoutInMillis())
+                .setConnectTimeout((int) klientKonfigurasjon.getConnectTimeoutInMillis())
+                .setConnectionRequestTimeout((int) klientKonfigurasjon.getConnectionRequestTimeoutInMillis())
+                .setCookieSpec(CookieSpecs.IGNORE_COOKIES);
+        if (klientKonfigurasjon.useProxy()) {
+            requestConfig.setProxy(new HttpHost(klientKonfigurasjon.getProxyHost(), klientKonfigurasjon.getProxyPort(), klientKonfigurasjon.getProxyScheme()));
+        }
+
+        HttpClientBuilder httpClientBuilder = HttpClientBuilder.create()
+                .setDefaultSocketConfig(SocketConfig.custom().setSoTimeout((int) klientKonfigurasjon.getConnectTimeoutInMillis()).build());
+        for (HttpRequestInterceptor httpRequestInterceptor : klientKonfigurasjon.getHttpRequestInterceptors()) {
+            httpClientBuilder.addInterceptorFirst(httpRequestInterceptor);
+        }
+        httpClientBuilder.addInterceptorFirst(new AddClientVersionInterceptor());
+        for (HttpResponseInterceptor httpResponseInterceptor : klientKonfigurasjon.getHttpResponseInterceptors()) {
+            httpClientBuilder.addInterceptorFirst(httpResponseInterceptor);
+        }
+        if (klientKonfigurasjon.getRetryPolicy() != RetryPolicy.INGEN) {
+            // Nye forsøk styres av RetryPolicy, og skal ikke ganges opp med HttpClient sine egne.
+            httpClientBuilder.disableAutomaticRetries();
+        }
+        if (klientKonfigurasjon.getMaxIdleTimeInMillis() >= 0) {
+            httpClientBuilder
+                    .evictIdleConnections(klientKonfigurasjon.getMaxIdleTimeInMillis(), TimeUnit.MILLISECONDS)
+                    .evictExpiredConnections();
+        }
+        return httpClientBuilder
+                .addInterceptorFirst(new RemoveContentLengthInterceptor())
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig.build())
+                .build();
+    }
+}
@@ -0,0 +1,112 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
+import no.difi.sdp.client2.domain.kvittering.ForretningsKvittering;
+
+/**
+ * Mottar målinger fra klienten, for å eksporteres til et metrikksystem. Alle metoder har en tom standardimplementasjon,
+ * slik at man kun trenger å implementere de som er interessante. Metodene kalles fra trådene som gjør arbeidet, og bør
+ * returnere raskt.
+ * <p>
+ * Modulen {@code sikker-digital-post-klient-micrometer} inneholder en implementasjon for Micrometer.
+ *
+ * @see KlientKonfigurasjon.Builder#metrics(Metrics)
+ */
+public interface Metrics {
+
+    /**
+     * Ingen målinger. Dette er standard.
+     */
+    Metrics INGEN = new Metrics() { };
+
+    enum Steg {
+        /**
+         * Generering og eventuell validering av manifest.xml.
+         */
+        MANIFEST,
+
+        /**
+         * Generering, signering og eventuell validering av signatures.xml.
+         */
+        SIGNERING,
+
+        /**
+         * Zipping av dokumentene og beregning av SHA-256 for signaturen. Ved strømming av dokumentpakken, se
+         * {@link KlientKonfigurasjon.Builder#dokumentpakkeBufferSize(int)}, krypteres den zippede pakken mens den skrives,
+         * og krypteringen er da med i dette steget.
+         */
+        ZIP,
+
+        /**
+         * CMS-kryptering av den zippede dokumentpakken.
+         */
+        KRYPTERING,
+
+        /**
+         * Sending av forsendelse til meldingsformidler, inkludert eventuelle nye forsøk som gjøres av
+         * {@link RetryPolicy}, som hver måles for seg.
+         */
+        SEND,
+
+        HENT_KVITTERING,
+
+        BEKREFT
+    }
+
+    /**
+     * Et steg er fullført uten feil.
+     *
+     * @param nanos tiden steget tok.
+     */
+    default void tid(Steg steg, long nanos) {
+    }
+
+    /**
+     * Antall bytes som faktureres for en forsendelse som er sendt, se {@link SendResultat#getFakturerbareBytes()}.
+     */
+    default void fakturerbareBytes(long bytes) {
+    }
+
+    /**
+     * En kvittering er hentet fra meldingsformidler.
+     */
+    default void kvittering(ForretningsKvittering kvittering) {
+    }
+
+    /**
+     * En forespørsel mot meldingsformidler feilet, inkludert når klienten selv avviste den. Feilen er som regel en
+     * {@link SendException}, som sier hvem som {@link SendException#getAntattSkyldig() antas å være skyldig}.
+     */
+    default void feil(Steg steg, SikkerDigitalPostException feil) {
+    }
+
+    /**
+     * En forespørsel mot meldingsformidler har sluppet til etter å ha ventet på begrensningene i
+     * {@link KlientKonfigurasjon.Builder#maxRequestsPerSecond(int)} og
+     * {@link KlientKonfigurasjon.Builder#maxInFlightRequests(Prioritet, int)}.
+     *
+     * @param ventetidNanos tiden forespørselen ventet, 0 dersom den slapp til med en gang.
+     * @see AdmissionStatistics
+     */
+    default void sluppetInn(Prioritet prioritet, long ventetidNanos) {
+    }
+
+    /**
+     * En forespørsel ble avvist med {@link no.difi.sdp.client2.domain.exceptions.ForespoerselAvvistException} fordi
+     * den ikke slapp til innen {@link KlientKonfigurasjon#getConnectionRequestTimeoutInMillis()}. Den rapporteres også
+     * til {@link #feil(Steg, SikkerDigitalPostException)}.
+     *
+     * @param ventetidNanos tiden forespørselen ventet før den ble avvist.
+     */
+    default void avvist(Prioritet prioritet, long ventetidNanos) {
+    }
+
+    /**
+     * En {@link BulkSender} er bygget for en klient med denne konfigurasjonen. Køene foran hvert steg kan leses med
+     * {@link BulkSender#getKoeDybde(BulkSender.Steg)} så lenge den er i bruk.
+     */
+    default void bulkSender(BulkSender bulkSender) {
+    }
+}
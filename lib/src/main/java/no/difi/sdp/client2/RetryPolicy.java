@@ -0,0 +1,118 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.exceptions.ForespoerselAvvistException;
+import no.difi.sdp.client2.domain.exceptions.MeldingsformidlerUtilgjengeligException;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.ValideringException;
+import no.difi.sdp.client2.domain.exceptions.XmlValideringException;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.KLIENT;
+
+/**
+ * Regler for å sende en forsendelse på nytt når sendingen feiler. En ny sending bruker den samme, ferdig signerte og
+ * krypterte forsendelsen, med samme meldingsId, slik at meldingsformidler kan gjenkjenne den dersom den forrige
+ * sendingen faktisk kom frem.
+ * <p>
+ * Ventetiden før hvert nytt forsøk dobles, opp til en maksimal ventetid, og trekkes tilfeldig mellom halvparten av og
+ * hele ventetiden, slik at mange klienter som feiler samtidig ikke prøver igjen samtidig.
+ * <p>
+ * Som standard prøves det igjen for alle feil som ikke antas å være klientens skyld, se
+ * {@link SendException.AntattSkyldig}, f.eks. tidsavbrudd og feil fra meldingsformidler. Unntaket er når svaret fra
+ * meldingsformidler ikke validerer, siden forsendelsen da trolig er mottatt, og når klienten selv har avvist
+ * forespørselen uten å sende den, med {@link MeldingsformidlerUtilgjengeligException} fra en åpen circuit breaker eller
+ * {@link ForespoerselAvvistException} fra begrensning av forespørsler. Et nytt forsøk etter kort ventetid vil da nesten
+ * alltid bli avvist på samme måte, og holder bare en transporttråd opptatt med å vente.
+ *
+ * @see KlientKonfigurasjon.Builder#retryPolicy(RetryPolicy)
+ */
+public final class RetryPolicy {
+
+    /**
+     * Sender kun én gang. Dette er standard.
+     */
+    public static final RetryPolicy INGEN = builder().maxForsoek(1).build();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private int maxForsoek = 3;
+    private Duration foersteVentetid = Duration.ofMillis(500);
+    private Duration maksVentetid = Duration.ofSeconds(10);
+    private Predicate<SendException> proevIgjenVed = e ->
+            e.getAntattSkyldig() != KLIENT && !(e instanceof XmlValideringException) && !(e instanceof ValideringException)
+                    && !(e instanceof MeldingsformidlerUtilgjengeligException) && !(e instanceof ForespoerselAvvistException);
+
+    private RetryPolicy() {
+    }
+
+    public int getMaxForsoek() {
+        return maxForsoek;
+    }
+
+    /**
+     * @param forsoek antall forsøk som er gjort, inkludert det som feilet.
+     */
+    boolean skalProeveIgjen(SendException feil, int forsoek) {
+        return forsoek < maxForsoek && proevIgjenVed.test(feil);
+    }
+
+    /**
+     * @param forsoek antall forsøk som er gjort.
+     */
+    Duration ventetid(int forsoek) {
+        long ventetid = foersteVentetid.toMillis() << Math.min(forsoek - 1, 30);
+        long maks = ventetid <= 0 || ventetid > maksVentetid.toMillis() ? maksVentetid.toMillis() : ventetid;
+        return Duration.ofMillis(maks / 2 + ThreadLocalRandom.current().nextLong(maks / 2 + 1));
+    }
+
+
+    public static class Builder {
+
+        private final RetryPolicy target = new RetryPolicy();
+
+        private Builder() {
+        }
+
+        /**
+         * Maks antall forsøk, inkludert det første. Standard er 3.
+         */
+        public Builder maxForsoek(int maxForsoek) {
+            if (maxForsoek < 1) {
+                throw new IllegalArgumentException("Maks antall forsøk må være minst 1, var " + maxForsoek);
+            }
+            target.maxForsoek = maxForsoek;
+            return this;
+        }
+
+        /**
+         * Ventetid før andre forsøk, som dobles for hvert forsøk opp til maks ventetid. Standard er 500 millisekunder og
+         * maks 10 sekunder.
+         */
+        public Builder ventetid(Duration foersteVentetid, Duration maksVentetid) {
+            if (foersteVentetid.isNegative() || maksVentetid.compareTo(foersteVentetid) < 0) {
+                throw new IllegalArgumentException("Ugyldig ventetid " + foersteVentetid + " med maks " + maksVentetid);
+            }
+            target.foersteVentetid = foersteVentetid;
+            target.maksVentetid = maksVentetid;
+            return this;
+        }
+
+        /**
+         * Hvilke feil det skal prøves igjen for, i stedet for standard som er alle feil som ikke antas å være klientens
+         * skyld, bortsett fra forespørsler klienten selv har avvist.
+         */
+        public Builder proevIgjenVed(Predicate<SendException> proevIgjenVed) {
+            target.proevIgjenVed = proevIgjenVed;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return target;
+        }
+    }
+}
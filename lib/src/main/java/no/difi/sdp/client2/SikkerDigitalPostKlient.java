@@ -1,47 +1,119 @@
 package no.difi.sdp.client2;
 
+import no.difi.sdp.client2.asice.ArchivedASiCE;
 import no.difi.sdp.client2.domain.Databehandler;
 import no.difi.sdp.client2.domain.Forsendelse;
 import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
 import no.difi.sdp.client2.domain.kvittering.ForretningsKvittering;
 import no.difi.sdp.client2.domain.kvittering.KvitteringForespoersel;
 import no.difi.sdp.client2.internal.Billable;
 import no.difi.sdp.client2.internal.CertificateValidator;
+import no.difi.sdp.client2.internal.CreateDokumentpakke;
 import no.difi.sdp.client2.internal.DigipostMessageSenderFacade;
 import no.difi.sdp.client2.internal.EbmsForsendelseBuilder;
 import no.difi.sdp.client2.internal.KvitteringBuilder;
+import no.difi.sdp.client2.internal.Oppvarming;
+import no.difi.sdp.client2.internal.ThreadPools;
 import no.difi.sdp.client2.util.CryptoChecker;
+import no.digipost.api.representations.Dokumentpakke;
 import no.digipost.api.representations.EbmsApplikasjonsKvittering;
 import no.digipost.api.representations.EbmsForsendelse;
 import no.digipost.api.representations.EbmsPullRequest;
 import no.digipost.api.representations.KanBekreftesSomBehandletKvittering;
 import no.digipost.api.representations.TransportKvittering;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ws.client.core.WebServiceTemplate;
 
-public class SikkerDigitalPostKlient {
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+public class SikkerDigitalPostKlient implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SikkerDigitalPostKlient.class);
 
     private final Databehandler databehandler;
+    private final CreateDokumentpakke createDokumentpakke;
     private final EbmsForsendelseBuilder ebmsForsendelseBuilder;
     private final KvitteringBuilder kvitteringBuilder;
+    private final MeldingsformidlerTransport transport;
     private final DigipostMessageSenderFacade digipostMessageSenderFacade;
     private final KlientKonfigurasjon klientKonfigurasjon;
+    private final ExecutorService transportExecutor;
+    private final boolean eierTransport;
 
     /**
      * @param databehandler       parten som er ansvarlig for den tekniske utførelsen av sendingen.
      *                            Se <a href="http://begrep.difi.no/SikkerDigitalPost/forretningslag/Aktorer">oversikt over aktører</a> for mer informasjon.
      * @param klientKonfigurasjon Oppsett for blant annet oppkoblingen mot meldingsformidler og interceptorer for å få ut data som sendes.
+     * @see #close()
      */
     public SikkerDigitalPostKlient(Databehandler databehandler, KlientKonfigurasjon klientKonfigurasjon) {
+        this(databehandler, klientKonfigurasjon, () -> new MeldingsformidlerTransport(klientKonfigurasjon), true);
+    }
+
+    /**
+     * Lager en klient som sender over en delt {@link MeldingsformidlerTransport}. Brukes når man sender på vegne av
+     * flere databehandlere, slik at alle klientene deler én connection-pool mot meldingsformidler i stedet for at hver
+     * av dem har sin egen. Meldingene signeres fortsatt med nøkkelparet til {@code databehandler}.
+     *
+     * @param databehandler parten som er ansvarlig for den tekniske utførelsen av sendingen.
+     * @param transport     den delte forbindelsen til meldingsformidler. Konfigurasjonen til transporten brukes også for klienten.
+     *                      Transporten lukkes ikke av {@link #close()}, men må lukkes av den som har laget den.
+     */
+    public SikkerDigitalPostKlient(Databehandler databehandler, MeldingsformidlerTransport transport) {
+        this(databehandler, transport.getKlientKonfigurasjon(), () -> transport, false);
+    }
+
+    private SikkerDigitalPostKlient(Databehandler databehandler, KlientKonfigurasjon klientKonfigurasjon, Supplier<MeldingsformidlerTransport> transport, boolean eierTransport) {
         CryptoChecker.checkCryptoPolicy();
+        CertificateValidator.validate(klientKonfigurasjon.getMiljo(), databehandler.noekkelpar.getVirksomhetssertifikat().getX509Certificate());
 
-        this.ebmsForsendelseBuilder = new EbmsForsendelseBuilder();
+        this.createDokumentpakke = new CreateDokumentpakke(klientKonfigurasjon);
+        this.ebmsForsendelseBuilder = new EbmsForsendelseBuilder(createDokumentpakke);
         this.kvitteringBuilder = new KvitteringBuilder();
-        this.digipostMessageSenderFacade = new DigipostMessageSenderFacade(databehandler, klientKonfigurasjon);
+        this.transport = transport.get();
+        this.eierTransport = eierTransport;
+        this.digipostMessageSenderFacade = new DigipostMessageSenderFacade(databehandler, klientKonfigurasjon, this.transport.getMessageSender(), this.transport.getAdmissionController(), this.transport.getCircuitBreakers());
+        this.transportExecutor = ThreadPools.newBoundedPool("sdp-transport", klientKonfigurasjon.getMaxConnectionPoolSize());
 
         this.klientKonfigurasjon = klientKonfigurasjon;
         this.databehandler = databehandler;
 
-        CertificateValidator.validate(klientKonfigurasjon.getMiljo(), databehandler.noekkelpar.getVirksomhetssertifikat().getX509Certificate());
+        if (klientKonfigurasjon.getWarmUpConnections() > 0) {
+            try {
+                warmUp(klientKonfigurasjon.getWarmUpConnections());
+            } catch (RuntimeException | Error e) {
+                // Klienten blir aldri gitt til kallende kode, som dermed ikke kan lukke transporten og trådpoolen.
+                try {
+                    close();
+                } catch (IOException | RuntimeException closeException) {
+                    e.addSuppressed(closeException);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Varmer opp klienten, slik at første sending ikke blir tregere enn de etterfølgende. Det åpnes forbindelser til
+     * meldingsformidler som legges i poolen, med {@link MeldingsformidlerTransport#warmUp(int)}, og det bygges,
+     * signeres og krypteres en dokumentpakke som ikke sendes. Det siste laster XSD-schemaer, JAXB-kontekster og
+     * kryptografiske algoritmer som ellers lastes ved første sending.
+     *
+     * @param antallForbindelser antall forbindelser som skal ligge klare i poolen.
+     * @see KlientKonfigurasjon.Builder#warmUp(int)
+     */
+    public void warmUp(int antallForbindelser) {
+        frigi(byggEbmsForsendelse(Oppvarming.forsendelse(databehandler, klientKonfigurasjon)).entity.getDokumentpakke());
+        int klare = transport.warmUp(antallForbindelser);
+        LOG.info("Klient for databehandler {} er varmet opp med {} forbindelser til meldingsformidler", databehandler.organisasjonsnummer, klare);
     }
 
     /**
@@ -52,10 +124,129 @@ public class SikkerDigitalPostKlient {
      * @throws SendException
      */
     public SendResultat send(Forsendelse forsendelse) throws SendException {
-        Billable<EbmsForsendelse> forsendelseBundleWithBillableBytes = ebmsForsendelseBuilder.buildEbmsForsendelse(databehandler, klientKonfigurasjon.getMeldingsformidlerOrganisasjon(), forsendelse);
-        TransportKvittering kvittering = digipostMessageSenderFacade.send(forsendelseBundleWithBillableBytes.entity);
+        return sendEbmsForsendelse(byggEbmsForsendelse(forsendelse));
+    }
 
-        return new SendResultat(kvittering.messageId, kvittering.refToMessageId, forsendelseBundleWithBillableBytes.billableBytes);
+    /**
+     * Sender en forsendelse til meldingsformidler uten å blokkere kallende tråd. Bygging, signering og kryptering av
+     * dokumentpakken gjøres på en felles trådpool for CPU-intensivt arbeid, begrenset til antall prosessorer, mens selve
+     * sendingen gjøres på en egen trådpool dimensjonert etter {@link KlientKonfigurasjon#getMaxConnectionPoolSize()}.
+     * Venting på nettverket binder dermed ikke opp tråder som kunne ha bygget neste forsendelse.
+     *
+     * @param forsendelse Et objekt som har all informasjon klar til å kunne sendes (mottakerinformasjon, sertifikater, dokumenter mm),
+     *                    enten digitalt eller fyisk.
+     * @return resultatet av sendingen. Dersom noe feiler, fullføres den med samme exception som {@link #send(Forsendelse)} ville kastet.
+     */
+    public CompletableFuture<SendResultat> sendAsync(Forsendelse forsendelse) {
+        return sendAsync(forsendelse, ThreadPools.computePool());
+    }
+
+    /**
+     * Som {@link #sendAsync(Forsendelse)}, men med egen {@link Executor} for bygging, signering og kryptering av dokumentpakken.
+     *
+     * @param byggExecutor Executor som gjør det CPU-intensive arbeidet. Bør være begrenset til omtrent antall prosessorer.
+     */
+    public CompletableFuture<SendResultat> sendAsync(Forsendelse forsendelse, Executor byggExecutor) {
+        return CompletableFuture
+                .supplyAsync(() -> byggEbmsForsendelse(forsendelse), byggExecutor)
+                .thenApplyAsync(this::sendEbmsForsendelse, transportExecutor);
+    }
+
+    Billable<EbmsForsendelse> byggEbmsForsendelse(Forsendelse forsendelse) {
+        return ebmsForsendelseBuilder.buildEbmsForsendelse(databehandler, klientKonfigurasjon.getMeldingsformidlerOrganisasjon(), forsendelse);
+    }
+
+    SendResultat sendEbmsForsendelse(Billable<EbmsForsendelse> forsendelseBundleWithBillableBytes) {
+        try {
+            TransportKvittering kvittering = sendMedRetry(forsendelseBundleWithBillableBytes.entity);
+            klientKonfigurasjon.getMetrics().fakturerbareBytes(forsendelseBundleWithBillableBytes.billableBytes);
+
+            return new SendResultat(kvittering.messageId, kvittering.refToMessageId, forsendelseBundleWithBillableBytes.billableBytes);
+        } finally {
+            frigi(forsendelseBundleWithBillableBytes.entity.getDokumentpakke());
+        }
+    }
+
+    /**
+     * Sender samme forsendelse, med samme meldingsId, inntil den er mottatt eller {@link RetryPolicy} sier at det ikke
+     * skal prøves igjen. Dokumentpakken kan leses flere ganger, og frigis først når siste forsøk er gjort.
+     */
+    private TransportKvittering sendMedRetry(EbmsForsendelse ebmsForsendelse) {
+        RetryPolicy retryPolicy = klientKonfigurasjon.getRetryPolicy();
+        for (int forsoek = 1; ; forsoek++) {
+            try {
+                return digipostMessageSenderFacade.send(ebmsForsendelse);
+            } catch (SendException e) {
+                if (!retryPolicy.skalProeveIgjen(e, forsoek)) {
+                    throw e;
+                }
+                Duration ventetid = retryPolicy.ventetid(forsoek);
+                LOG.info("Sending av melding {} feilet ved forsøk {} av {}, prøver igjen om {} ms: {}",
+                        ebmsForsendelse.messageId, forsoek, retryPolicy.getMaxForsoek(), ventetid.toMillis(), e.getMessage());
+                try {
+                    Thread.sleep(ventetid.toMillis());
+                } catch (InterruptedException avbrutt) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * En strømmet dokumentpakke kan være mellomlagret i en midlertidig fil, som slettes når sendingen er ferdig.
+     *
+     * @see KlientKonfigurasjon.Builder#dokumentpakkeBufferSize(int)
+     */
+    static void frigi(Dokumentpakke dokumentpakke) {
+        if (dokumentpakke instanceof Closeable) {
+            try {
+                ((Closeable) dokumentpakke).close();
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Kunne ikke slette midlertidig dokumentpakke", e);
+            }
+        }
+    }
+
+    Executor getTransportExecutor() {
+        return transportExecutor;
+    }
+
+    ArchivedASiCE signer(Forsendelse forsendelse) {
+        return createDokumentpakke.createAsice(databehandler, forsendelse);
+    }
+
+    /**
+     * Krypterer og lukker arkivet fra {@link #signer(Forsendelse)}.
+     */
+    Billable<EbmsForsendelse> krypter(Forsendelse forsendelse, ArchivedASiCE archivedASiCE) {
+        Billable<Dokumentpakke> dokumentpakke;
+        try {
+            dokumentpakke = createDokumentpakke.createDokumentpakke(archivedASiCE, forsendelse.getTekniskMottaker().sertifikat);
+        } finally {
+            archivedASiCE.close();
+        }
+        return ebmsForsendelseBuilder.buildEbmsForsendelse(databehandler, klientKonfigurasjon.getMeldingsformidlerOrganisasjon(), forsendelse, dokumentpakke);
+    }
+
+    SendException tilSendException(Exception e) {
+        SikkerDigitalPostException mapped = digipostMessageSenderFacade.mapException(e);
+        if (mapped instanceof SendException) {
+            return (SendException) mapped;
+        }
+        return new SendException(mapped.getMessage(), SendException.AntattSkyldig.UKJENT, mapped);
+    }
+
+    /**
+     * @return ventetid, avviste forespørsler og pågående forespørsler mot meldingsformidler. Deles av alle klienter på
+     *         samme {@link MeldingsformidlerTransport}.
+     */
+    public AdmissionStatistics getAdmissionStatistics() {
+        return transport.getAdmissionStatistics();
+    }
+
+    KlientKonfigurasjon getKlientKonfigurasjon() {
+        return klientKonfigurasjon;
     }
 
     /**
@@ -101,7 +292,9 @@ public class SikkerDigitalPostKlient {
             return null;
         }
 
-        return kvitteringBuilder.buildForretningsKvittering(ebmsApplikasjonsKvittering);
+        ForretningsKvittering kvittering = kvitteringBuilder.buildForretningsKvittering(ebmsApplikasjonsKvittering);
+        klientKonfigurasjon.getMetrics().kvittering(kvittering);
+        return kvittering;
     }
 
     /**
@@ -126,6 +319,22 @@ public class SikkerDigitalPostKlient {
         this.digipostMessageSenderFacade.setExceptionMapper(exceptionMapper);
     }
 
+    /**
+     * Lukker klienten. Forsendelser som allerede er gitt til {@link #sendAsync(Forsendelse)} sendes ferdig, men nye
+     * kan ikke sendes etter dette.
+     * <p>
+     * Har klienten laget sin egen {@link MeldingsformidlerTransport}, lukkes også den, med connection-poolen og tråden
+     * som fjerner ledige forbindelser fra den. En delt transport gitt til
+     * {@link #SikkerDigitalPostKlient(Databehandler, MeldingsformidlerTransport)} lukkes ikke.
+     */
+    @Override
+    public void close() throws IOException {
+        transportExecutor.shutdown();
+        if (eierTransport) {
+            transport.close();
+        }
+    }
+
     /**
      * Hent ut Spring {@code WebServiceTemplate} som er konfigurert internt, og brukes av biblioteket
      * til kommunikasjon med meldingsformidler. Ved hjelp av denne instansen kan man f.eks. sette opp en
@@ -0,0 +1,353 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
+import no.difi.sdp.client2.internal.Billable;
+import no.digipost.api.PMode;
+import no.digipost.api.representations.Dokumentpakke;
+import no.digipost.api.representations.EbmsAktoer;
+import no.digipost.api.representations.EbmsForsendelse;
+import no.digipost.api.representations.EbmsOutgoingMessage;
+import no.digipost.api.representations.Organisasjonsnummer;
+import no.digipost.api.xml.Marshalling;
+import no.digipost.org.unece.cefact.namespaces.standardbusinessdocumentheader.StandardBusinessDocument;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Utboks på disk for forsendelser som er ferdig bygget, signert og kryptert, men ennå ikke sendt. Bygging og sending kan
+ * dermed gjøres til forskjellige tider, og i forskjellige prosesser: forsendelsene kan f.eks. bygges på ledig CPU i
+ * løpet av dagen, og sendes samlet i avtalt sendevindu, uten å måtte signeres og krypteres på nytt etter en omstart.
+ * <p>
+ * Hver forsendelse lagres i sin egen katalog, med kryptert dokumentpakke, SBD og metadata. Katalogen skrives ferdig
+ * under et midlertidig navn, filene og katalogen skrives helt ut til disk, og katalogen flyttes på plass til slutt,
+ * slik at en forsendelse enten ligger helt i utboksen eller ikke i det hele tatt, også etter strømbrudd. Forsendelser
+ * slettes fra utboksen først når de er mottatt av meldingsformidler, og sendes på nytt med samme meldingsId dersom
+ * sendingen ble avbrutt, slik at meldingsformidler kan gjenkjenne dem.
+ * <p>
+ * En forsendelse som ikke kan leses, f.eks. fordi filene er skadet, settes til side i utboksen og
+ * {@link ResultatHandler#ugyldig(String, SikkerDigitalPostException) rapporteres} én gang, i stedet for å feile på nytt
+ * hver gang utboksen tømmes.
+ * <p>
+ * SBD-en signeres med databehandlers nøkkelpar når forsendelsen sendes, så klienten som tømmer utboksen må ha samme
+ * databehandler som klienten som la forsendelsene inn. Kun én prosess bør tømme samme utboks om gangen.
+ */
+public class Utboks {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Utboks.class);
+
+    private static final String UFERDIG = ".tmp";
+    private static final String UGYLDIG = ".ugyldig";
+    private static final String DOKUMENTPAKKE = "dokumentpakke.cms";
+    private static final String SBD = "sbd.xml";
+    private static final String METADATA = "forsendelse.properties";
+
+    public interface ResultatHandler {
+
+        void sendt(String id, SendResultat sendResultat);
+
+        /**
+         * Forsendelsen blir liggende i utboksen, og kan sendes på nytt eller {@link #slett(String) slettes}.
+         *
+         * @param sendException feilen, mappet med klientens {@link ExceptionMapper}.
+         */
+        void feilet(String id, SendException sendException);
+
+        /**
+         * Forsendelsen kunne ikke leses fra utboksen, og er ikke sendt. Den er satt til side, slik at den ikke
+         * forsøkes sendt igjen, men blir liggende på disk til den {@link #slett(String) slettes}.
+         */
+        void ugyldig(String id, SikkerDigitalPostException feil);
+    }
+
+    private final SikkerDigitalPostKlient klient;
+    private final Path katalog;
+
+    /**
+     * @param klient  klienten som bygger og sender forsendelsene.
+     * @param katalog katalogen forsendelsene lagres i. Opprettes om den ikke finnes.
+     */
+    public Utboks(SikkerDigitalPostKlient klient, Path katalog) {
+        this.klient = klient;
+        this.katalog = katalog;
+        try {
+            Files.createDirectories(katalog);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    /**
+     * Bygger, signerer og krypterer forsendelsen, og lagrer den i utboksen.
+     *
+     * @return id-en forsendelsen har i utboksen. Forsendelser sendes i samme rekkefølge som de ble lagt inn.
+     */
+    public String leggTil(Forsendelse forsendelse) {
+        Billable<EbmsForsendelse> bygget = klient.byggEbmsForsendelse(forsendelse);
+        EbmsForsendelse ebmsForsendelse = bygget.entity;
+        String id = String.format("%013d-%s", System.currentTimeMillis(), ebmsForsendelse.messageId);
+        Path uferdig = katalog.resolve(id + UFERDIG);
+        try {
+            Files.createDirectory(uferdig);
+            skriv(uferdig.resolve(DOKUMENTPAKKE), ut -> {
+                try (InputStream dokumentpakke = ebmsForsendelse.getDokumentpakke().getInputStream()) {
+                    IOUtils.copyLarge(dokumentpakke, ut);
+                }
+            });
+            skriv(uferdig.resolve(SBD), ut -> Marshalling.marshal(Marshalling.getMarshallerSingleton(), ebmsForsendelse.doc, new StreamResult(ut)));
+            skriv(uferdig.resolve(METADATA), ut -> {
+                Writer metadata = new OutputStreamWriter(ut, StandardCharsets.UTF_8);
+                metadata(bygget).store(metadata, null);
+                metadata.flush();
+            });
+            synkroniser(uferdig);
+            Files.move(uferdig, katalog.resolve(id), StandardCopyOption.ATOMIC_MOVE);
+            synkroniser(katalog);
+        } catch (IOException e) {
+            slettKatalog(uferdig);
+            throw new RuntimeIOException(e);
+        } catch (RuntimeException e) {
+            slettKatalog(uferdig);
+            throw e;
+        } finally {
+            SikkerDigitalPostKlient.frigi(ebmsForsendelse.getDokumentpakke());
+        }
+        LOG.debug("La forsendelse med konversasjonsId {} i utboks som {}", forsendelse.getKonversasjonsId(), id);
+        return id;
+    }
+
+    /**
+     * @return id-ene til forsendelsene som ligger i utboksen, i den rekkefølgen de ble lagt inn.
+     */
+    public List<String> getForsendelser() {
+        List<String> ider = new ArrayList<>();
+        try (DirectoryStream<Path> forsendelser = Files.newDirectoryStream(katalog, Files::isDirectory)) {
+            for (Path forsendelse : forsendelser) {
+                String id = forsendelse.getFileName().toString();
+                if (!id.endsWith(UFERDIG) && !id.endsWith(UGYLDIG)) {
+                    ider.add(id);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        Collections.sort(ider);
+        return ider;
+    }
+
+    /**
+     * Sender én forsendelse fra utboksen, og sletter den når den er mottatt av meldingsformidler. Dersom sendingen
+     * feiler, blir forsendelsen liggende i utboksen.
+     *
+     * @throws SendException som {@link SikkerDigitalPostKlient#send(Forsendelse)}.
+     * @throws SikkerDigitalPostException dersom forsendelsen ikke kunne leses. Den er da satt til side, se
+     *                                    {@link ResultatHandler#ugyldig(String, SikkerDigitalPostException)}.
+     */
+    public SendResultat send(String id) throws SendException {
+        return send(id, lesEllerSettTilSide(id));
+    }
+
+    private SendResultat send(String id, Billable<EbmsForsendelse> forsendelse) {
+        SendResultat sendResultat = klient.sendEbmsForsendelse(forsendelse);
+        slett(id);
+        return sendResultat;
+    }
+
+    /**
+     * Sender alle forsendelsene som ligger i utboksen, med like mange samtidige sendinger som connection-poolen har
+     * plass til, og venter til alle er ferdige. Forsendelser som feiler blir liggende i utboksen.
+     *
+     * @return antall forsendelser som ble sendt.
+     */
+    public int toem(ResultatHandler resultatHandler) {
+        List<CompletableFuture<Boolean>> sendinger = new ArrayList<>();
+        for (String id : getForsendelser()) {
+            sendinger.add(CompletableFuture.supplyAsync(() -> {
+                Billable<EbmsForsendelse> forsendelse;
+                try {
+                    forsendelse = lesEllerSettTilSide(id);
+                } catch (SikkerDigitalPostException e) {
+                    lever(id, () -> resultatHandler.ugyldig(id, e));
+                    return false;
+                }
+                try {
+                    SendResultat sendResultat = send(id, forsendelse);
+                    lever(id, () -> resultatHandler.sendt(id, sendResultat));
+                    return true;
+                } catch (RuntimeException e) {
+                    SendException sendException = klient.tilSendException(e);
+                    lever(id, () -> resultatHandler.feilet(id, sendException));
+                    return false;
+                }
+            }, klient.getTransportExecutor()));
+        }
+        return (int) sendinger.stream().filter(CompletableFuture::join).count();
+    }
+
+    /**
+     * Sletter en forsendelse fra utboksen uten å sende den, også om den er satt til side som ugyldig.
+     */
+    public void slett(String id) {
+        slettKatalog(katalog.resolve(id));
+        slettKatalog(katalog.resolve(id + UGYLDIG));
+    }
+
+    private Billable<EbmsForsendelse> lesEllerSettTilSide(String id) {
+        try {
+            return les(katalog.resolve(id));
+        } catch (RuntimeException e) {
+            try {
+                Files.move(katalog.resolve(id), katalog.resolve(id + UGYLDIG), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException flyttFeil) {
+                e.addSuppressed(flyttFeil);
+            }
+            LOG.warn("Forsendelse {} i utboks kunne ikke leses, og er satt til side", id, e);
+            throw new SikkerDigitalPostException("Forsendelse " + id + " i utboks er ufullstendig eller skadet, og er satt til side", e);
+        }
+    }
+
+    /**
+     * Skriver filen, og venter til innholdet er skrevet helt ut til disk.
+     */
+    private static void skriv(Path fil, Skriving skriving) throws IOException {
+        try (FileChannel kanal = FileChannel.open(fil, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream ut = new BufferedOutputStream(Channels.newOutputStream(kanal));
+            skriving.skrivTil(ut);
+            ut.flush();
+            kanal.force(true);
+        }
+    }
+
+    /**
+     * Skriver endringer i katalogen, som nye filer og flytting, helt ut til disk. Ikke alle plattformer støtter å åpne
+     * en katalog, og der gjøres ingenting.
+     */
+    private static void synkroniser(Path katalog) {
+        try (FileChannel kanal = FileChannel.open(katalog, StandardOpenOption.READ)) {
+            kanal.force(true);
+        } catch (IOException e) {
+            LOG.debug("Kunne ikke synkronisere katalog {} til disk", katalog, e);
+        }
+    }
+
+    private static void lever(String id, Runnable leverResultat) {
+        try {
+            leverResultat.run();
+        } catch (RuntimeException e) {
+            LOG.warn("{} kastet feil for forsendelse {} i utboks", ResultatHandler.class.getSimpleName(), id, e);
+        }
+    }
+
+    private static Properties metadata(Billable<EbmsForsendelse> bygget) {
+        EbmsForsendelse ebmsForsendelse = bygget.entity;
+        Properties metadata = new Properties();
+        metadata.setProperty("meldingsId", ebmsForsendelse.messageId);
+        metadata.setProperty("avsender", ebmsForsendelse.getAvsender().orgnr.getOrganisasjonsnummer());
+        metadata.setProperty("mottaker", ebmsForsendelse.getMottaker().orgnr.getOrganisasjonsnummer());
+        metadata.setProperty("sbdhMottaker", ebmsForsendelse.getSbdhMottaker().getOrganisasjonsnummer());
+        metadata.setProperty("prioritet", ebmsForsendelse.prioritet.name());
+        metadata.setProperty("action", ebmsForsendelse.action.name());
+        if (ebmsForsendelse.mpcId != null) {
+            metadata.setProperty("mpcId", ebmsForsendelse.mpcId);
+        }
+        metadata.setProperty("fakturerbareBytes", String.valueOf(bygget.billableBytes));
+        return metadata;
+    }
+
+    private static Billable<EbmsForsendelse> les(Path forsendelse) {
+        Properties metadata = new Properties();
+        StandardBusinessDocument sbd;
+        try (Reader reader = Files.newBufferedReader(forsendelse.resolve(METADATA), StandardCharsets.UTF_8)) {
+            metadata.load(reader);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        try (InputStream sbdStream = Files.newInputStream(forsendelse.resolve(SBD))) {
+            sbd = Marshalling.unmarshal(Marshalling.getMarshallerSingleton(), sbdStream, StandardBusinessDocument.class);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        EbmsForsendelse ebmsForsendelse = EbmsForsendelse.create(
+                EbmsAktoer.avsender(metadata.getProperty("avsender")),
+                EbmsAktoer.meldingsformidler(metadata.getProperty("mottaker")),
+                Organisasjonsnummer.of(metadata.getProperty("sbdhMottaker")),
+                sbd,
+                new FilDokumentpakke(forsendelse.resolve(DOKUMENTPAKKE)))
+                .withMessageId(metadata.getProperty("meldingsId"))
+                .withPrioritet(EbmsOutgoingMessage.Prioritet.valueOf(metadata.getProperty("prioritet")))
+                .withMpcId(metadata.getProperty("mpcId"))
+                .withAction(PMode.Action.valueOf(metadata.getProperty("action")))
+                .build();
+        return new Billable<>(ebmsForsendelse, Long.parseLong(metadata.getProperty("fakturerbareBytes")));
+    }
+
+    private static void slettKatalog(Path forsendelse) {
+        if (!Files.exists(forsendelse)) {
+            return;
+        }
+        try (Stream<Path> filer = Files.list(forsendelse)) {
+            for (Path fil : (Iterable<Path>) filer::iterator) {
+                Files.delete(fil);
+            }
+            Files.delete(forsendelse);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private interface Skriving {
+        void skrivTil(OutputStream ut) throws IOException;
+    }
+
+    /**
+     * Kryptert dokumentpakke som leses fra utboksen hver gang den trengs.
+     */
+    private static final class FilDokumentpakke extends Dokumentpakke {
+
+        private final Path fil;
+
+        FilDokumentpakke(Path fil) {
+            super((InputStream) null);
+            this.fil = fil;
+        }
+
+        @Override
+        public byte[] getSHA256() throws IOException {
+            try (InputStream content = getInputStream()) {
+                return DigestUtils.updateDigest(getDigest(), content).digest();
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return Files.newInputStream(fil);
+        }
+    }
+}
@@ -1,18 +1,68 @@
 package no.difi.sdp.client2.asice;
 
-public class ArchivedASiCE {
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
 
-    private final byte[] bytes;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Zippet og signert ASiC-E, klar for kryptering. Innholdet ligger enten i en byte-array, eller i en midlertidig fil
+ * som leses som en strøm, slik at store dokumentpakker ikke trenger å ligge i minnet mellom signering og kryptering.
+ * <p>
+ * Må lukkes når dokumentpakken er kryptert, for å slette eventuell midlertidig fil.
+ */
+public class ArchivedASiCE implements Closeable {
+
+    private final DocumentSource source;
+    private final Closeable ressurs;
     private long unzippedContentBytesCount;
 
     ArchivedASiCE(byte[] bytes, long unzippedContentBytesCount) {
-        this.bytes = bytes;
+        this(DocumentSource.of(bytes), unzippedContentBytesCount, () -> {});
+    }
+
+    /**
+     * @param source                    innholdet i arkivet.
+     * @param unzippedContentBytesCount antall bytes i filene før zipping.
+     * @param ressurs                   lukkes sammen med arkivet, f.eks. for å slette en midlertidig fil.
+     */
+    public ArchivedASiCE(DocumentSource source, long unzippedContentBytesCount, Closeable ressurs) {
+        this.source = source;
         this.unzippedContentBytesCount = unzippedContentBytesCount;
+        this.ressurs = ressurs;
     }
 
+    /**
+     * Leser hele arkivet inn i en byte-array. Bruk heller {@link #openStream()} for arkiv som kan være store.
+     */
     public byte[] getBytes() {
-        return bytes;
+        return source.readAllBytes();
+    }
+
+    /**
+     * Åpner en ny strøm fra starten av arkivet. Strømmen lukkes av kallende kode.
+     */
+    public InputStream openStream() throws IOException {
+        return source.openStream();
+    }
+
+    public long size() {
+        try {
+            return source.size();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
     }
 
     public long getUnzippedContentBytesCount() { return unzippedContentBytesCount; }
+
+    @Override
+    public void close() {
+        try {
+            ressurs.close();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
 }
@@ -4,4 +4,12 @@ public interface AsicEAttachable {
     String getFileName();
     byte[] getBytes();
     String getMimeType();
+
+    /**
+     * Kilden innholdet leses fra ved signering og zipping. Implementasjoner som ikke har innholdet i minnet bør
+     * overstyre denne, slik at innholdet strømmes i stedet for å leses inn via {@link #getBytes()}.
+     */
+    default DocumentSource getSource() {
+        return DocumentSource.of(getBytes());
+    }
 }
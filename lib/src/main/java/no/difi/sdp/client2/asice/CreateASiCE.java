@@ -1,22 +1,34 @@
 package no.difi.sdp.client2.asice;
 
+import no.difi.sdp.client2.CompressionPolicy;
+import no.difi.sdp.client2.Metrics;
 import no.difi.sdp.client2.asice.archive.Archive;
 import no.difi.sdp.client2.asice.archive.CreateZip;
+import no.difi.sdp.client2.asice.archive.ZipWriter;
 import no.difi.sdp.client2.asice.manifest.CreateManifest;
 import no.difi.sdp.client2.asice.manifest.Manifest;
 import no.difi.sdp.client2.asice.signature.CreateSignature;
 import no.difi.sdp.client2.asice.signature.Signature;
 import no.difi.sdp.client2.domain.Databehandler;
 import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
+import no.difi.sdp.client2.internal.XmlValidering;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.difi.sdp.client2.Metrics.Steg.MANIFEST;
+import static no.difi.sdp.client2.Metrics.Steg.SIGNERING;
+import static no.difi.sdp.client2.Metrics.Steg.ZIP;
 
 public class CreateASiCE {
 
@@ -28,16 +40,78 @@ public class CreateASiCE {
 
     private static File debug_writeToDisk = null;
 
+    private final XmlValidering xmlValidering;
+    private final Metrics metrics;
+    private final ForkJoinPool parallellZipping;
+
     public CreateASiCE() {
+        this(XmlValidering.ALLTID);
+    }
+
+    /**
+     * @param xmlValidering bestemmer hvilke dokumentpakker som får manifest og signatur validert mot XSD.
+     */
+    public CreateASiCE(XmlValidering xmlValidering) {
+        this(xmlValidering, Metrics.INGEN);
+    }
+
+    /**
+     * @param metrics får tidsbruk for {@link Metrics.Steg#MANIFEST}, {@link Metrics.Steg#ZIP} og
+     *                {@link Metrics.Steg#SIGNERING}.
+     */
+    public CreateASiCE(XmlValidering xmlValidering, Metrics metrics) {
+        this(xmlValidering, metrics, null);
+    }
+
+    /**
+     * @param parallellZipping pool som dokumentene zippes og hashes parallelt i, eller {@code null} for å gjøre det
+     *                         sekvensielt i tråden som bygger pakken. Se
+     *                         {@link no.difi.sdp.client2.KlientKonfigurasjon.Builder#parallellZipping(ForkJoinPool)}.
+     */
+    public CreateASiCE(XmlValidering xmlValidering, Metrics metrics, ForkJoinPool parallellZipping) {
+        this(xmlValidering, metrics, parallellZipping, CompressionPolicy.STANDARD);
+    }
+
+    /**
+     * @param compressionPolicy se {@link no.difi.sdp.client2.KlientKonfigurasjon.Builder#compressionPolicy(CompressionPolicy)}.
+     */
+    public CreateASiCE(XmlValidering xmlValidering, Metrics metrics, ForkJoinPool parallellZipping, CompressionPolicy compressionPolicy) {
         createManifest = new CreateManifest();
         createSignature = new CreateSignature();
-        createZip = new CreateZip();
+        createZip = new CreateZip(compressionPolicy);
+        this.xmlValidering = xmlValidering;
+        this.metrics = metrics;
+        this.parallellZipping = parallellZipping;
     }
 
     public ArchivedASiCE createAsice(Databehandler databehandler, Forsendelse forsendelse) {
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        long unzippedContentBytesCount = createAsice(databehandler, forsendelse, zipped);
+        Archive archive = new Archive(zipped.toByteArray());
+
+        if (debug_writeToDisk != null) {
+            writeArchiveToDisk(archive);
+        }
+
+        return new ArchivedASiCE(archive.getBytes(), unzippedContentBytesCount);
+    }
+
+    /**
+     * Som {@link #createAsice(Databehandler, Forsendelse)}, men zipper filene direkte til gitt strøm i stedet for
+     * å bygge opp arkivet i minnet.
+     * <p>
+     * Hver fil leses bare én gang: den zippes mens SHA-256 til signaturen og antall bytes beregnes, og signaturen
+     * legges til sist i arkivet.
+     *
+     * @return antall bytes i filene før zipping, se {@link ArchivedASiCE#getUnzippedContentBytesCount()}.
+     */
+    public long createAsice(Databehandler databehandler, Forsendelse forsendelse, OutputStream archive) {
         // Lag ASiC-E manifest
+        boolean valider = xmlValidering.skalValidere();
         log.info("Creating ASiC-E manifest");
-        Manifest manifest = createManifest.createManifest(forsendelse);
+        long start = System.nanoTime();
+        Manifest manifest = createManifest.createManifest(forsendelse, valider);
+        metrics.tid(MANIFEST, System.nanoTime() - start);
 
         List<AsicEAttachable> files = new ArrayList<AsicEAttachable>();
         files.add(forsendelse.getDokumentpakke().getHoveddokument());
@@ -45,20 +119,40 @@ public class CreateASiCE {
         forsendelse.getDokumentpakke().getHoveddokument().getMetadataDocument().ifPresent(files::add);
         files.add(manifest);
 
-        // Lag signatur over alle filene i pakka
-        log.info("Signing ASiC-E documents using private key with alias " + databehandler.noekkelpar.getAlias());
-        Signature signature = createSignature.createSignature(databehandler.noekkelpar, files);
-        files.add(signature);
-
-        // Zip filene
-        log.trace("Zipping ASiC-E files. Contains a total of " + files.size() + " files (including the generated manifest and signatures)");
-        Archive archive = createZip.zipIt(files);
-
-        if (debug_writeToDisk != null) {
-            writeArchiveToDisk(archive);
+        log.trace("Zipping ASiC-E files. Contains a total of " + (files.size() + 1) + " files (including the generated manifest and signatures)");
+        long zipNanos;
+        long unzippedContentBytesCount = 0;
+        start = System.nanoTime();
+        try (ZipWriter zipWriter = createZip.open(archive)) {
+            List<byte[]> sha256Digests = new ArrayList<>(files.size());
+            for (ZipWriter.WrittenEntry entry : write(zipWriter, files)) {
+                sha256Digests.add(entry.getSha256());
+                unzippedContentBytesCount += entry.getSize();
+            }
+            zipNanos = System.nanoTime() - start;
+
+            // Lag signatur over alle filene i pakka
+            log.info("Signing ASiC-E documents using private key with alias " + databehandler.noekkelpar.getAlias());
+            start = System.nanoTime();
+            Signature signature = createSignature.createSignature(databehandler.noekkelpar, files, sha256Digests, valider);
+            metrics.tid(SIGNERING, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            unzippedContentBytesCount += zipWriter.write(signature).getSize();
         }
+        metrics.tid(ZIP, zipNanos + System.nanoTime() - start);
+        return unzippedContentBytesCount;
+    }
 
-        return new ArchivedASiCE(archive.getBytes(), getUnzippedContentBytesCount(files));
+    private List<ZipWriter.WrittenEntry> write(ZipWriter zipWriter, List<AsicEAttachable> files) {
+        if (parallellZipping != null && files.size() > 2) {
+            return zipWriter.writeAll(files, parallellZipping);
+        }
+        List<ZipWriter.WrittenEntry> entries = new ArrayList<>(files.size());
+        for (AsicEAttachable file : files) {
+            entries.add(zipWriter.write(file));
+        }
+        return entries;
     }
 
     private void writeArchiveToDisk(Archive archive) {
@@ -81,9 +175,15 @@ public class CreateASiCE {
 
 
     static long getUnzippedContentBytesCount(List<AsicEAttachable> attachables){
-        return attachables.stream()
-                .mapToLong(a -> a.getBytes().length)
-                .sum();
+        long count = 0;
+        for (AsicEAttachable attachable : attachables) {
+            try {
+                count += attachable.getSource().size();
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+        return count;
     }
 
     /**
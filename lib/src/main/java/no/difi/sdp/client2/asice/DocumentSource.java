@@ -0,0 +1,114 @@
+package no.difi.sdp.client2.asice;
+
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Innholdet i en fil i dokumentpakken, som leses først når det trengs. Kilden må kunne åpnes flere ganger, siden
+ * innholdet leses både ved signering og ved zipping av dokumentpakken.
+ * <p>
+ * Kan implementeres som en lambda som åpner en ny strøm for hvert kall, f.eks. fra en database eller et objektlager.
+ */
+@FunctionalInterface
+public interface DocumentSource {
+
+    /**
+     * Åpner en ny strøm fra starten av innholdet. Strømmen lukkes av kallende kode.
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * @return størrelsen på innholdet i bytes. Standardimplementasjonen leser hele innholdet for å telle bytes.
+     */
+    default long size() throws IOException {
+        try (InputStream content = openStream()) {
+            return IOUtils.consume(content);
+        }
+    }
+
+    /**
+     * @return hele innholdet som en byte-array.
+     */
+    default byte[] readAllBytes() {
+        try (InputStream content = openStream()) {
+            return IOUtils.toByteArray(content);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+
+    static DocumentSource of(byte[] bytes) {
+        return new DocumentSource() {
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public long size() {
+                return bytes.length;
+            }
+
+            @Override
+            public byte[] readAllBytes() {
+                return bytes;
+            }
+        };
+    }
+
+    /**
+     * Leser filen hver gang innholdet trengs.
+     */
+    static DocumentSource of(Path file) {
+        return new DocumentSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return Files.newInputStream(file);
+            }
+
+            @Override
+            public long size() throws IOException {
+                return Files.size(file);
+            }
+        };
+    }
+
+    /**
+     * Mapper filen inn i minnet ved første gangs bruk. Innholdet ligger da utenfor heapen, og sidene lastes og frigis
+     * av operativsystemet etter behov.
+     */
+    static DocumentSource memoryMapped(Path file) {
+        return new DocumentSource() {
+            private MappedByteBuffer mapped;
+
+            @Override
+            public InputStream openStream() throws IOException {
+                return new ByteBufferInputStream(mapped().duplicate());
+            }
+
+            @Override
+            public long size() throws IOException {
+                return mapped().capacity();
+            }
+
+            private synchronized MappedByteBuffer mapped() throws IOException {
+                if (mapped == null) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    }
+                }
+                return mapped;
+            }
+        };
+    }
+}
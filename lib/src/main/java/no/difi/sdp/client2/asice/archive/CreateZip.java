@@ -1,41 +1,48 @@
 package no.difi.sdp.client2.asice.archive;
 
+import no.difi.sdp.client2.CompressionPolicy;
 import no.difi.sdp.client2.asice.AsicEAttachable;
-import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
-import org.apache.commons.io.IOUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
 import java.util.List;
 
 public class CreateZip {
 
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private final CompressionPolicy compressionPolicy;
+
+    public CreateZip() {
+        this(CompressionPolicy.STANDARD);
+    }
+
+    /**
+     * @param compressionPolicy bestemmer hvilke filer som komprimeres, og med hvilket nivå.
+     */
+    public CreateZip(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
 
     public Archive zipIt(List<AsicEAttachable> files) {
-        try (ByteArrayOutputStream archive = new ByteArrayOutputStream(); ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(archive)) {
-            zipOutputStream.setEncoding(StandardCharsets.UTF_8.name());
-            zipOutputStream.setMethod(ZipArchiveOutputStream.DEFLATED);
-            for (AsicEAttachable file : files) {
-                log.trace("Adding " + file.getFileName() + " to archive. Size in bytes before compression: " + file.getBytes().length);
-                ZipArchiveEntry zipEntry = new ZipArchiveEntry(file.getFileName());
-                zipEntry.setSize(file.getBytes().length);
-
-                zipOutputStream.putArchiveEntry(zipEntry);
-                IOUtils.write(file.getBytes(), zipOutputStream);
-                zipOutputStream.closeArchiveEntry();
-            }
-            zipOutputStream.finish();
-            zipOutputStream.close();
-
-            return new Archive(archive.toByteArray());
-        } catch (IOException e) {
-            throw new RuntimeIOException(e);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        zipIt(files, archive);
+        return new Archive(archive.toByteArray());
+    }
+
+    /**
+     * Zipper filene direkte til gitt strøm, uten å bygge opp arkivet i minnet. Strømmen lukkes ikke.
+     */
+    public void zipIt(List<AsicEAttachable> files, OutputStream archive) {
+        try (ZipWriter zipWriter = open(archive)) {
+            files.forEach(zipWriter::write);
         }
     }
+
+    /**
+     * Åpner et arkiv der filene kan legges til én og én, med SHA-256 og størrelse beregnet underveis.
+     *
+     * @param archive strømmen arkivet skrives til. Lukkes ikke.
+     */
+    public ZipWriter open(OutputStream archive) {
+        return new ZipWriter(archive, compressionPolicy);
+    }
 }
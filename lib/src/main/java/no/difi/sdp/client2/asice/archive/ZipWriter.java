@@ -0,0 +1,221 @@
+package no.difi.sdp.client2.asice.archive;
+
+import no.difi.sdp.client2.CompressionPolicy;
+import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Skriver filer til et zip-arkiv én og én. Hver fil som komprimeres leses bare én gang: SHA-256 og antall bytes
+ * beregnes mens innholdet komprimeres, slik at de kan brukes i signaturen uten å lese dokumentene på nytt. Filer som
+ * etter {@link CompressionPolicy} skal lagres ukomprimert leses to ganger, siden CRC-32 og størrelse må stå foran
+ * innholdet i arkivet.
+ */
+public class ZipWriter implements Closeable {
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final ZipArchiveOutputStream zipOutputStream;
+    private final CompressionPolicy compressionPolicy;
+
+    /**
+     * @param archive strømmen arkivet skrives til. Lukkes ikke.
+     */
+    ZipWriter(OutputStream archive, CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+        zipOutputStream = new ZipArchiveOutputStream(CloseShieldOutputStream.wrap(archive));
+        zipOutputStream.setEncoding(StandardCharsets.UTF_8.name());
+        zipOutputStream.setMethod(ZipArchiveOutputStream.DEFLATED);
+        zipOutputStream.setLevel(compressionPolicy.getNivaa());
+    }
+
+    public WrittenEntry write(AsicEAttachable file) {
+        if (!compressionPolicy.skalKomprimeres(file)) {
+            return writeStored(file);
+        }
+        MessageDigest sha256 = DigestUtils.getSha256Digest();
+        try {
+            zipOutputStream.putArchiveEntry(new ZipArchiveEntry(file.getFileName()));
+            long size;
+            try (InputStream content = new DigestInputStream(file.getSource().openStream(), sha256)) {
+                size = IOUtils.copyLarge(content, zipOutputStream);
+            }
+            zipOutputStream.closeArchiveEntry();
+            log.trace("Added " + file.getFileName() + " to archive. Size in bytes before compression: " + size);
+            return new WrittenEntry(sha256.digest(), size);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private WrittenEntry writeStored(AsicEAttachable file) {
+        MessageDigest sha256 = DigestUtils.getSha256Digest();
+        CRC32 crc = new CRC32();
+        try {
+            long size;
+            try (InputStream content = new CheckedInputStream(new DigestInputStream(file.getSource().openStream(), sha256), crc)) {
+                size = IOUtils.consume(content);
+            }
+            ZipArchiveEntry entry = new ZipArchiveEntry(file.getFileName());
+            entry.setMethod(ZipArchiveOutputStream.STORED);
+            entry.setCrc(crc.getValue());
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            zipOutputStream.putArchiveEntry(entry);
+            try (InputStream content = file.getSource().openStream()) {
+                IOUtils.copyLarge(content, zipOutputStream);
+            }
+            zipOutputStream.closeArchiveEntry();
+            log.trace("Added " + file.getFileName() + " to archive without compression. Size in bytes: " + size);
+            return new WrittenEntry(sha256.digest(), size);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    /**
+     * Komprimerer filene og beregner SHA-256 parallelt i gitt pool, og skriver dem til arkivet i samme rekkefølge som
+     * i listen, slik at arkivet blir det samme uavhengig av hvilken fil som blir ferdig først. Hver fil skrives så snart
+     * den og alle filene foran den er komprimert, men komprimerte filer som venter på tur holdes i minnet.
+     *
+     * @return én {@link WrittenEntry} per fil, i samme rekkefølge som {@code files}.
+     */
+    public List<WrittenEntry> writeAll(List<? extends AsicEAttachable> files, ForkJoinPool pool) {
+        List<ForkJoinTask<PreparedEntry>> prepared = new ArrayList<>(files.size());
+        for (AsicEAttachable file : files) {
+            prepared.add(pool.submit(() -> prepare(file)));
+        }
+        List<WrittenEntry> written = new ArrayList<>(files.size());
+        try {
+            for (ForkJoinTask<PreparedEntry> entry : prepared) {
+                written.add(write(entry.join()));
+            }
+        } catch (RuntimeException e) {
+            prepared.forEach(task -> task.cancel(false));
+            throw e;
+        }
+        return written;
+    }
+
+    /**
+     * Komprimerer filen, eller leser den inn ukomprimert etter {@link CompressionPolicy}, og beregner SHA-256 uten å
+     * skrive noe til arkivet. Kan kalles fra flere tråder samtidig, og resultatet skrives til arkivet med
+     * {@link #write(PreparedEntry)}.
+     */
+    public PreparedEntry prepare(AsicEAttachable file) {
+        boolean compress = compressionPolicy.skalKomprimeres(file);
+        MessageDigest sha256 = DigestUtils.getSha256Digest();
+        CRC32 crc = new CRC32();
+        Deflater deflater = compress ? new Deflater(compressionPolicy.getNivaa(), true) : null;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (InputStream content = new CheckedInputStream(new DigestInputStream(file.getSource().openStream(), sha256), crc)) {
+            long size;
+            try (OutputStream out = compress ? new DeflaterOutputStream(data, deflater, IOUtils.DEFAULT_BUFFER_SIZE) : data) {
+                size = IOUtils.copyLarge(content, out);
+            }
+            int method = compress ? ZipArchiveOutputStream.DEFLATED : ZipArchiveOutputStream.STORED;
+            return new PreparedEntry(file.getFileName(), method, data.toByteArray(), crc.getValue(), new WrittenEntry(sha256.digest(), size));
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Skriver en fil som allerede er klargjort med {@link #prepare(AsicEAttachable)}.
+     */
+    public WrittenEntry write(PreparedEntry file) {
+        ZipArchiveEntry entry = new ZipArchiveEntry(file.fileName);
+        entry.setMethod(file.method);
+        entry.setCrc(file.crc);
+        entry.setSize(file.written.size);
+        entry.setCompressedSize(file.data.length);
+        try {
+            zipOutputStream.addRawArchiveEntry(entry, new ByteArrayInputStream(file.data));
+            log.trace("Added " + file.fileName + " to archive. Size in bytes before compression: " + file.written.size);
+            return file.written;
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    /**
+     * Skriver innholdsfortegnelsen til arkivet.
+     */
+    @Override
+    public void close() {
+        try {
+            zipOutputStream.finish();
+            zipOutputStream.close();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+
+    public static final class PreparedEntry {
+
+        private final String fileName;
+        private final int method;
+        private final byte[] data;
+        private final long crc;
+        private final WrittenEntry written;
+
+        PreparedEntry(String fileName, int method, byte[] data, long crc, WrittenEntry written) {
+            this.fileName = fileName;
+            this.method = method;
+            this.data = data;
+            this.crc = crc;
+            this.written = written;
+        }
+    }
+
+    public static final class WrittenEntry {
+
+        private final byte[] sha256;
+        private final long size;
+
+        WrittenEntry(byte[] sha256, long size) {
+            this.sha256 = sha256;
+            this.size = size;
+        }
+
+        public byte[] getSha256() {
+            return sha256;
+        }
+
+        /**
+         * @return antall bytes før komprimering.
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+}
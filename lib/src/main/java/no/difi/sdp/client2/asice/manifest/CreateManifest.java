@@ -3,25 +3,30 @@ package no.difi.sdp.client2.asice.manifest;
 import no.difi.begrep.sdp.schema_v10.SDPManifest;
 import no.difi.sdp.client2.domain.Forsendelse;
 import no.difi.sdp.client2.domain.exceptions.KonfigurasjonException;
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
 import no.difi.sdp.client2.domain.exceptions.SendException;
 import no.difi.sdp.client2.domain.exceptions.XmlValideringException;
+import no.difi.sdp.client2.internal.CompiledSchemas;
+import no.difi.sdp.client2.internal.PooledValidator;
 import no.difi.sdp.client2.internal.SDPBuilder;
-import no.digipost.api.xml.Schemas;
-import org.springframework.oxm.MarshallingFailureException;
 import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 
 public class CreateManifest {
 
     private static final Jaxb2Marshaller marshaller;
+    private static final PooledValidator validator = new PooledValidator(CompiledSchemas.manifest());
 
     static {
         marshaller = new Jaxb2Marshaller();
         marshaller.setClassesToBeBound(SDPManifest.class);
-        marshaller.setSchema(Schemas.SDP_MANIFEST_SCHEMA);
         try {
             marshaller.afterPropertiesSet();
         } catch (Exception e) {
@@ -36,22 +41,32 @@ public class CreateManifest {
     }
 
     public Manifest createManifest(Forsendelse forsendelse) {
+        return createManifest(forsendelse, true);
+    }
+
+    /**
+     * @param valider om generert manifest skal valideres mot XSD.
+     */
+    public Manifest createManifest(Forsendelse forsendelse, boolean valider) {
         SDPManifest sdpManifest = sdpBuilder.createManifest(forsendelse);
 
         ByteArrayOutputStream manifestStream = new ByteArrayOutputStream();
-        try {
-            marshaller.marshal(sdpManifest, new StreamResult(manifestStream));
-            return new Manifest(manifestStream.toByteArray());
-        }
-        catch(MarshallingFailureException e) {
-            if (e.getMostSpecificCause() instanceof SAXParseException) {
+        marshaller.marshal(sdpManifest, new StreamResult(manifestStream));
+        byte[] manifest = manifestStream.toByteArray();
+
+        if (valider) {
+            try {
+                validator.validate(new StreamSource(new ByteArrayInputStream(manifest)));
+            } catch (SAXParseException e) {
                 throw new XmlValideringException("Kunne ikke validere generert Manifest XML. Sjekk at alle påkrevde input er satt og ikke er null",
-                        SendException.AntattSkyldig.KLIENT, (SAXParseException) e.getMostSpecificCause());
+                        SendException.AntattSkyldig.KLIENT, e);
+            } catch (SAXException e) {
+                throw new XmlValideringException("Kunne ikke validere generert Manifest XML", SendException.AntattSkyldig.KLIENT, e);
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
             }
-
-            throw e;
         }
-
+        return new Manifest(manifest);
     }
 
 }
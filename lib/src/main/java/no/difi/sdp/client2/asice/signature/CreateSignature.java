@@ -1,14 +1,15 @@
 package no.difi.sdp.client2.asice.signature;
 
 import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.asice.DocumentSource;
+import no.difi.sdp.client2.domain.Noekkelmateriale;
 import no.difi.sdp.client2.domain.Noekkelpar;
 import no.difi.sdp.client2.domain.exceptions.KonfigurasjonException;
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
 import no.difi.sdp.client2.domain.exceptions.XmlKonfigurasjonException;
 import no.difi.sdp.client2.domain.exceptions.XmlValideringException;
-import no.digipost.api.xml.Schemas;
-import org.springframework.core.io.Resource;
-import org.springframework.xml.validation.SchemaLoaderUtils;
-import org.springframework.xml.validation.XmlValidatorFactory;
+import no.difi.sdp.client2.internal.CompiledSchemas;
+import no.difi.sdp.client2.internal.PooledValidator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
@@ -34,18 +35,22 @@ import javax.xml.crypto.dsig.keyinfo.X509Data;
 import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
 import javax.xml.crypto.dsig.spec.TransformParameterSpec;
 import javax.xml.transform.dom.DOMSource;
-import javax.xml.validation.Schema;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -65,7 +70,8 @@ public class CreateSignature {
 
     private final DomUtils domUtils;
     private final CreateXAdESArtifacts createXAdESProperties;
-    private final Schema schema;
+    private final PooledValidator validator;
+    private final Map<Noekkelmateriale, PreparedSigner> preparedSigners = Collections.synchronizedMap(new WeakHashMap<>());
 
     public CreateSignature() {
         this(Clock.systemDefaultZone());
@@ -87,26 +93,42 @@ public class CreateSignature {
             throw new KonfigurasjonException("Kunne ikke initialisere xml-signering, fordi " + e.getClass().getSimpleName() + ": '" + e.getMessage() + "'", e);
         }
 
-        this.schema = loadSchema();
+        this.validator = new PooledValidator(CompiledSchemas.asice());
     }
 
-	private static Schema loadSchema() {
-		try {
-            return SchemaLoaderUtils.loadSchema(new Resource[]{ Schemas.ASICE_SCHEMA }, XmlValidatorFactory.SCHEMA_W3C_XML);
-        } catch (IOException | SAXException e) {
-            throw new KonfigurasjonException("Kunne ikke laste schema for validering av signatures, fordi " + e.getClass().getSimpleName() + ": '" + e.getMessage() + "'", e);
+    public Signature createSignature(final Noekkelpar noekkelpar, final List<AsicEAttachable> attachedFiles) throws XmlValideringException {
+        List<byte[]> sha256Digests = new ArrayList<>(attachedFiles.size());
+        for (AsicEAttachable file : attachedFiles) {
+            try {
+                sha256Digests.add(sha256Digest(file.getSource()));
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
         }
-	}
+        return createSignature(noekkelpar, attachedFiles, sha256Digests);
+    }
 
-    public Signature createSignature(final Noekkelpar noekkelpar, final List<AsicEAttachable> attachedFiles) throws XmlValideringException {
-        XMLSignatureFactory xmlSignatureFactory = getSignatureFactory();
-        SignatureMethod signatureMethod = getSignatureMethod(xmlSignatureFactory);
+    /**
+     * Som {@link #createSignature(Noekkelpar, List)}, men med SHA-256 for filene allerede beregnet, f.eks. under zipping.
+     *
+     * @param sha256Digests SHA-256 av innholdet i hver fil, i samme rekkefølge som {@code attachedFiles}.
+     */
+    public Signature createSignature(final Noekkelpar noekkelpar, final List<AsicEAttachable> attachedFiles, final List<byte[]> sha256Digests) throws XmlValideringException {
+        return createSignature(noekkelpar, attachedFiles, sha256Digests, true);
+    }
+
+    /**
+     * @param valider om generert signature.xml skal valideres mot XSD.
+     */
+    public Signature createSignature(final Noekkelpar noekkelpar, final List<AsicEAttachable> attachedFiles, final List<byte[]> sha256Digests, boolean valider) throws XmlValideringException {
+        PreparedSigner signer = preparedSigner(noekkelpar);
+        XMLSignatureFactory xmlSignatureFactory = signer.xmlSignatureFactory;
 
         // Generer XAdES-dokument som skal signeres, informasjon om nøkkel brukt til signering og informasjon om hva som er signert
-        XAdESArtifacts xadesArtifacts = createXAdESProperties.createArtifactsToSign(attachedFiles, noekkelpar.getVirksomhetssertifikat());
+        XAdESArtifacts xadesArtifacts = createXAdESProperties.createArtifactsToSign(attachedFiles, signer.xadesTemplate);
 
         // Lag signatur-referanse for alle filer
-        List<Reference> references = references(xmlSignatureFactory, attachedFiles);
+        List<Reference> references = references(xmlSignatureFactory, attachedFiles, sha256Digests);
 
         // Lag signatur-referanse for XaDES properties
         references.add(xmlSignatureFactory.newReference(
@@ -118,15 +140,14 @@ public class CreateSignature {
         ));
 
 
-        KeyInfo keyInfo = keyInfo(xmlSignatureFactory, noekkelpar.getVirksomhetssertifikatKjede());
-        SignedInfo signedInfo = xmlSignatureFactory.newSignedInfo(canonicalizationMethod, signatureMethod, references);
+        SignedInfo signedInfo = xmlSignatureFactory.newSignedInfo(canonicalizationMethod, getSignatureMethod(xmlSignatureFactory), references);
 
         // Definer signatur over XAdES-dokument
         XMLObject xmlObject = xmlSignatureFactory.newXMLObject(singletonList(new DOMStructure(xadesArtifacts.document.getDocumentElement())), null, null, null);
-        XMLSignature xmlSignature = xmlSignatureFactory.newXMLSignature(signedInfo, keyInfo, singletonList(xmlObject), "Signature", null);
+        XMLSignature xmlSignature = xmlSignatureFactory.newXMLSignature(signedInfo, signer.keyInfo, singletonList(xmlObject), "Signature", null);
 
         Document signedDocument = domUtils.newEmptyXmlDocument();
-        DOMSignContext signContext = new DOMSignContext(noekkelpar.getVirksomhetssertifikatPrivatnoekkel(), addXAdESSignaturesElement(signedDocument));
+        DOMSignContext signContext = new DOMSignContext(signer.privateKey, addXAdESSignaturesElement(signedDocument));
         signContext.setURIDereferencer(signedPropertiesURIDereferencer(xadesArtifacts, xmlSignatureFactory));
 
         try {
@@ -137,16 +158,22 @@ public class CreateSignature {
             throw new XmlKonfigurasjonException("Klarte ikke å signere ASiC-E element.", e);
         }
 
-        try {
-            schema.newValidator().validate(new DOMSource(signedDocument));
-        } catch (SAXException | IOException e) {
-            throw new XmlValideringException(
-                    "Failed to validate generated signature.xml because " + e.getClass().getSimpleName() + ": '" + e.getMessage() + "'. " +
-                    "Verify that the input is valid and that there are no illegal symbols in file names etc.", KLIENT, e);
+        if (valider) {
+            try {
+                validator.validate(new DOMSource(signedDocument));
+            } catch (SAXException | IOException e) {
+                throw new XmlValideringException(
+                        "Failed to validate generated signature.xml because " + e.getClass().getSimpleName() + ": '" + e.getMessage() + "'. " +
+                        "Verify that the input is valid and that there are no illegal symbols in file names etc.", KLIENT, e);
+            }
         }
         return new Signature(domUtils.serializeToXml(signedDocument));
     }
 
+    private PreparedSigner preparedSigner(Noekkelpar noekkelpar) {
+        return preparedSigners.computeIfAbsent(noekkelpar.getNoekkelmateriale(), noekkelmateriale -> new PreparedSigner(noekkelmateriale, createXAdESProperties));
+    }
+
     private URIDereferencer signedPropertiesURIDereferencer(XAdESArtifacts xadesArtifacts, XMLSignatureFactory signatureFactory) {
         return (uriReference, context) -> {
             if (xadesArtifacts.signablePropertiesReferenceUri.equals(uriReference.getURI())) {
@@ -169,13 +196,13 @@ public class CreateSignature {
         }
 	}
 
-    private List<Reference> references(final XMLSignatureFactory xmlSignatureFactory, final List<AsicEAttachable> files) {
+    private List<Reference> references(final XMLSignatureFactory xmlSignatureFactory, final List<AsicEAttachable> files, final List<byte[]> sha256Digests) {
         List<Reference> result = new ArrayList<Reference>();
         for (int i = 0; i < files.size(); i++) {
             try {
 	            String signatureElementId = "ID_" + i;
                 String uri = URLEncoder.encode(files.get(i).getFileName(), "UTF-8");
-                Reference reference = xmlSignatureFactory.newReference(uri, sha256DigestMethod, null, null, signatureElementId, sha256(files.get(i).getBytes()));
+                Reference reference = xmlSignatureFactory.newReference(uri, sha256DigestMethod, null, null, signatureElementId, sha256Digests.get(i));
                 result.add(reference);
             } catch(UnsupportedEncodingException e) {
             	throw new RuntimeException(e);
@@ -185,6 +212,12 @@ public class CreateSignature {
         return result;
     }
 
+    private static byte[] sha256Digest(DocumentSource source) throws IOException {
+        try (InputStream content = source.openStream()) {
+            return sha256(content);
+        }
+    }
+
     private static KeyInfo keyInfo(final XMLSignatureFactory xmlSignatureFactory, final Certificate[] sertifikater) {
         KeyInfoFactory keyInfoFactory = xmlSignatureFactory.getKeyInfoFactory();
         X509Data x509Data = keyInfoFactory.newX509Data(asList(sertifikater));
@@ -199,4 +232,30 @@ public class CreateSignature {
         }
     }
 
+
+    /**
+     * Alt som er likt for hver signatur med samme {@link Noekkelmateriale}: signaturfabrikk, {@link KeyInfo} med
+     * sertifikatkjeden, privatnøkkelen og XAdES-malen for virksomhetssertifikatet. Oppslag av provider og utlåsing av nøkkelen gjøres dermed én gang, og ikke
+     * for hver forsendelse.
+     * <p>
+     * Objektene som holdes her har ingen tilstand som endres ved signering, og kan brukes fra flere tråder samtidig.
+     * Det gjelder ikke {@link SignatureMethod}, som holder på en {@link java.security.Signature} under signering, og
+     * derfor lages på nytt for hver signatur. Må ikke holde en referanse til {@link Noekkelmateriale}, siden det brukes
+     * som svak nøkkel i cachen. Når {@link Noekkelpar#oppdaterNoekkelmateriale()} kalles, blir det dermed laget en
+     * ny {@code PreparedSigner}, og den gamle forsvinner fra cachen.
+     */
+    private static final class PreparedSigner {
+
+        final XMLSignatureFactory xmlSignatureFactory;
+        final KeyInfo keyInfo;
+        final PrivateKey privateKey;
+        final XAdESTemplate xadesTemplate;
+
+        PreparedSigner(Noekkelmateriale noekkelmateriale, CreateXAdESArtifacts createXAdESArtifacts) {
+            this.xmlSignatureFactory = getSignatureFactory();
+            this.keyInfo = keyInfo(xmlSignatureFactory, noekkelmateriale.getVirksomhetssertifikatKjede());
+            this.privateKey = noekkelmateriale.getPrivatnoekkel();
+            this.xadesTemplate = createXAdESArtifacts.createTemplate(noekkelmateriale.getVirksomhetssertifikat());
+        }
+    }
 }
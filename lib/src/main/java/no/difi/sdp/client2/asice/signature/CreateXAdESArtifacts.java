@@ -35,6 +35,24 @@ class CreateXAdESArtifacts {
     }
 
     XAdESArtifacts createArtifactsToSign(List<AsicEAttachable> files, Sertifikat sertifikat) {
+        return XAdESArtifacts.from(qualifyingProperties(sertifikat, ZonedDateTime.now(clock), dataObjectFormats(files)));
+    }
+
+    /**
+     * Som {@link #createArtifactsToSign(List, Sertifikat)}, men med delene som avhenger av sertifikatet hentet fra en
+     * ferdig marshallet mal.
+     */
+    XAdESArtifacts createArtifactsToSign(List<AsicEAttachable> files, XAdESTemplate template) {
+        return template.fill(ZonedDateTime.now(clock), files);
+    }
+
+    XAdESTemplate createTemplate(Sertifikat sertifikat) {
+        DataObjectFormat dataObjectFormatTemplate = new DataObjectFormat(null, null, "application/octet-stream", null, "#ID_0");
+        ZonedDateTime signingTimeTemplate = ZonedDateTime.now(clock);
+        return new XAdESTemplate(XAdESArtifacts.marshal(qualifyingProperties(sertifikat, signingTimeTemplate, singletonList(dataObjectFormatTemplate))));
+    }
+
+    private static QualifyingProperties qualifyingProperties(Sertifikat sertifikat, ZonedDateTime signingTime, List<DataObjectFormat> dataObjectFormats) {
         byte[] certificateDigestValue = sha1(sertifikat.getEncoded());
         X509Certificate certificate = sertifikat.getX509Certificate();
 
@@ -42,13 +60,10 @@ class CreateXAdESArtifacts {
         X509IssuerSerialType certificateIssuer = new X509IssuerSerialType(certificate.getIssuerDN().getName(), certificate.getSerialNumber());
         SigningCertificate signingCertificate = new SigningCertificate(singletonList(new CertIDType(certificateDigest, certificateIssuer, null)));
 
-        ZonedDateTime now = ZonedDateTime.now(clock);
-        SignedSignatureProperties signedSignatureProperties = new SignedSignatureProperties().withSigningTime(now).withSigningCertificate(signingCertificate);
-        SignedDataObjectProperties signedDataObjectProperties = new SignedDataObjectProperties().withDataObjectFormats(dataObjectFormats(files));
+        SignedSignatureProperties signedSignatureProperties = new SignedSignatureProperties().withSigningTime(signingTime).withSigningCertificate(signingCertificate);
+        SignedDataObjectProperties signedDataObjectProperties = new SignedDataObjectProperties().withDataObjectFormats(dataObjectFormats);
         SignedProperties signedProperties = new SignedProperties(signedSignatureProperties, signedDataObjectProperties, "SignedProperties");
-        QualifyingProperties qualifyingProperties = new QualifyingProperties().withSignedProperties(signedProperties).withTarget("#Signature");
-
-        return XAdESArtifacts.from(qualifyingProperties);
+        return new QualifyingProperties().withSignedProperties(signedProperties).withTarget("#Signature");
     }
 
     private static List<DataObjectFormat> dataObjectFormats(List<AsicEAttachable> files) {
@@ -22,12 +22,16 @@ final class XAdESArtifacts {
 
 
     public static XAdESArtifacts from(QualifyingProperties qualifyingProperties) {
+        return from(marshal(qualifyingProperties));
+    }
+
+    static Document marshal(QualifyingProperties qualifyingProperties) {
         DOMResult domResult = new DOMResult();
         marshaller.marshal(qualifyingProperties, domResult);
-        return from((Document) domResult.getNode());
+        return (Document) domResult.getNode();
     }
 
-    private static XAdESArtifacts from(Document qualifyingPropertiesDocument) {
+    static XAdESArtifacts from(Document qualifyingPropertiesDocument) {
         Element qualifyingProperties = qualifyingPropertiesDocument.getDocumentElement();
         NodeList qualifyingPropertiesContents = qualifyingProperties.getChildNodes();
         Element signedProperties = range(0, qualifyingPropertiesContents.getLength()).mapToObj(qualifyingPropertiesContents::item)
@@ -0,0 +1,63 @@
+package no.difi.sdp.client2.asice.signature;
+
+import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.digipost.xsd.jaxb.XSDateTimeCustomBinder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Ferdig marshallet QualifyingProperties for ett sertifikat. Alt som avhenger av sertifikatet (digest og utsteder)
+ * ligger allerede i dokumentet, og for hver signatur kopieres dokumentet og kun signeringstidspunkt og
+ * DataObjectFormat-elementene fylles inn. Resultatet er identisk med å marshalle et nytt JAXB-objekt hver gang.
+ * <p>
+ * Malen endres aldri etter at den er laget, og kan brukes fra flere tråder samtidig.
+ */
+final class XAdESTemplate {
+
+    private static final String XADES_NAMESPACE = "http://uri.etsi.org/01903/v1.3.2#";
+
+    private final Document template;
+
+    /**
+     * @param template marshallet QualifyingProperties med nøyaktig én DataObjectFormat, som brukes som mal for
+     *                 DataObjectFormat-elementet til hver fil.
+     */
+    XAdESTemplate(Document template) {
+        this.template = template;
+    }
+
+    XAdESArtifacts fill(ZonedDateTime signingTime, List<AsicEAttachable> files) {
+        Document document;
+        synchronized (template) {
+            document = (Document) template.cloneNode(true);
+        }
+
+        singleElement(document, "SigningTime").setTextContent(XSDateTimeCustomBinder.printDateTime(signingTime));
+
+        Element dataObjectFormatTemplate = singleElement(document, "DataObjectFormat");
+        Node signedDataObjectProperties = dataObjectFormatTemplate.getParentNode();
+        for (int i = 0; i < files.size(); i++) {
+            Element dataObjectFormat = (Element) dataObjectFormatTemplate.cloneNode(true);
+            dataObjectFormat.setAttribute("ObjectReference", "#ID_" + i);
+            singleElement(dataObjectFormat, "MimeType").setTextContent(files.get(i).getMimeType());
+            signedDataObjectProperties.insertBefore(dataObjectFormat, dataObjectFormatTemplate);
+        }
+        signedDataObjectProperties.removeChild(dataObjectFormatTemplate);
+
+        return XAdESArtifacts.from(document);
+    }
+
+    private static Element singleElement(Node parent, String localName) {
+        Element element = parent instanceof Document
+                ? (Element) ((Document) parent).getElementsByTagNameNS(XADES_NAMESPACE, localName).item(0)
+                : (Element) ((Element) parent).getElementsByTagNameNS(XADES_NAMESPACE, localName).item(0);
+        if (element == null) {
+            throw new IllegalStateException("Didn't find " + localName + " in XAdES template.");
+        }
+        return element;
+    }
+}
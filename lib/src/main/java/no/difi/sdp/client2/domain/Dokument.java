@@ -1,24 +1,26 @@
 package no.difi.sdp.client2.domain;
 
 import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.asice.DocumentSource;
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Optional;
 
 public class Dokument implements AsicEAttachable {
 
     private String tittel;
     private String filnavn;
-    private byte[] dokument;
+    private DocumentSource dokument;
     private String mimeType = "application/pdf";
     private Optional<MetadataDokument> metadataDocument;
 
-    private Dokument(String tittel, String filnavn, byte[] dokument, MetadataDokument metadataDocument) {
+    private Dokument(String tittel, String filnavn, DocumentSource dokument, MetadataDokument metadataDocument) {
         this.tittel = tittel;
         this.filnavn = filnavn;
         this.dokument = dokument;
@@ -30,8 +32,16 @@ public class Dokument implements AsicEAttachable {
         return getFilnavn();
     }
 
+    /**
+     * Leser hele dokumentet inn i minnet dersom det ikke allerede ligger der. Bruk {@link #getSource()} for å strømme innholdet.
+     */
     @Override
     public byte[] getBytes() {
+        return dokument.readAllBytes();
+    }
+
+    @Override
+    public DocumentSource getSource() {
         return dokument;
     }
 
@@ -60,7 +70,7 @@ public class Dokument implements AsicEAttachable {
     public static Builder builder(String tittel, String filnavn, InputStream dokument) {
         try (InputStream dokumentStreamToConsume = dokument) {
             byte[] dokumentBytes = IOUtils.toByteArray(dokumentStreamToConsume);
-            return new Builder(tittel, filnavn, dokumentBytes);
+            return new Builder(tittel, filnavn, DocumentSource.of(dokumentBytes));
         } catch (IOException e) {
             throw new LastDokumentException("Kunne ikke lese dokument", e);
         }
@@ -72,19 +82,39 @@ public class Dokument implements AsicEAttachable {
      * @param dokument Filen som skal sendes. Navnet på filen vil brukes som filnavn ovenfor mottaker.
      */
     public static Builder builder(String tittel, String filnavn, byte[] dokument) {
+        return new Builder(tittel, filnavn, DocumentSource.of(dokument));
+    }
+
+    /**
+     * @param tittel Tittel som vises til brukeren gitt riktig sikkerhetsnivå. Kan være null for hoveddokument
+     * @param filnavn Filnavnet til dokumentet.
+     * @param dokument Kilden dokumentet leses fra når forsendelsen signeres og zippes. Dokumentet holdes ikke i minnet.
+     */
+    public static Builder builder(String tittel, String filnavn, DocumentSource dokument) {
         return new Builder(tittel, filnavn, dokument);
     }
 
     /**
+     * Filen leses først når forsendelsen signeres og zippes, og må derfor finnes helt til forsendelsen er sendt.
+     *
      * @param tittel Tittel som vises til brukeren gitt riktig sikkerhetsnivå.
      * @param file Filen som skal sendes. Navnet på filen vil brukes som filnavn ovenfor mottaker.
      */
     public static Builder builder(String tittel, File file) {
-        try {
-            return builder(tittel, file.getName(), new FileInputStream(file));
-        } catch (FileNotFoundException e) {
-            throw new LastDokumentException("Fant ikke fil", e);
+        return builder(tittel, file.toPath());
+    }
+
+    /**
+     * Filen leses først når forsendelsen signeres og zippes, og må derfor finnes helt til forsendelsen er sendt.
+     *
+     * @param tittel Tittel som vises til brukeren gitt riktig sikkerhetsnivå.
+     * @param file Filen som skal sendes. Navnet på filen vil brukes som filnavn ovenfor mottaker.
+     */
+    public static Builder builder(String tittel, Path file) {
+        if (!Files.isReadable(file)) {
+            throw new LastDokumentException("Fant ikke fil", new FileNotFoundException(file.toString()));
         }
+        return builder(tittel, file.getFileName().toString(), DocumentSource.of(file));
     }
 
 
@@ -93,7 +123,7 @@ public class Dokument implements AsicEAttachable {
         private final Dokument target;
         private boolean built = false;
 
-        private Builder(String tittel, String filnavn, byte[] dokument) {
+        private Builder(String tittel, String filnavn, DocumentSource dokument) {
             target = new Dokument(tittel, filnavn, dokument, null);
         }
 
@@ -1,21 +1,27 @@
 package no.difi.sdp.client2.domain;
 
 import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.asice.DocumentSource;
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class MetadataDokument implements AsicEAttachable {
 
     private String filnavn;
-    private byte[] dokument;
+    private DocumentSource dokument;
     private String mimeType;
 
     public MetadataDokument(String filnavn, String mimeType, byte[] dokument) {
+        this(filnavn, mimeType, DocumentSource.of(dokument));
+    }
+
+    private MetadataDokument(String filnavn, String mimeType, DocumentSource dokument) {
         this.filnavn = filnavn;
         this.mimeType = mimeType;
         this.dokument = dokument;
@@ -29,7 +35,7 @@ public class MetadataDokument implements AsicEAttachable {
     public static Builder builder(String filnavn, String mimetype, InputStream dokument) {
         try (InputStream dokumentStreamToConsume = dokument) {
             byte[] dokumentBytes = IOUtils.toByteArray(dokumentStreamToConsume);
-            return new Builder(filnavn, mimetype, dokumentBytes);
+            return new Builder(filnavn, mimetype, DocumentSource.of(dokumentBytes));
         } catch (IOException e) {
             throw new Dokument.LastDokumentException("Kunne ikke lese dokument", e);
         }
@@ -41,19 +47,39 @@ public class MetadataDokument implements AsicEAttachable {
      * @param dokument Filen som skal sendes. Navnet på filen vil brukes som filnavn ovenfor mottaker.
      */
     public static Builder builder(String filnavn, String mimetype, byte[] dokument) {
+        return new Builder(filnavn, mimetype, DocumentSource.of(dokument));
+    }
+
+    /**
+     * @param filnavn  Filnavnet til dokumentet.
+     * @param mimetype Mimetype til begrepet
+     * @param dokument Kilden dokumentet leses fra når forsendelsen signeres og zippes.
+     */
+    public static Builder builder(String filnavn, String mimetype, DocumentSource dokument) {
         return new Builder(filnavn, mimetype, dokument);
     }
 
     /**
+     * Filen leses først når forsendelsen signeres og zippes, og må derfor finnes helt til forsendelsen er sendt.
+     *
      * @param mimetype Mimetype til begrepet
      * @param file   Filen som skal sendes. Navnet på filen vil brukes som filnavn ovenfor mottaker.
      */
     public static Builder builder(String mimetype, File file) {
-        try {
-            return builder(file.getName(), mimetype, new FileInputStream(file));
-        } catch (FileNotFoundException e) {
-            throw new Dokument.LastDokumentException("Fant ikke fil", e);
+        return builder(mimetype, file.toPath());
+    }
+
+    /**
+     * Filen leses først når forsendelsen signeres og zippes, og må derfor finnes helt til forsendelsen er sendt.
+     *
+     * @param mimetype Mimetype til begrepet
+     * @param file   Filen som skal sendes. Navnet på filen vil brukes som filnavn ovenfor mottaker.
+     */
+    public static Builder builder(String mimetype, Path file) {
+        if (!Files.isReadable(file)) {
+            throw new Dokument.LastDokumentException("Fant ikke fil", new FileNotFoundException(file.toString()));
         }
+        return builder(file.getFileName().toString(), mimetype, DocumentSource.of(file));
     }
 
     @Override
@@ -63,6 +89,11 @@ public class MetadataDokument implements AsicEAttachable {
 
     @Override
     public byte[] getBytes() {
+        return this.dokument.readAllBytes();
+    }
+
+    @Override
+    public DocumentSource getSource() {
         return this.dokument;
     }
 
@@ -76,7 +107,7 @@ public class MetadataDokument implements AsicEAttachable {
         private final MetadataDokument target;
         private boolean built = false;
 
-        private Builder(String filnavn, String mimetype, byte[] dokument) {
+        private Builder(String filnavn, String mimetype, DocumentSource dokument) {
             target = new MetadataDokument(filnavn, mimetype, dokument);
         }
 
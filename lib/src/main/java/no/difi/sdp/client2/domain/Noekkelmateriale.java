@@ -0,0 +1,33 @@
+package no.difi.sdp.client2.domain;
+
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+
+/**
+ * Privatnøkkel og sertifikater for et {@link Noekkelpar}, lest ut av {@link java.security.KeyStore} én gang.
+ * Uforanderlig, og kan deles mellom tråder. Et nytt øyeblikksbilde lages med {@link Noekkelpar#oppdaterNoekkelmateriale()}.
+ */
+public final class Noekkelmateriale {
+
+    private final PrivateKey privatnoekkel;
+    private final Sertifikat virksomhetssertifikat;
+    private final Certificate[] virksomhetssertifikatKjede;
+
+    Noekkelmateriale(PrivateKey privatnoekkel, Sertifikat virksomhetssertifikat, Certificate[] virksomhetssertifikatKjede) {
+        this.privatnoekkel = privatnoekkel;
+        this.virksomhetssertifikat = virksomhetssertifikat;
+        this.virksomhetssertifikatKjede = virksomhetssertifikatKjede;
+    }
+
+    public PrivateKey getPrivatnoekkel() {
+        return privatnoekkel;
+    }
+
+    public Sertifikat getVirksomhetssertifikat() {
+        return virksomhetssertifikat;
+    }
+
+    public Certificate[] getVirksomhetssertifikatKjede() {
+        return virksomhetssertifikatKjede.clone();
+    }
+}
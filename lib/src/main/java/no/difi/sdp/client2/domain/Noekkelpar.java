@@ -20,6 +20,7 @@ public class Noekkelpar {
     private KeyStore trustStore;
     private String virksomhetssertifikatAlias;
     private String virksomhetssertifikatPassword;
+    private volatile Noekkelmateriale noekkelmateriale;
 
     /**
      * For oppretting av {@link Noekkelpar} fra key store og trust store, hvor begge disse er i samme {@link KeyStore}.
@@ -96,10 +97,56 @@ public class Noekkelpar {
     }
 
     public Sertifikat getVirksomhetssertifikat() {
-        return Sertifikat.fraKeyStore(keyStore, virksomhetssertifikatAlias);
+        return getNoekkelmateriale().getVirksomhetssertifikat();
     }
 
     public Certificate[] getVirksomhetssertifikatKjede() {
+        return getNoekkelmateriale().getVirksomhetssertifikatKjede();
+    }
+
+    public PrivateKey getVirksomhetssertifikatPrivatnoekkel() {
+        return getNoekkelmateriale().getPrivatnoekkel();
+    }
+
+    /**
+     * Privatnøkkel og sertifikater, lest fra {@link KeyStore} første gang de trengs. For PKCS#12 innebærer utlåsing av
+     * privatnøkkelen en kostbar nøkkelutledning fra passordet, så dette gjøres bare én gang, og ikke for hver forsendelse.
+     *
+     * @see #oppdaterNoekkelmateriale()
+     */
+    public Noekkelmateriale getNoekkelmateriale() {
+        Noekkelmateriale lastet = noekkelmateriale;
+        if (lastet == null) {
+            synchronized (this) {
+                lastet = noekkelmateriale;
+                if (lastet == null) {
+                    lastet = lastNoekkelmateriale();
+                    noekkelmateriale = lastet;
+                }
+            }
+        }
+        return lastet;
+    }
+
+    /**
+     * Leser privatnøkkel og sertifikater fra {@link KeyStore} på nytt. Brukes når virksomhetssertifikatet er byttet ut
+     * i {@link KeyStore}-en. Forsendelser som allerede er under signering fullføres med forrige nøkkelmateriale.
+     */
+    public void oppdaterNoekkelmateriale() {
+        Noekkelmateriale lastet = lastNoekkelmateriale();
+        synchronized (this) {
+            noekkelmateriale = lastet;
+        }
+    }
+
+    private Noekkelmateriale lastNoekkelmateriale() {
+        Sertifikat virksomhetssertifikat = Sertifikat.fraKeyStore(keyStore, virksomhetssertifikatAlias);
+        Certificate[] virksomhetssertifikatKjede = lastVirksomhetssertifikatKjede();
+        PrivateKey privatnoekkel = lastPrivatnoekkel();
+        return new Noekkelmateriale(privatnoekkel, virksomhetssertifikat, virksomhetssertifikatKjede);
+    }
+
+    private Certificate[] lastVirksomhetssertifikatKjede() {
         try {
             return keyStore.getCertificateChain(virksomhetssertifikatAlias);
         } catch (KeyStoreException e) {
@@ -107,7 +154,7 @@ public class Noekkelpar {
         }
     }
 
-    public PrivateKey getVirksomhetssertifikatPrivatnoekkel() {
+    private PrivateKey lastPrivatnoekkel() {
         try {
             Key key = keyStore.getKey(virksomhetssertifikatAlias, virksomhetssertifikatPassword.toCharArray());
             if (!(key instanceof PrivateKey)) {
@@ -0,0 +1,32 @@
+package no.difi.sdp.client2.domain;
+
+/**
+ * Hvor ofte XML skal valideres mot XSD, enten det er manifest.xml og signature.xml som klienten genererer, eller
+ * meldinger til og fra meldingsformidler.
+ *
+ * @see no.difi.sdp.client2.KlientKonfigurasjon.Builder#xmlValidering(Valideringsmodus, int)
+ * @see no.difi.sdp.client2.KlientKonfigurasjon.Builder#requestValidering(Valideringsmodus, int)
+ * @see no.difi.sdp.client2.KlientKonfigurasjon.Builder#responseValidering(Valideringsmodus, int)
+ */
+public enum Valideringsmodus {
+
+    /**
+     * Valider hver dokumentpakke eller melding.
+     */
+    ALWAYS,
+
+    /**
+     * Valider hver N-te dokumentpakke eller melding, inkludert den første.
+     */
+    SAMPLED,
+
+    /**
+     * Valider de N første dokumentpakkene eller meldingene, og ingen etter det.
+     */
+    OFF_AFTER_WARMUP,
+
+    /**
+     * Ingen validering.
+     */
+    OFF
+}
@@ -0,0 +1,14 @@
+package no.difi.sdp.client2.domain.exceptions;
+
+/**
+ * Forespørselen ble avvist av klienten selv, fordi den ikke slapp til innen
+ * {@link no.difi.sdp.client2.KlientKonfigurasjon#getConnectionRequestTimeoutInMillis() connectionRequestTimeout} på
+ * grunn av begrensningene satt i {@link no.difi.sdp.client2.KlientKonfigurasjon}. Forespørselen er ikke sendt til
+ * meldingsformidler, og kan forsøkes igjen senere.
+ */
+public class ForespoerselAvvistException extends SendException {
+
+    public ForespoerselAvvistException(String message) {
+        super(message, AntattSkyldig.UKJENT, null);
+    }
+}
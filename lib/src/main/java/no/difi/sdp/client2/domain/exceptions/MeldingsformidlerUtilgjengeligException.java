@@ -0,0 +1,12 @@
+package no.difi.sdp.client2.domain.exceptions;
+
+/**
+ * Forespørselen ble ikke sendt, fordi for mange av de siste forespørslene av samme type mot meldingsformidler har
+ * feilet eller vært trege. Se {@link no.difi.sdp.client2.CircuitBreakerPolicy}.
+ */
+public class MeldingsformidlerUtilgjengeligException extends SendException {
+
+    public MeldingsformidlerUtilgjengeligException(String message) {
+        super(message, AntattSkyldig.SERVER, null);
+    }
+}
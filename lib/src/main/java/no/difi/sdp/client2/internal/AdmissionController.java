@@ -0,0 +1,203 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.AdmissionStatistics;
+import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.Metrics;
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.exceptions.ForespoerselAvvistException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bestemmer når en forespørsel til meldingsformidler får slippe til. Begrenser antall forespørsler per sekund med en
+ * token bucket, og antall samtidige forespørsler per {@link Prioritet}. Forespørsler som må vente, slipper til i den
+ * rekkefølgen de kom innenfor hver prioritet, og en ventende {@link Prioritet#PRIORITERT} forespørsel går foran
+ * ventende {@link Prioritet#NORMAL} når de konkurrerer om samme kvote. Den som har ventet lenger enn
+ * {@link KlientKonfigurasjon#getConnectionRequestTimeoutInMillis()} avvises.
+ */
+public final class AdmissionController {
+
+    private final double foresporslerPerNanosekund;
+    private final double maksTokens;
+    private final Map<Prioritet, Integer> maksPaagaaende;
+    private final long maksVentetidNanos;
+    private final LongSupplier nanoTime;
+    private final Metrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition endret = lock.newCondition();
+    private final Map<Prioritet, Deque<Object>> koeer = new EnumMap<>(Prioritet.class);
+    private final Map<Prioritet, Teller> tellere = new EnumMap<>(Prioritet.class);
+    private double tokens;
+    private long sistFylt;
+
+    public static AdmissionController fra(KlientKonfigurasjon klientKonfigurasjon) {
+        Map<Prioritet, Integer> maksPaagaaende = new EnumMap<>(Prioritet.class);
+        for (Prioritet prioritet : Prioritet.values()) {
+            maksPaagaaende.put(prioritet, klientKonfigurasjon.getMaxInFlightRequests(prioritet));
+        }
+        return new AdmissionController(klientKonfigurasjon.getMaxRequestsPerSecond(), maksPaagaaende,
+                TimeUnit.MILLISECONDS.toNanos(klientKonfigurasjon.getConnectionRequestTimeoutInMillis()), System::nanoTime,
+                klientKonfigurasjon.getMetrics());
+    }
+
+    AdmissionController(int foresporslerPerSekund, Map<Prioritet, Integer> maksPaagaaende, long maksVentetidNanos, LongSupplier nanoTime) {
+        this(foresporslerPerSekund, maksPaagaaende, maksVentetidNanos, nanoTime, Metrics.INGEN);
+    }
+
+    /**
+     * @param foresporslerPerSekund maks antall forespørsler per sekund, eller 0 for ingen begrensning. Inntil ett
+     *                              sekunds kvote kan brukes på én gang etter en periode uten forespørsler.
+     */
+    AdmissionController(int foresporslerPerSekund, Map<Prioritet, Integer> maksPaagaaende, long maksVentetidNanos, LongSupplier nanoTime, Metrics metrics) {
+        this.foresporslerPerNanosekund = foresporslerPerSekund > 0 ? foresporslerPerSekund / 1e9 : Double.POSITIVE_INFINITY;
+        this.maksTokens = Math.max(1, foresporslerPerSekund);
+        this.maksPaagaaende = new EnumMap<>(maksPaagaaende);
+        this.maksVentetidNanos = maksVentetidNanos;
+        this.nanoTime = nanoTime;
+        this.metrics = metrics;
+        for (Prioritet prioritet : Prioritet.values()) {
+            koeer.put(prioritet, new ArrayDeque<>());
+            tellere.put(prioritet, new Teller());
+        }
+        this.tokens = maksTokens;
+        this.sistFylt = nanoTime.getAsLong();
+    }
+
+    /**
+     * Venter til forespørselen kan slippe til. Hver forespørsel som slipper til må følges av {@link #ferdig(Prioritet)}.
+     *
+     * @throws ForespoerselAvvistException dersom forespørselen ikke slapp til innen maks ventetid.
+     */
+    public void slippInn(Prioritet prioritet) {
+        Deque<Object> koe = koeer.get(prioritet);
+        Teller teller = tellere.get(prioritet);
+        Object venter = new Object();
+        long start = nanoTime.getAsLong();
+
+        long ventetid;
+        ForespoerselAvvistException avvist = null;
+        lock.lock();
+        try {
+            koe.addLast(venter);
+            while (true) {
+                ventetid = nanoTime.getAsLong() - start;
+                long tilNesteToken = kanSlippeInn(prioritet, venter);
+                if (tilNesteToken == 0) {
+                    koe.removeFirst();
+                    tokens -= 1;
+                    teller.paagaaende++;
+                    teller.sluppetInn++;
+                    teller.registrerVentetid(ventetid);
+                    endret.signalAll();
+                    break;
+                }
+                long gjenstaar = maksVentetidNanos - ventetid;
+                if (gjenstaar <= 0) {
+                    koe.remove(venter);
+                    teller.avvist++;
+                    teller.registrerVentetid(ventetid);
+                    endret.signalAll();
+                    avvist = new ForespoerselAvvistException("Forespørsel med prioritet " + prioritet + " slapp ikke til innen " +
+                            TimeUnit.NANOSECONDS.toMillis(maksVentetidNanos) + " ms. " + teller.paagaaende + " forespørsler med samme prioritet pågår.");
+                    break;
+                }
+                try {
+                    endret.awaitNanos(tilNesteToken > 0 ? Math.min(tilNesteToken, gjenstaar) : gjenstaar);
+                } catch (InterruptedException e) {
+                    koe.remove(venter);
+                    endret.signalAll();
+                    Thread.currentThread().interrupt();
+                    throw new ForespoerselAvvistException("Ble avbrutt mens forespørsel med prioritet " + prioritet + " ventet på å slippe til");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Metrics kalles utenfor låsen, slik at en treg eller feilende implementasjon ikke holder igjen andre forespørsler.
+        if (avvist != null) {
+            metrics.avvist(prioritet, ventetid);
+            throw avvist;
+        }
+        metrics.sluppetInn(prioritet, ventetid);
+    }
+
+    public void ferdig(Prioritet prioritet) {
+        lock.lock();
+        try {
+            tellere.get(prioritet).paagaaende--;
+            endret.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public AdmissionStatistics statistikk() {
+        Map<Prioritet, AdmissionStatistics.Tall> tall = new EnumMap<>(Prioritet.class);
+        lock.lock();
+        try {
+            for (Prioritet prioritet : Prioritet.values()) {
+                Teller teller = tellere.get(prioritet);
+                tall.put(prioritet, new AdmissionStatistics.Tall(teller.sluppetInn, teller.avvist, teller.ventetidNanos,
+                        teller.lengsteVentetidNanos, teller.paagaaende, koeer.get(prioritet).size()));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new AdmissionStatistics(tall);
+    }
+
+    /**
+     * @return 0 dersom forespørselen kan slippe inn nå, antall nanosekunder til neste token dersom den kun venter på
+     *         token, og -1 dersom den venter på at andre forespørsler blir ferdige.
+     */
+    private long kanSlippeInn(Prioritet prioritet, Object venter) {
+        if (!harKapasitet(prioritet) || koeer.get(prioritet).peekFirst() != venter) {
+            return -1;
+        }
+        if (prioritet == Prioritet.NORMAL && !koeer.get(Prioritet.PRIORITERT).isEmpty() && harKapasitet(Prioritet.PRIORITERT)) {
+            // En prioritert forespørsel venter kun på token, og skal få det før normale forespørsler.
+            return -1;
+        }
+        fyllTokens();
+        if (tokens >= 1) {
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / foresporslerPerNanosekund));
+    }
+
+    private boolean harKapasitet(Prioritet prioritet) {
+        return tellere.get(prioritet).paagaaende < maksPaagaaende.get(prioritet);
+    }
+
+    private void fyllTokens() {
+        if (Double.isInfinite(foresporslerPerNanosekund)) {
+            tokens = maksTokens;
+            return;
+        }
+        long naa = nanoTime.getAsLong();
+        tokens = Math.min(maksTokens, tokens + (naa - sistFylt) * foresporslerPerNanosekund);
+        sistFylt = naa;
+    }
+
+    private static final class Teller {
+        long sluppetInn;
+        long avvist;
+        long ventetidNanos;
+        long lengsteVentetidNanos;
+        int paagaaende;
+
+        void registrerVentetid(long nanos) {
+            ventetidNanos += nanos;
+            lengsteVentetidNanos = Math.max(lengsteVentetidNanos, nanos);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package no.difi.sdp.client2.internal;
+
+import no.digipost.api.representations.Dokumentpakke;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Kryptert dokumentpakke som leses fra en {@link SpillBuffer} i stedet for en byte-array. Både SHA-256 og innholdet
+ * som sendes strømmes fra bufferet, slik at pakken aldri trenger å ligge i sin helhet i minnet.
+ * <p>
+ * Må lukkes når sendingen er ferdig, for å slette eventuell midlertidig fil.
+ */
+class BufferedDokumentpakke extends Dokumentpakke implements Closeable {
+
+    private final SpillBuffer buffer;
+
+    BufferedDokumentpakke(SpillBuffer buffer) {
+        super((InputStream) null);
+        this.buffer = buffer;
+    }
+
+    @Override
+    public byte[] getSHA256() throws IOException {
+        MessageDigest digest = getDigest();
+        try (InputStream content = buffer.openStream()) {
+            return DigestUtils.updateDigest(digest, content).digest();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return buffer.openStream();
+    }
+
+    long getSize() {
+        return buffer.size();
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+}
@@ -0,0 +1,165 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.CircuitBreakerListener.Operasjon;
+import no.difi.sdp.client2.CircuitBreakerListener.Tilstand;
+import no.difi.sdp.client2.CircuitBreakerPolicy;
+import no.difi.sdp.client2.domain.exceptions.MeldingsformidlerUtilgjengeligException;
+
+import java.net.URI;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for én type forespørsel mot ett endepunkt, etter reglene i {@link CircuitBreakerPolicy}. Utfallet av
+ * de siste forespørslene holdes i en ringbuffer, og tilstanden endres kun når en forespørsel slippes inn eller
+ * registreres. Lytteren varsles etter at tilstanden er endret, utenfor låsen.
+ * <p>
+ * Hver tilstandsendring starter en ny generasjon. Forespørsler får med seg generasjonen de ble sluppet inn i, og
+ * utfallet av forespørsler fra en tidligere generasjon ignoreres. En forespørsel som ble sluppet inn før circuit
+ * breakeren åpnet, og som svarer sent, telles dermed ikke som en prøve når den er halvåpen.
+ */
+final class CircuitBreaker {
+
+    private static final int FEIL = 1;
+    private static final int TREG = 2;
+
+    private final URI endepunkt;
+    private final Operasjon operasjon;
+    private final CircuitBreakerPolicy policy;
+    private final LongSupplier nanoTime;
+
+    private final int[] utfall;
+    private int neste;
+    private int antall;
+    private int antallFeil;
+    private int antallTrege;
+
+    private Tilstand tilstand = Tilstand.LUKKET;
+    private long generasjon;
+    private long aapnet;
+    private int proeverSluppetInn;
+    private int proeverOk;
+
+    CircuitBreaker(URI endepunkt, Operasjon operasjon, CircuitBreakerPolicy policy, LongSupplier nanoTime) {
+        this.endepunkt = endepunkt;
+        this.operasjon = operasjon;
+        this.policy = policy;
+        this.nanoTime = nanoTime;
+        this.utfall = new int[policy.getVindu()];
+    }
+
+    /**
+     * @return generasjonen forespørselen ble sluppet inn i, som gis tilbake til {@link #registrer(long, boolean, long)}
+     *         eller {@link #avbrutt(long)}.
+     * @throws MeldingsformidlerUtilgjengeligException dersom circuit breakeren er åpen, eller alle prøver er sluppet inn.
+     */
+    long slippInn() {
+        Tilstand fra;
+        Tilstand til;
+        long sluppetInn;
+        synchronized (this) {
+            fra = tilstand;
+            if (tilstand == Tilstand.AAPEN) {
+                if (nanoTime.getAsLong() - aapnet < policy.getAapenVentetid().toNanos()) {
+                    throw utilgjengelig();
+                }
+                tilstand = Tilstand.HALVAAPEN;
+                generasjon++;
+                proeverSluppetInn = 0;
+                proeverOk = 0;
+            }
+            if (tilstand == Tilstand.HALVAAPEN) {
+                if (proeverSluppetInn >= policy.getAntallProever()) {
+                    throw utilgjengelig();
+                }
+                proeverSluppetInn++;
+            }
+            til = tilstand;
+            sluppetInn = generasjon;
+        }
+        varsle(fra, til);
+        return sluppetInn;
+    }
+
+    /**
+     * Forespørselen som ble sluppet inn, ble aldri sendt, eller fikk ikke noe utfall. En prøve kan da slippes inn i
+     * stedet.
+     */
+    synchronized void avbrutt(long sluppetInn) {
+        if (sluppetInn == generasjon && tilstand == Tilstand.HALVAAPEN) {
+            proeverSluppetInn--;
+        }
+    }
+
+    void registrer(long sluppetInn, boolean feilet, long varighetNanos) {
+        boolean treg = varighetNanos >= policy.getTregForespoersel().toNanos();
+        Tilstand fra;
+        Tilstand til;
+        synchronized (this) {
+            if (sluppetInn != generasjon) {
+                // Sluppet inn før siste tilstandsendring, og sier ikke noe om tilstanden nå.
+                return;
+            }
+            fra = tilstand;
+            if (tilstand == Tilstand.HALVAAPEN) {
+                if (feilet || treg) {
+                    aapne();
+                } else if (++proeverOk >= policy.getAntallProever()) {
+                    tilstand = Tilstand.LUKKET;
+                    generasjon++;
+                    nullstill();
+                }
+            } else if (tilstand == Tilstand.LUKKET) {
+                leggTil((feilet ? FEIL : 0) | (treg ? TREG : 0));
+                if (antall >= policy.getMinimumAntall()
+                        && (antallFeil >= policy.getFeilrate() * antall || antallTrege >= policy.getTregRate() * antall)) {
+                    aapne();
+                }
+            }
+            til = tilstand;
+        }
+        varsle(fra, til);
+    }
+
+    synchronized Tilstand getTilstand() {
+        return tilstand;
+    }
+
+    private void aapne() {
+        tilstand = Tilstand.AAPEN;
+        generasjon++;
+        aapnet = nanoTime.getAsLong();
+        nullstill();
+    }
+
+    private void leggTil(int nytt) {
+        if (antall == utfall.length) {
+            int gammelt = utfall[neste];
+            antallFeil -= gammelt & FEIL;
+            antallTrege -= (gammelt & TREG) >> 1;
+        } else {
+            antall++;
+        }
+        utfall[neste] = nytt;
+        antallFeil += nytt & FEIL;
+        antallTrege += (nytt & TREG) >> 1;
+        neste = (neste + 1) % utfall.length;
+    }
+
+    private void nullstill() {
+        neste = 0;
+        antall = 0;
+        antallFeil = 0;
+        antallTrege = 0;
+    }
+
+    private void varsle(Tilstand fra, Tilstand til) {
+        if (fra != til) {
+            policy.getLytter().tilstandEndret(endepunkt, operasjon, fra, til);
+        }
+    }
+
+    private MeldingsformidlerUtilgjengeligException utilgjengelig() {
+        return new MeldingsformidlerUtilgjengeligException("Sender ikke " + operasjon + " til " + endepunkt +
+                ", fordi for mange av de siste forespørslene har feilet eller vært trege. Prøver igjen etter " + policy.getAapenVentetid() + ".");
+    }
+}
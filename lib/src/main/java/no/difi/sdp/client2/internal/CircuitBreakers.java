@@ -0,0 +1,68 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.CircuitBreakerListener.Operasjon;
+import no.difi.sdp.client2.CircuitBreakerListener.Tilstand;
+import no.difi.sdp.client2.CircuitBreakerPolicy;
+import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
+
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.KLIENT;
+
+/**
+ * Én {@link CircuitBreaker} per {@link Operasjon} mot ett endepunkt. Med {@link CircuitBreakerPolicy#INGEN} slipper
+ * alle forespørsler gjennom uten at noe telles.
+ */
+public final class CircuitBreakers {
+
+    private final Map<Operasjon, CircuitBreaker> circuitBreakers = new EnumMap<>(Operasjon.class);
+
+    public static CircuitBreakers fra(KlientKonfigurasjon klientKonfigurasjon) {
+        return new CircuitBreakers(klientKonfigurasjon.getMeldingsformidlerRoot().getBaseUri(), klientKonfigurasjon.getCircuitBreakerPolicy(), System::nanoTime);
+    }
+
+    CircuitBreakers(URI endepunkt, CircuitBreakerPolicy policy, LongSupplier nanoTime) {
+        if (policy.isAktiv()) {
+            for (Operasjon operasjon : Operasjon.values()) {
+                circuitBreakers.put(operasjon, new CircuitBreaker(endepunkt, operasjon, policy, nanoTime));
+            }
+        }
+    }
+
+    /**
+     * @return generasjonen forespørselen ble sluppet inn i, som gis tilbake når utfallet registreres.
+     */
+    long slippInn(Operasjon operasjon) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(operasjon);
+        return circuitBreaker != null ? circuitBreaker.slippInn() : 0;
+    }
+
+    void avbrutt(Operasjon operasjon, long sluppetInn) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(operasjon);
+        if (circuitBreaker != null) {
+            circuitBreaker.avbrutt(sluppetInn);
+        }
+    }
+
+    /**
+     * @param sluppetInn generasjonen fra {@link #slippInn(Operasjon)}.
+     * @param feil       {@code null} dersom forespørselen gikk bra.
+     */
+    void registrer(Operasjon operasjon, long sluppetInn, SikkerDigitalPostException feil, long varighetNanos) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(operasjon);
+        if (circuitBreaker != null) {
+            boolean feilet = feil != null && !(feil instanceof SendException && ((SendException) feil).getAntattSkyldig() == KLIENT);
+            circuitBreaker.registrer(sluppetInn, feilet, varighetNanos);
+        }
+    }
+
+    public Tilstand getTilstand(Operasjon operasjon) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(operasjon);
+        return circuitBreaker != null ? circuitBreaker.getTilstand() : Tilstand.LUKKET;
+    }
+}
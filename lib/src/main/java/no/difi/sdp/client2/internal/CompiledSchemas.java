@@ -0,0 +1,63 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.domain.exceptions.KonfigurasjonException;
+import no.digipost.api.xml.Schemas;
+import org.springframework.core.io.Resource;
+import org.springframework.xml.validation.SchemaLoaderUtils;
+import org.springframework.xml.validation.XmlValidatorFactory;
+import org.xml.sax.SAXException;
+
+import javax.xml.validation.Schema;
+
+import java.io.IOException;
+
+/**
+ * Kompilerte XSD-schemaer, delt av alle klienter i JVM-en. Et {@link Schema} er trådsikkert, og hvert schema
+ * kompileres først når det brukes første gang.
+ */
+public final class CompiledSchemas {
+
+    /**
+     * Alle SDP-schemaer, for validering av meldinger til og fra meldingsformidler.
+     */
+    public static Schema alle() {
+        return Alle.SCHEMA;
+    }
+
+    /**
+     * Schema for signature.xml i ASiC-E.
+     */
+    public static Schema asice() {
+        return Asice.SCHEMA;
+    }
+
+    /**
+     * Schema for manifest.xml i dokumentpakken.
+     */
+    public static Schema manifest() {
+        return Manifest.SCHEMA;
+    }
+
+    private static final class Alle {
+        static final Schema SCHEMA = load(Schemas.allSchemaResources());
+    }
+
+    private static final class Asice {
+        static final Schema SCHEMA = load(Schemas.ASICE_SCHEMA);
+    }
+
+    private static final class Manifest {
+        static final Schema SCHEMA = load(Schemas.SDP_MANIFEST_SCHEMA);
+    }
+
+    private static Schema load(Resource... schemas) {
+        try {
+            return SchemaLoaderUtils.loadSchema(schemas, XmlValidatorFactory.SCHEMA_W3C_XML);
+        } catch (IOException | SAXException e) {
+            throw new KonfigurasjonException("Kunne ikke laste schema for validering, fordi " + e.getClass().getSimpleName() + ": '" + e.getMessage() + "'", e);
+        }
+    }
+
+    private CompiledSchemas() {
+    }
+}
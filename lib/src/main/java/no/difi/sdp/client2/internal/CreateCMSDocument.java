@@ -14,6 +14,7 @@ import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.cms.CMSAlgorithm;
 import org.bouncycastle.cms.CMSEnvelopedData;
 import org.bouncycastle.cms.CMSEnvelopedDataGenerator;
+import org.bouncycastle.cms.CMSEnvelopedDataStreamGenerator;
 import org.bouncycastle.cms.CMSException;
 import org.bouncycastle.cms.CMSProcessableByteArray;
 import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
@@ -22,6 +23,7 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.OutputEncryptor;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.Security;
 import java.security.cert.CertificateEncodingException;
 
@@ -47,15 +49,11 @@ public class CreateCMSDocument {
 
     public CMSDocument createCMS(byte[] bytes, Sertifikat sertifikat) {
         try {
-            JceKeyTransRecipientInfoGenerator recipientInfoGenerator = new JceKeyTransRecipientInfoGenerator(sertifikat.getX509Certificate(), keyEncryptionScheme)
-                    .setProvider(BouncyCastleProvider.PROVIDER_NAME);
-
             CMSEnvelopedDataGenerator envelopedDataGenerator = new CMSEnvelopedDataGenerator();
-            envelopedDataGenerator.addRecipientInfoGenerator(recipientInfoGenerator);
+            envelopedDataGenerator.addRecipientInfoGenerator(recipientInfoGenerator(sertifikat));
 
-            OutputEncryptor contentEncryptor = new JceCMSContentEncryptorBuilder(cmsEncryptionAlgorithm).build();
             CMSEnvelopedData cmsData = envelopedDataGenerator.generate(new CMSProcessableByteArray(bytes),
-                    contentEncryptor);
+                    contentEncryptor());
 
             return new CMSDocument(cmsData.getEncoded());
 
@@ -67,4 +65,34 @@ public class CreateCMSDocument {
             throw new RuntimeIOException(e);
         }
     }
+
+    /**
+     * Strømmende variant av {@link #createCMS(byte[], Sertifikat)}. Innholdet som skrives til den returnerte strømmen
+     * krypteres og skrives fortløpende til {@code target}, slik at verken klartekst eller kryptert innhold holdes i
+     * minnet. CMS-strukturen er ikke komplett før den returnerte strømmen er lukket. {@code target} lukkes ikke.
+     */
+    public OutputStream createCMS(OutputStream target, Sertifikat sertifikat) {
+        try {
+            CMSEnvelopedDataStreamGenerator envelopedDataGenerator = new CMSEnvelopedDataStreamGenerator();
+            envelopedDataGenerator.addRecipientInfoGenerator(recipientInfoGenerator(sertifikat));
+
+            return envelopedDataGenerator.open(target, contentEncryptor());
+
+        } catch (CertificateEncodingException e) {
+            throw new KonfigurasjonException("Feil med mottakers sertifikat", e);
+        } catch (CMSException e) {
+            throw new KonfigurasjonException("Kunne ikke generere Cryptographic Message Syntax for dokumentpakke", e);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private JceKeyTransRecipientInfoGenerator recipientInfoGenerator(Sertifikat sertifikat) throws CertificateEncodingException {
+        return new JceKeyTransRecipientInfoGenerator(sertifikat.getX509Certificate(), keyEncryptionScheme)
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME);
+    }
+
+    private OutputEncryptor contentEncryptor() throws CMSException {
+        return new JceCMSContentEncryptorBuilder(cmsEncryptionAlgorithm).build();
+    }
 }
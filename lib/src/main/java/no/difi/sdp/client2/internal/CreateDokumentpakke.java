@@ -1,37 +1,180 @@
 package no.difi.sdp.client2.internal;
 
+import no.difi.sdp.client2.CompressionPolicy;
+import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.Metrics;
 import no.difi.sdp.client2.asice.ArchivedASiCE;
 import no.difi.sdp.client2.asice.CreateASiCE;
+import no.difi.sdp.client2.asice.DocumentSource;
 import no.difi.sdp.client2.domain.Databehandler;
 import no.difi.sdp.client2.domain.Forsendelse;
 import no.difi.sdp.client2.domain.Sertifikat;
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
 import no.digipost.api.representations.Dokumentpakke;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.difi.sdp.client2.Metrics.Steg.KRYPTERING;
+
 public class CreateDokumentpakke {
 
     private final CreateASiCE createASiCE;
     private final CreateCMSDocument createCMS;
+    private final int bufferSize;
+    private final File tempDirectory;
+    private final Metrics metrics;
 
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     public CreateDokumentpakke() {
-        createASiCE = new CreateASiCE();
-        createCMS = new CreateCMSDocument();
+        this(XmlValidering.ALLTID, 0, null, Metrics.INGEN, null, CompressionPolicy.STANDARD);
+    }
+
+    /**
+     * @see KlientKonfigurasjon.Builder#dokumentpakkeBufferSize(int)
+     * @see KlientKonfigurasjon.Builder#xmlValidering(no.difi.sdp.client2.domain.Valideringsmodus, int)
+     * @see KlientKonfigurasjon.Builder#metrics(Metrics)
+     * @see KlientKonfigurasjon.Builder#parallellZipping(ForkJoinPool)
+     * @see KlientKonfigurasjon.Builder#compressionPolicy(CompressionPolicy)
+     */
+    public CreateDokumentpakke(KlientKonfigurasjon klientKonfigurasjon) {
+        this(XmlValidering.fra(klientKonfigurasjon), klientKonfigurasjon.getDokumentpakkeBufferSize(), klientKonfigurasjon.getTempDirectory(), klientKonfigurasjon.getMetrics(),
+                klientKonfigurasjon.getParallellZipping(), klientKonfigurasjon.getCompressionPolicy());
+    }
+
+    private CreateDokumentpakke(XmlValidering xmlValidering, int bufferSize, File tempDirectory, Metrics metrics, ForkJoinPool parallellZipping,
+                                CompressionPolicy compressionPolicy) {
+        this.createASiCE = new CreateASiCE(xmlValidering, metrics, parallellZipping, compressionPolicy);
+        this.createCMS = new CreateCMSDocument();
+        this.bufferSize = bufferSize;
+        this.tempDirectory = tempDirectory;
+        this.metrics = metrics;
     }
 
+    /**
+     * Dersom strømming er konfigurert, er den returnerte dokumentpakken {@link Closeable}, og må lukkes etter sending
+     * for å slette eventuell midlertidig fil.
+     */
     public Billable<Dokumentpakke> createDokumentpakke(Databehandler databehandler, Forsendelse forsendelse) {
+        if (bufferSize > 0) {
+            return createStreamingDokumentpakke(databehandler, forsendelse);
+        }
+        ArchivedASiCE archivedASiCE = createAsice(databehandler, forsendelse);
+        return createDokumentpakke(archivedASiCE, forsendelse.getTekniskMottaker().sertifikat);
+    }
+
+    private Billable<Dokumentpakke> createStreamingDokumentpakke(Databehandler databehandler, Forsendelse forsendelse) {
+        log.info("Creating streaming dokumentpakke");
+        return encryptToBuffer(forsendelse.getTekniskMottaker().sertifikat, cms -> createASiCE.createAsice(databehandler, forsendelse, cms));
+    }
+
+    /**
+     * Første, ukrypterte del av dokumentpakken: manifest, signatur og zip.
+     * <p>
+     * Dersom strømming er konfigurert, holdes arkivet i minnet bare opp til samme størrelse som den krypterte pakken,
+     * og større arkiv mellomlagres i en midlertidig fil. Arkivet må da lukkes etter kryptering for å slette filen.
+     */
+    public ArchivedASiCE createAsice(Databehandler databehandler, Forsendelse forsendelse) {
         log.info("Creating dokumentpakke");
-        ArchivedASiCE archivedASiCE = createASiCE.createAsice(databehandler, forsendelse);
-        Sertifikat mottakerSertifikat = forsendelse.getTekniskMottaker().sertifikat;
+        if (bufferSize > 0) {
+            return createBufferedAsice(databehandler, forsendelse);
+        }
+        return createASiCE.createAsice(databehandler, forsendelse);
+    }
 
+    private ArchivedASiCE createBufferedAsice(Databehandler databehandler, Forsendelse forsendelse) {
+        SpillBuffer buffer = new SpillBuffer(bufferSize, tempDirectory);
+        try {
+            long unzippedContentBytesCount;
+            try (OutputStream archive = buffer.getOutputStream()) {
+                unzippedContentBytesCount = createASiCE.createAsice(databehandler, forsendelse, archive);
+            }
+            log.debug("ASiC-E is {} bytes, buffered {}", buffer.size(), buffer.isInMemory() ? "in memory" : "to temporary file");
+            return new ArchivedASiCE(new SpillBufferSource(buffer), unzippedContentBytesCount, buffer);
+        } catch (IOException e) {
+            buffer.close();
+            throw new RuntimeIOException(e);
+        } catch (RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Andre del av dokumentpakken: kryptering av en allerede signert og zippet ASiC-E til mottakers sertifikat.
+     */
+    public Billable<Dokumentpakke> createDokumentpakke(ArchivedASiCE archivedASiCE, Sertifikat mottakerSertifikat) {
         log.info("Creating CMS document");
+        long start = System.nanoTime();
+        if (bufferSize > 0) {
+            Billable<Dokumentpakke> dokumentpakke = encryptToBuffer(mottakerSertifikat, cms -> {
+                try (InputStream archive = archivedASiCE.openStream()) {
+                    IOUtils.copyLarge(archive, cms);
+                }
+                return archivedASiCE.getUnzippedContentBytesCount();
+            });
+            metrics.tid(KRYPTERING, System.nanoTime() - start);
+            return dokumentpakke;
+        }
         CMSDocument cms = createCMS.createCMS(archivedASiCE.getBytes(), mottakerSertifikat);
+        metrics.tid(KRYPTERING, System.nanoTime() - start);
 
         Dokumentpakke dokumentpakke = new Dokumentpakke(cms.getBytes());
 
         return new Billable<>(dokumentpakke, archivedASiCE.getUnzippedContentBytesCount());
     }
 
+    private Billable<Dokumentpakke> encryptToBuffer(Sertifikat mottakerSertifikat, AsicEWriter asicEWriter) {
+        SpillBuffer buffer = new SpillBuffer(bufferSize, tempDirectory);
+        try {
+            long unzippedContentBytesCount;
+            try (OutputStream bufferOutput = buffer.getOutputStream();
+                 OutputStream cms = createCMS.createCMS(bufferOutput, mottakerSertifikat)) {
+                unzippedContentBytesCount = asicEWriter.writeTo(cms);
+            }
+            log.debug("Encrypted dokumentpakke is {} bytes, buffered {}", buffer.size(), buffer.isInMemory() ? "in memory" : "to temporary file");
+            return new Billable<>(new BufferedDokumentpakke(buffer), unzippedContentBytesCount);
+        } catch (IOException e) {
+            buffer.close();
+            throw new RuntimeIOException(e);
+        } catch (RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+    }
+
+    private static final class SpillBufferSource implements DocumentSource {
+
+        private final SpillBuffer buffer;
+
+        SpillBufferSource(SpillBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return buffer.openStream();
+        }
+
+        @Override
+        public long size() {
+            return buffer.size();
+        }
+    }
+
+    @FunctionalInterface
+    private interface AsicEWriter {
+        /**
+         * @return antall bytes i filene før zipping.
+         */
+        long writeTo(OutputStream asicE) throws IOException;
+    }
 }
@@ -1,10 +1,14 @@
 package no.difi.sdp.client2.internal;
 
+import no.difi.sdp.client2.CircuitBreakerListener.Operasjon;
 import no.difi.sdp.client2.ExceptionMapper;
 import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.Metrics;
 import no.difi.sdp.client2.domain.Databehandler;
+import no.difi.sdp.client2.domain.Prioritet;
 import no.difi.sdp.client2.domain.exceptions.KonfigurasjonException;
 import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
 import no.difi.sdp.client2.domain.exceptions.XmlValideringException;
 import no.digipost.api.MessageSender;
 import no.digipost.api.interceptors.KeyStoreInfo;
@@ -13,31 +17,61 @@ import no.digipost.api.interceptors.WsSecurityInterceptor;
 import no.digipost.api.representations.EbmsAktoer;
 import no.digipost.api.representations.EbmsApplikasjonsKvittering;
 import no.digipost.api.representations.EbmsForsendelse;
+import no.digipost.api.representations.EbmsOutgoingMessage;
 import no.digipost.api.representations.EbmsPullRequest;
 import no.digipost.api.representations.KanBekreftesSomBehandletKvittering;
 import no.digipost.api.representations.Organisasjonsnummer;
 import no.digipost.api.representations.TransportKvittering;
-import no.digipost.api.xml.Schemas;
 import org.apache.http.HttpRequestInterceptor;
 import org.springframework.ws.client.core.WebServiceTemplate;
 import org.springframework.ws.client.support.interceptor.ClientInterceptor;
 import org.springframework.ws.client.support.interceptor.PayloadValidatingInterceptor;
 import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.transport.WebServiceMessageSender;
+import org.springframework.ws.transport.http.HttpComponentsMessageSender;
 import org.xml.sax.SAXParseException;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.function.Supplier;
 
+import static no.difi.sdp.client2.CircuitBreakerListener.Operasjon.BEKREFT;
+import static no.difi.sdp.client2.CircuitBreakerListener.Operasjon.HENT_KVITTERING;
+import static no.difi.sdp.client2.CircuitBreakerListener.Operasjon.SEND;
 import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.KLIENT;
 import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.SERVER;
 
 public class DigipostMessageSenderFacade {
 
     private final MessageSender messageSender;
+    private final XmlValidering requestValidering;
+    private final XmlValidering responseValidering;
+    private final AdmissionController admissionController;
+    private final CircuitBreakers circuitBreakers;
+    private final Metrics metrics;
     private ExceptionMapper exceptionMapper = new ExceptionMapper();
 
 
     public DigipostMessageSenderFacade(final Databehandler databehandler, final KlientKonfigurasjon klientKonfigurasjon) {
+        this(databehandler, klientKonfigurasjon, null, AdmissionController.fra(klientKonfigurasjon), CircuitBreakers.fra(klientKonfigurasjon));
+    }
+
+    /**
+     * @param felles              delt forbindelse til meldingsformidler, som brukes i stedet for en egen connection-pool
+     *                            for denne avsenderen. Dersom {@code null} får avsenderen sin egen pool. Meldingene
+     *                            signeres uansett med nøkkelparet til {@code databehandler}.
+     * @param admissionController bestemmer når forespørsler slipper til, og deles av alle som bruker samme forbindelse.
+     * @param circuitBreakers     stopper forespørsler når meldingsformidler har problemer, og deles på samme måte.
+     */
+    public DigipostMessageSenderFacade(final Databehandler databehandler, final KlientKonfigurasjon klientKonfigurasjon, final WebServiceMessageSender felles,
+                                       final AdmissionController admissionController, final CircuitBreakers circuitBreakers) {
+        this.admissionController = admissionController;
+        this.circuitBreakers = circuitBreakers;
+        this.metrics = klientKonfigurasjon.getMetrics();
+        this.requestValidering = XmlValidering.forRequest(klientKonfigurasjon);
+        this.responseValidering = XmlValidering.forResponse(klientKonfigurasjon);
+
         KeyStoreInfo keyStoreInfo = databehandler.noekkelpar.getKeyStoreInfo();
         WsSecurityInterceptor wsSecurityInterceptor = new WsSecurityInterceptor(keyStoreInfo, new Wss4jClientSecurityExceptionMapper());
         wsSecurityInterceptor.afterPropertiesSet();
@@ -73,40 +107,97 @@ public class DigipostMessageSenderFacade {
         }
 
         messageSender = messageSenderBuilder.build();
+        if (felles != null) {
+            brukFellesMessageSender(messageSender.getMeldingTemplate(), felles);
+        }
+    }
+
+    private static void brukFellesMessageSender(WebServiceTemplate meldingTemplate, WebServiceMessageSender felles) {
+        // MessageSender.Builder lager alltid sin egen connection-pool, som lukkes igjen siden den ikke skal brukes.
+        for (WebServiceMessageSender egen : meldingTemplate.getMessageSenders()) {
+            if (egen instanceof HttpComponentsMessageSender && ((HttpComponentsMessageSender) egen).getHttpClient() instanceof Closeable) {
+                try {
+                    ((Closeable) ((HttpComponentsMessageSender) egen).getHttpClient()).close();
+                } catch (IOException e) {
+                    throw new KonfigurasjonException("Kunne ikke lukke ubrukt connection-pool", e);
+                }
+            }
+        }
+        meldingTemplate.setMessageSender(felles);
     }
 
     public TransportKvittering send(final EbmsForsendelse ebmsForsendelse) {
-        return performRequest(() -> messageSender.send(ebmsForsendelse));
+        return performRequest(prioritet(ebmsForsendelse), SEND, () -> messageSender.send(ebmsForsendelse));
     }
 
     public EbmsApplikasjonsKvittering hentKvittering(final EbmsPullRequest ebmsPullRequest) {
-        return performRequest(() -> messageSender.hentKvittering(ebmsPullRequest));
+        return performRequest(prioritet(ebmsPullRequest), HENT_KVITTERING, () -> messageSender.hentKvittering(ebmsPullRequest));
     }
 
     public EbmsApplikasjonsKvittering hentKvittering(final EbmsPullRequest ebmsPullRequest, final KanBekreftesSomBehandletKvittering applikasjonsKvittering) {
-        return performRequest(() -> messageSender.hentKvittering(ebmsPullRequest, applikasjonsKvittering));
+        return performRequest(prioritet(ebmsPullRequest), HENT_KVITTERING, () -> messageSender.hentKvittering(ebmsPullRequest, applikasjonsKvittering));
     }
 
     public void bekreft(final KanBekreftesSomBehandletKvittering kanBekreftesSomBehandletKvittering) {
-        performRequest(() -> messageSender.bekreft(kanBekreftesSomBehandletKvittering));
+        // Bekreftelser er små, og må gjøres før meldingsformidler gir ut neste kvittering fra køen.
+        performRequest(Prioritet.PRIORITERT, BEKREFT, () -> messageSender.bekreft(kanBekreftesSomBehandletKvittering));
 
     }
 
-    private void performRequest(final Runnable request) {
-        this.performRequest(() -> {
+    private void performRequest(final Prioritet prioritet, final Operasjon operasjon, final Runnable request) {
+        this.performRequest(prioritet, operasjon, () -> {
             request.run();
             return null;
         });
     }
 
-    private <T> T performRequest(final Supplier<T> request) throws SendException {
+    private <T> T performRequest(final Prioritet prioritet, final Operasjon operasjon, final Supplier<T> request) throws SendException {
+        Metrics.Steg steg = Metrics.Steg.valueOf(operasjon.name());
+        long sluppetInn;
+        try {
+            sluppetInn = circuitBreakers.slippInn(operasjon);
+            try {
+                admissionController.slippInn(prioritet);
+            } catch (RuntimeException e) {
+                circuitBreakers.avbrutt(operasjon, sluppetInn);
+                throw e;
+            }
+        } catch (SikkerDigitalPostException e) {
+            metrics.feil(steg, e);
+            throw e;
+        }
+        long start = System.nanoTime();
+        boolean registrert = false;
         try {
-            return request.get();
+            T resultat = request.get();
+            long varighet = System.nanoTime() - start;
+            circuitBreakers.registrer(operasjon, sluppetInn, null, varighet);
+            registrert = true;
+            metrics.tid(steg, varighet);
+            return resultat;
         } catch (RuntimeException e) {
-            throw exceptionMapper.mapException(e);
+            SikkerDigitalPostException mapped = mapException(e);
+            circuitBreakers.registrer(operasjon, sluppetInn, mapped, System.nanoTime() - start);
+            registrert = true;
+            metrics.feil(steg, mapped);
+            throw mapped;
+        } finally {
+            if (!registrert) {
+                // F.eks. en Error fra forespørselen. En prøve må gis tilbake, ellers blir circuit breakeren stående halvåpen.
+                circuitBreakers.avbrutt(operasjon, sluppetInn);
+            }
+            admissionController.ferdig(prioritet);
         }
     }
 
+    private static Prioritet prioritet(final EbmsOutgoingMessage melding) {
+        return melding.prioritet == EbmsOutgoingMessage.Prioritet.PRIORITERT ? Prioritet.PRIORITERT : Prioritet.NORMAL;
+    }
+
+    public SikkerDigitalPostException mapException(final Exception e) {
+        return exceptionMapper.mapException(e);
+    }
+
     public void setExceptionMapper(final ExceptionMapper exceptionMapper) {
         this.exceptionMapper = exceptionMapper;
     }
@@ -118,6 +209,16 @@ public class DigipostMessageSenderFacade {
     protected ClientInterceptor payloadValidatingInterceptor() {
         try {
             PayloadValidatingInterceptor payloadValidatingInterceptor = new PayloadValidatingInterceptor() {
+                @Override
+                public boolean handleRequest(final MessageContext messageContext) {
+                    return !requestValidering.skalValidere() || super.handleRequest(messageContext);
+                }
+
+                @Override
+                public boolean handleResponse(final MessageContext messageContext) {
+                    return !responseValidering.skalValidere() || super.handleResponse(messageContext);
+                }
+
                 @Override
                 protected boolean handleRequestValidationErrors(final MessageContext messageContext, final SAXParseException[] errors) {
                     if (messageContext.hasResponse()) {
@@ -129,7 +230,7 @@ public class DigipostMessageSenderFacade {
 
                 }
             };
-            payloadValidatingInterceptor.setSchemas(Schemas.allSchemaResources());
+            payloadValidatingInterceptor.setXsdSchemaCollection(PayloadSchemaCollection.INSTANCE);
             payloadValidatingInterceptor.setValidateRequest(true);
             payloadValidatingInterceptor.setValidateResponse(true);
             payloadValidatingInterceptor.afterPropertiesSet();
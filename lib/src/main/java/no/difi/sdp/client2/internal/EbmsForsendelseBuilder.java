@@ -20,11 +20,22 @@ public class EbmsForsendelseBuilder {
     private final CreateDokumentpakke createDokumentpakke;
 
     public EbmsForsendelseBuilder() {
-        sdpBuilder = new SDPBuilder();
-        createDokumentpakke = new CreateDokumentpakke();
+        this(new CreateDokumentpakke());
+    }
+
+    public EbmsForsendelseBuilder(CreateDokumentpakke createDokumentpakke) {
+        this.sdpBuilder = new SDPBuilder();
+        this.createDokumentpakke = createDokumentpakke;
     }
 
     public Billable<EbmsForsendelse> buildEbmsForsendelse(Databehandler databehandler, Organisasjonsnummer meldingsformidler, Forsendelse forsendelse) {
+        return buildEbmsForsendelse(databehandler, meldingsformidler, forsendelse, createDokumentpakke.createDokumentpakke(databehandler, forsendelse));
+    }
+
+    /**
+     * Bygg forsendelse med en dokumentpakke som allerede er laget, f.eks. med {@link CreateDokumentpakke#createDokumentpakke(no.difi.sdp.client2.asice.ArchivedASiCE, no.difi.sdp.client2.domain.Sertifikat)}.
+     */
+    public Billable<EbmsForsendelse> buildEbmsForsendelse(Databehandler databehandler, Organisasjonsnummer meldingsformidler, Forsendelse forsendelse, Billable<Dokumentpakke> dokumentpakkeWithBillableBytes) {
         TekniskMottaker mottaker = forsendelse.getTekniskMottaker();
 
         EbmsAktoer ebmsAvsender = EbmsAktoer.avsender(databehandler.organisasjonsnummer.getOrganisasjonsnummer());
@@ -37,8 +48,6 @@ public class EbmsForsendelseBuilder {
         SDPDigitalPost sikkerDigitalPost = sdpBuilder.buildDigitalPost(forsendelse);
         StandardBusinessDocument standardBusinessDocument = StandardBusinessDocumentFactory.create(sbdhAvsender, sbdhMottaker, meldingsId, ZonedDateTime.now(), forsendelse.getKonversasjonsId(), sikkerDigitalPost);
 
-        Billable<Dokumentpakke> dokumentpakkeWithBillableBytes = createDokumentpakke.createDokumentpakke(databehandler, forsendelse);
-
         EbmsForsendelse ebmsForsendelse = EbmsForsendelse.create(ebmsAvsender, ebmsMottaker, sbdhMottaker, standardBusinessDocument, dokumentpakkeWithBillableBytes.entity)
                 .withPrioritet(forsendelse.getPrioritet().getEbmsPrioritet())
                 .withMpcId(forsendelse.getMpcId())
@@ -0,0 +1,39 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.domain.Avsender;
+import no.difi.sdp.client2.domain.Databehandler;
+import no.difi.sdp.client2.domain.Dokument;
+import no.difi.sdp.client2.domain.Dokumentpakke;
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.MetadataDokument;
+import no.difi.sdp.client2.domain.Mottaker;
+import no.difi.sdp.client2.domain.digital_post.DigitalPost;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Forsendelse som kun brukes til å varme opp bygging, signering og kryptering av dokumentpakker, og som aldri sendes.
+ * Dokumentpakken krypteres med databehandlerens eget sertifikat, slik at oppvarming ikke krever et oppslag mot
+ * Oppslagstjenesten.
+ */
+public final class Oppvarming {
+
+    public static Forsendelse forsendelse(Databehandler databehandler, KlientKonfigurasjon klientKonfigurasjon) {
+        Mottaker mottaker = Mottaker.builder("01129955131", "oppvarming", databehandler.noekkelpar.getVirksomhetssertifikat(), klientKonfigurasjon.getMeldingsformidlerOrganisasjon())
+                .build();
+
+        Dokument hoveddokument = Dokument.builder("Oppvarming", "oppvarming.pdf", "oppvarming".getBytes(StandardCharsets.UTF_8))
+                .mimeType("application/pdf")
+                .metadataDocument(new MetadataDokument("lenke.xml", "application/vnd.difi.dpi.lenke+xml", "<lenke></lenke>".getBytes(StandardCharsets.UTF_8)))
+                .build();
+
+        return Forsendelse.digital(Avsender.builder(databehandler.organisasjonsnummer.forfremTilAvsender()).build(), DigitalPost.builder(mottaker, "Oppvarming").build(), Dokumentpakke.builder(hoveddokument).build())
+                .konversasjonsId(UUID.randomUUID().toString())
+                .build();
+    }
+
+    private Oppvarming() {
+    }
+}
@@ -0,0 +1,90 @@
+package no.difi.sdp.client2.internal;
+
+import org.springframework.xml.validation.ValidationErrorHandler;
+import org.springframework.xml.validation.XmlValidationException;
+import org.springframework.xml.validation.XmlValidator;
+import org.springframework.xml.xsd.XsdSchema;
+import org.springframework.xml.xsd.XsdSchemaCollection;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.transform.Source;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gir {@link org.springframework.ws.client.support.interceptor.PayloadValidatingInterceptor} en validator for
+ * {@link CompiledSchemas#alle()} som er felles for alle klienter i JVM-en, i stedet for at hver interceptor laster og
+ * kompilerer alle schemaene på nytt.
+ */
+final class PayloadSchemaCollection implements XsdSchemaCollection {
+
+    static final PayloadSchemaCollection INSTANCE = new PayloadSchemaCollection();
+
+    private final XmlValidator validator = new PooledXmlValidator(new PooledValidator(CompiledSchemas.alle()));
+
+    private PayloadSchemaCollection() {
+    }
+
+    @Override
+    public XsdSchema[] getXsdSchemas() {
+        return new XsdSchema[0];
+    }
+
+    @Override
+    public XmlValidator createValidator() {
+        return validator;
+    }
+
+
+    private static final class PooledXmlValidator implements XmlValidator {
+
+        private final PooledValidator validator;
+
+        PooledXmlValidator(PooledValidator validator) {
+            this.validator = validator;
+        }
+
+        @Override
+        public SAXParseException[] validate(Source source) throws IOException {
+            return validate(source, null);
+        }
+
+        @Override
+        public SAXParseException[] validate(Source source, ValidationErrorHandler errorHandler) throws IOException {
+            ValidationErrorHandler handler = errorHandler != null ? errorHandler : new CollectingErrorHandler();
+            try {
+                validator.validate(source, handler);
+                return handler.getErrors();
+            } catch (SAXException e) {
+                throw new XmlValidationException("Could not validate source: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class CollectingErrorHandler implements ValidationErrorHandler {
+
+        private final List<SAXParseException> errors = new ArrayList<>();
+
+        @Override
+        public SAXParseException[] getErrors() {
+            return errors.toArray(new SAXParseException[0]);
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+        }
+
+        @Override
+        public void error(SAXParseException exception) {
+            errors.add(exception);
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) {
+            errors.add(exception);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package no.difi.sdp.client2.internal;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.Source;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Validerer mot et {@link Schema} med gjenbruk av {@link Validator}-instanser. En {@code Validator} er ikke trådsikker,
+ * så hver validering låner en ledig instans, eller lager en ny dersom alle er i bruk, og legger den tilbake etterpå.
+ * Poolen blir dermed aldri større enn antall tråder som validerer samtidig.
+ */
+public final class PooledValidator {
+
+    private final Schema schema;
+    private final Queue<Validator> ledige = new ConcurrentLinkedQueue<>();
+
+    public PooledValidator(Schema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Validerer, og kaster {@link SAXException} ved første feil.
+     */
+    public void validate(Source source) throws SAXException, IOException {
+        validate(source, null);
+    }
+
+    /**
+     * Validerer, og gir alle feil til {@code errorHandler}, som selv bestemmer om valideringen skal avbrytes.
+     *
+     * @param errorHandler mottar feil under validering, eller {@code null} for å kaste ved første feil.
+     */
+    public void validate(Source source, ErrorHandler errorHandler) throws SAXException, IOException {
+        Validator validator = ledige.poll();
+        if (validator == null) {
+            validator = schema.newValidator();
+        }
+        try {
+            validator.setErrorHandler(errorHandler);
+            validator.validate(source);
+        } finally {
+            validator.reset();
+            ledige.offer(validator);
+        }
+    }
+}
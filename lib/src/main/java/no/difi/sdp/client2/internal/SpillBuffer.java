@@ -0,0 +1,89 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.domain.exceptions.RuntimeIOException;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Buffer som holder innholdet i minnet opp til en gitt størrelse, og deretter skriver alt til en midlertidig fil.
+ * Innholdet skrives én gang via {@link #getOutputStream()}, og kan så leses så mange ganger som nødvendig via
+ * {@link #openStream()}. {@link #close()} sletter den midlertidige filen.
+ */
+public final class SpillBuffer implements Closeable {
+
+    private final DeferredFileOutputStream output;
+    private volatile boolean ferdigSkrevet = false;
+
+    /**
+     * @param maxInMemoryBytes maks antall bytes som holdes i minnet før innholdet skrives til fil.
+     * @param directory        katalog for den midlertidige filen, eller {@code null} for {@code java.io.tmpdir}.
+     */
+    public SpillBuffer(int maxInMemoryBytes, File directory) {
+        this.output = new DeferredFileOutputStream(maxInMemoryBytes, "sdp-", ".tmp", directory);
+    }
+
+    /**
+     * Strømmen innholdet skal skrives til. Må lukkes før innholdet kan leses.
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                output.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                output.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                output.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                output.close();
+                ferdigSkrevet = true;
+            }
+        };
+    }
+
+    public InputStream openStream() throws IOException {
+        if (!ferdigSkrevet) {
+            throw new IllegalStateException("Kan ikke lese fra buffer før all skriving er fullført");
+        }
+        if (output.isInMemory()) {
+            return new ByteArrayInputStream(output.getData());
+        }
+        return Files.newInputStream(output.getFile().toPath());
+    }
+
+    public long size() {
+        return output.getByteCount();
+    }
+
+    public boolean isInMemory() {
+        return output.isInMemory();
+    }
+
+    @Override
+    public void close() {
+        try {
+            output.close();
+            if (!output.isInMemory()) {
+                Files.deleteIfExists(output.getFile().toPath());
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+}
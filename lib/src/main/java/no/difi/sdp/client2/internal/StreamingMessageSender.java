@@ -0,0 +1,193 @@
+package no.difi.sdp.client2.internal;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.transport.WebServiceConnection;
+import org.springframework.ws.transport.http.AbstractHttpSenderConnection;
+import org.springframework.ws.transport.http.HttpComponentsMessageSender;
+import org.springframework.ws.transport.http.HttpTransportConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link HttpComponentsMessageSender} som skriver SOAP-meldingen til en {@link SpillBuffer} i stedet for en
+ * byte-array, og strømmer den derfra som HTTP-body med kjent lengde. Meldinger større enn bufferet, typisk med en stor
+ * dokumentpakke som vedlegg, mellomlagres i en midlertidig fil som slettes når forbindelsen lukkes, i stedet for å
+ * kopieres inn i minnet før sending.
+ * <p>
+ * Bodyen kan leses flere ganger, slik at HttpClient kan sende den på nytt ved feil.
+ *
+ * @see no.difi.sdp.client2.KlientKonfigurasjon.Builder#dokumentpakkeBufferSize(int)
+ */
+public class StreamingMessageSender extends HttpComponentsMessageSender {
+
+    private final int bufferSize;
+    private final File tempDirectory;
+
+    /**
+     * @param bufferSize    maks antall bytes av meldingen som holdes i minnet.
+     * @param tempDirectory katalog for midlertidige filer, eller {@code null} for {@code java.io.tmpdir}.
+     */
+    public StreamingMessageSender(HttpClient httpClient, int bufferSize, File tempDirectory) {
+        super(httpClient);
+        this.bufferSize = bufferSize;
+        this.tempDirectory = tempDirectory;
+    }
+
+    @Override
+    public WebServiceConnection createConnection(URI uri) throws IOException {
+        HttpPost httpPost = new HttpPost(uri);
+        if (isAcceptGzipEncoding()) {
+            httpPost.addHeader(HttpTransportConstants.HEADER_ACCEPT_ENCODING, HttpTransportConstants.CONTENT_ENCODING_GZIP);
+        }
+        return new StreamingConnection(getHttpClient(), httpPost, createContext(uri), new SpillBuffer(bufferSize, tempDirectory));
+    }
+
+
+    static final class StreamingConnection extends AbstractHttpSenderConnection {
+
+        private final HttpClient httpClient;
+        private final HttpPost httpPost;
+        private final HttpContext httpContext;
+        private final SpillBuffer requestBuffer;
+        private OutputStream requestOutput;
+        private HttpResponse httpResponse;
+
+        StreamingConnection(HttpClient httpClient, HttpPost httpPost, HttpContext httpContext, SpillBuffer requestBuffer) {
+            this.httpClient = httpClient;
+            this.httpPost = httpPost;
+            this.httpContext = httpContext;
+            this.requestBuffer = requestBuffer;
+        }
+
+        @Override
+        public URI getUri() {
+            return httpPost.getURI();
+        }
+
+        @Override
+        public void addRequestHeader(String name, String value) {
+            httpPost.addHeader(name, value);
+        }
+
+        @Override
+        protected OutputStream getRequestOutputStream() {
+            if (requestOutput == null) {
+                requestOutput = requestBuffer.getOutputStream();
+            }
+            return requestOutput;
+        }
+
+        @Override
+        protected void onSendAfterWrite(WebServiceMessage message) throws IOException {
+            getRequestOutputStream().close();
+            httpPost.setEntity(new SpillBufferEntity(requestBuffer));
+            httpResponse = httpContext != null ? httpClient.execute(httpPost, httpContext) : httpClient.execute(httpPost);
+        }
+
+        @Override
+        protected int getResponseCode() {
+            return httpResponse.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        protected String getResponseMessage() {
+            return httpResponse.getStatusLine().getReasonPhrase();
+        }
+
+        @Override
+        protected long getResponseContentLength() {
+            HttpEntity entity = httpResponse.getEntity();
+            return entity != null ? entity.getContentLength() : 0;
+        }
+
+        @Override
+        protected InputStream getRawResponseInputStream() throws IOException {
+            HttpEntity entity = httpResponse.getEntity();
+            if (entity == null) {
+                throw new IllegalStateException("Response has no enclosing response entity, cannot create input stream");
+            }
+            return entity.getContent();
+        }
+
+        @Override
+        public Iterator<String> getResponseHeaderNames() {
+            List<String> names = new ArrayList<>();
+            for (Header header : httpResponse.getAllHeaders()) {
+                names.add(header.getName());
+            }
+            return names.iterator();
+        }
+
+        @Override
+        public Iterator<String> getResponseHeaders(String name) {
+            List<String> values = new ArrayList<>();
+            for (Header header : httpResponse.getHeaders(name)) {
+                values.add(header.getValue());
+            }
+            return values.iterator();
+        }
+
+        @Override
+        protected void onClose() throws IOException {
+            try {
+                if (httpResponse != null && httpResponse.getEntity() != null) {
+                    EntityUtils.consume(httpResponse.getEntity());
+                }
+            } finally {
+                requestBuffer.close();
+            }
+        }
+    }
+
+    private static final class SpillBufferEntity extends AbstractHttpEntity {
+
+        private final SpillBuffer buffer;
+
+        SpillBufferEntity(SpillBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return buffer.size();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return buffer.openStream();
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try (InputStream content = buffer.openStream()) {
+                IOUtils.copyLarge(content, outStream);
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package no.difi.sdp.client2.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trådpooler brukt internt av klienten. Alle tråder er daemon-tråder og avsluttes når de har vært ledige en stund,
+ * slik at en klient som ikke lenger er i bruk ikke holder liv i JVM-en eller binder opp tråder.
+ */
+public final class ThreadPools {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Felles pool for CPU-intensivt arbeid (signering, zipping og kryptering av dokumentpakker). Delt mellom alle
+     * klienter i JVM-en, og begrenset til antall tilgjengelige prosessorer.
+     */
+    public static ExecutorService computePool() {
+        return ComputePoolHolder.INSTANCE;
+    }
+
+    /**
+     * @param name    prefiks for navn på trådene i poolen.
+     * @param threads maks antall samtidige tråder.
+     */
+    public static ExecutorService newBoundedPool(String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class ComputePoolHolder {
+        static final ExecutorService INSTANCE = newBoundedPool("sdp-compute", Runtime.getRuntime().availableProcessors());
+    }
+
+    private ThreadPools() {
+    }
+}
@@ -0,0 +1,58 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.domain.Valideringsmodus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bestemmer, for hver dokumentpakke eller melding, om XML skal valideres, etter {@link Valideringsmodus}.
+ */
+public final class XmlValidering {
+
+    public static final XmlValidering ALLTID = new XmlValidering(Valideringsmodus.ALWAYS, 1);
+
+    public static XmlValidering fra(KlientKonfigurasjon klientKonfigurasjon) {
+        return new XmlValidering(klientKonfigurasjon.getValideringsmodus(), klientKonfigurasjon.getValideringsantall());
+    }
+
+    public static XmlValidering forRequest(KlientKonfigurasjon klientKonfigurasjon) {
+        return new XmlValidering(klientKonfigurasjon.getRequestValideringsmodus(), klientKonfigurasjon.getRequestValideringsantall());
+    }
+
+    public static XmlValidering forResponse(KlientKonfigurasjon klientKonfigurasjon) {
+        return new XmlValidering(klientKonfigurasjon.getResponseValideringsmodus(), klientKonfigurasjon.getResponseValideringsantall());
+    }
+
+    private final Valideringsmodus modus;
+    private final int antall;
+    private final AtomicLong antallKall = new AtomicLong();
+
+    public XmlValidering(Valideringsmodus modus, int antall) {
+        if (antall < 1) {
+            throw new IllegalArgumentException("Antall for " + modus + " må være minst 1, var " + antall);
+        }
+        this.modus = modus;
+        this.antall = antall;
+    }
+
+    /**
+     * Kalles én gang per dokumentpakke eller melding.
+     *
+     * @return om XML for denne dokumentpakken eller meldingen skal valideres.
+     */
+    public boolean skalValidere() {
+        switch (modus) {
+            case ALWAYS:
+                return true;
+            case SAMPLED:
+                return antallKall.getAndIncrement() % antall == 0;
+            case OFF_AFTER_WARMUP:
+                return antallKall.get() < antall && antallKall.getAndIncrement() < antall;
+            case OFF:
+                return false;
+            default:
+                throw new IllegalStateException("Ukjent valideringsmodus " + modus);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SendIOException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static no.difi.sdp.client2.ObjectMother.databehandler;
+import static no.difi.sdp.client2.ObjectMother.forsendelse;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class BulkSenderTest {
+
+    private static final URI lokalTimeoutUrl = URI.create("http://10.255.255.1");
+
+    private final List<SendResultat> sendt = new CopyOnWriteArrayList<>();
+    private final List<SendException> feilet = new CopyOnWriteArrayList<>();
+
+    private final List<SikkerDigitalPostKlient> klienter = new ArrayList<>();
+
+    @AfterEach
+    public void lukkKlienter() throws IOException {
+        for (SikkerDigitalPostKlient klient : klienter) {
+            klient.close();
+        }
+    }
+
+    private final BulkSender.ResultatHandler resultatHandler = new BulkSender.ResultatHandler() {
+        @Override
+        public void sendt(Forsendelse forsendelse, SendResultat sendResultat) {
+            sendt.add(sendResultat);
+        }
+
+        @Override
+        public void feilet(Forsendelse forsendelse, SendException sendException) {
+            feilet.add(sendException);
+        }
+    };
+
+    @Test
+    public void delivers_mapped_exception_for_every_forsendelse_through_all_steps() throws InterruptedException {
+        try (BulkSender bulkSender = BulkSender.builder(klient(), resultatHandler)
+                .traader(BulkSender.Steg.SIGNERING, 2)
+                .koeStoerrelse(BulkSender.Steg.SENDING, 1)
+                .build()) {
+
+            bulkSender.sendAlle(Stream.generate(ObjectMother::forsendelse).limit(5));
+
+            assertThat(bulkSender.getAntallUnderBehandling(), is(0L));
+            for (BulkSender.Steg steg : BulkSender.Steg.values()) {
+                assertThat(bulkSender.getKoeDybde(steg), is(0));
+            }
+        }
+
+        assertThat(sendt, empty());
+        assertThat(feilet, hasSize(5));
+        assertThat(feilet, everyItem(instanceOf(SendIOException.class)));
+    }
+
+    @Test
+    public void deletes_temporary_files_when_forsendelser_fail(@TempDir File tempDirectory) throws InterruptedException {
+        @SuppressWarnings("deprecation")
+        KlientKonfigurasjon klientKonfigurasjon = KlientKonfigurasjon.builder(lokalTimeoutUrl)
+                .connectionTimeout(1, TimeUnit.MILLISECONDS)
+                .dokumentpakkeBufferSize(1)
+                .tempDirectory(tempDirectory)
+                .build();
+
+        try (BulkSender bulkSender = BulkSender.builder(klient(klientKonfigurasjon), resultatHandler).build()) {
+            bulkSender.sendAlle(Stream.generate(ObjectMother::forsendelse).limit(3));
+        }
+
+        assertThat(feilet, hasSize(3));
+        assertThat(tempDirectory.list(), emptyArray());
+    }
+
+    @Test
+    public void counts_forsendelse_as_done_when_a_stage_throws_an_error() throws Exception {
+        @SuppressWarnings("deprecation")
+        KlientKonfigurasjon klientKonfigurasjon = KlientKonfigurasjon.builder(lokalTimeoutUrl)
+                .metrics(new Metrics() {
+                    @Override
+                    public void tid(Steg steg, long nanos) {
+                        if (steg == Steg.KRYPTERING) {
+                            throw new AssertionError("Error under kryptering");
+                        }
+                    }
+                })
+                .build();
+
+        try (BulkSender bulkSender = BulkSender.builder(klient(klientKonfigurasjon), resultatHandler).build()) {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> bulkSender.sendAlle(Stream.generate(ObjectMother::forsendelse).limit(2)));
+
+            assertThat(bulkSender.getAntallUnderBehandling(), is(0L));
+        }
+        assertThat(sendt, empty());
+    }
+
+    @Test
+    public void refuses_new_forsendelser_when_closed() throws InterruptedException {
+        BulkSender bulkSender = BulkSender.builder(klient(), resultatHandler).build();
+        bulkSender.close();
+
+        assertThrows(IllegalStateException.class, () -> bulkSender.leggTil(forsendelse()));
+    }
+
+    private SikkerDigitalPostKlient klient() {
+        @SuppressWarnings("deprecation")
+        KlientKonfigurasjon klientKonfigurasjon = KlientKonfigurasjon.builder(lokalTimeoutUrl)
+                .connectionTimeout(1, TimeUnit.MILLISECONDS)
+                .build();
+        return klient(klientKonfigurasjon);
+    }
+
+    private SikkerDigitalPostKlient klient(KlientKonfigurasjon klientKonfigurasjon) {
+        SikkerDigitalPostKlient klient = new SikkerDigitalPostKlient(databehandler(), klientKonfigurasjon);
+        klienter.add(klient);
+        return klient;
+    }
+}
@@ -0,0 +1,55 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.Dokument;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CompressionPolicyTest {
+
+    @Test
+    public void compresses_everything_by_default() {
+        assertThat(CompressionPolicy.STANDARD.skalKomprimeres(dokument("application/pdf", tilfeldig(1000))), is(true));
+    }
+
+    @Test
+    public void stores_listed_mime_types_regardless_of_case() {
+        CompressionPolicy policy = CompressionPolicy.builder().ukomprimert("Application/PDF").build();
+
+        assertThat(policy.skalKomprimeres(dokument("application/pdf", tekst())), is(false));
+        assertThat(policy.skalKomprimeres(dokument("text/plain", tekst())), is(true));
+    }
+
+    @Test
+    public void stores_files_where_sample_does_not_compress() {
+        CompressionPolicy policy = CompressionPolicy.builder().proevekomprimering(4096, 0.05).build();
+
+        assertThat(policy.skalKomprimeres(dokument("application/pdf", tilfeldig(10000))), is(false));
+        assertThat(policy.skalKomprimeres(dokument("application/pdf", tekst())), is(true));
+    }
+
+    @Test
+    public void rejects_invalid_level() {
+        assertThrows(IllegalArgumentException.class, () -> CompressionPolicy.builder().nivaa(10));
+    }
+
+    private static Dokument dokument(String mimeType, byte[] innhold) {
+        return Dokument.builder("Tittel", "fil", innhold).mimeType(mimeType).build();
+    }
+
+    private static byte[] tekst() {
+        return StringUtils.repeat("Lorem ipsum dolor sit amet ", 1000).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] tilfeldig(int stoerrelse) {
+        byte[] innhold = new byte[stoerrelse];
+        new Random(42).nextBytes(innhold);
+        return innhold;
+    }
+}
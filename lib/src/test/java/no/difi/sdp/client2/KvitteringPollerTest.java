@@ -0,0 +1,137 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.kvittering.ForretningsKvittering;
+import no.difi.sdp.client2.domain.kvittering.KvitteringForespoersel;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KvitteringPollerTest {
+
+    private final SikkerDigitalPostKlient klient = mock(SikkerDigitalPostKlient.class);
+    private final KvitteringForespoersel normal = KvitteringForespoersel.builder(Prioritet.NORMAL).build();
+    private final KvitteringForespoersel prioritert = KvitteringForespoersel.builder(Prioritet.PRIORITERT).build();
+
+    private final List<ForretningsKvittering> behandlet = new CopyOnWriteArrayList<>();
+    private final List<SendException> feilet = new CopyOnWriteArrayList<>();
+
+    private final KvitteringPoller.KvitteringHandler kvitteringHandler = new KvitteringPoller.KvitteringHandler() {
+        @Override
+        public void behandle(ForretningsKvittering kvittering) {
+            behandlet.add(kvittering);
+        }
+
+        @Override
+        public void feilet(KvitteringForespoersel kvitteringForespoersel, SendException sendException) {
+            feilet.add(sendException);
+        }
+    };
+
+    @Test
+    public void drains_queue_and_acknowledges_each_kvittering_when_fetching_the_next() throws InterruptedException {
+        ForretningsKvittering foerste = mock(ForretningsKvittering.class);
+        ForretningsKvittering andre = mock(ForretningsKvittering.class);
+        when(klient.hentKvitteringOgBekreftForrige(same(normal), isNull())).thenReturn(foerste);
+        when(klient.hentKvitteringOgBekreftForrige(normal, foerste)).thenReturn(andre);
+
+        try (KvitteringPoller poller = KvitteringPoller.builder(klient, kvitteringHandler, singletonList(normal)).build()) {
+            poller.start();
+            verify(klient, timeout(5000)).hentKvitteringOgBekreftForrige(normal, andre);
+        }
+
+        assertThat(behandlet, contains(foerste, andre));
+        verify(klient, times(1)).hentKvitteringOgBekreftForrige(same(normal), isNull());
+        verify(klient, never()).bekreft(any());
+    }
+
+    @Test
+    public void waits_for_ventetid_of_the_queue_prioritet_when_empty() throws InterruptedException {
+        try (KvitteringPoller poller = KvitteringPoller.builder(klient, kvitteringHandler, asList(normal, prioritert))
+                .ventetidUtenMinimum(Prioritet.PRIORITERT, Duration.ofMillis(10))
+                .build()) {
+            poller.start();
+            verify(klient, timeout(5000).atLeast(3)).hentKvitteringOgBekreftForrige(same(prioritert), isNull());
+        }
+
+        verify(klient, times(1)).hentKvitteringOgBekreftForrige(same(normal), isNull());
+        assertThat(behandlet, hasSize(0));
+    }
+
+    @Test
+    public void handles_kvitteringer_from_several_queues_in_parallel_while_fetching_on_one_thread() throws InterruptedException {
+        ForretningsKvittering normalKvittering = mock(ForretningsKvittering.class);
+        ForretningsKvittering prioritertKvittering = mock(ForretningsKvittering.class);
+        when(klient.hentKvitteringOgBekreftForrige(same(normal), isNull())).thenReturn(normalKvittering);
+        when(klient.hentKvitteringOgBekreftForrige(same(prioritert), isNull())).thenReturn(prioritertKvittering);
+
+        CountDownLatch begge = new CountDownLatch(2);
+        KvitteringPoller.KvitteringHandler venterPaaBegge = kvittering -> {
+            begge.countDown();
+            try {
+                if (!begge.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Kvitteringene ble ikke behandlet samtidig");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            behandlet.add(kvittering);
+        };
+
+        try (KvitteringPoller poller = KvitteringPoller.builder(klient, venterPaaBegge, asList(normal, prioritert)).traader(1).build()) {
+            poller.start();
+            verify(klient, timeout(5000)).hentKvitteringOgBekreftForrige(normal, normalKvittering);
+            verify(klient, timeout(5000)).hentKvitteringOgBekreftForrige(prioritert, prioritertKvittering);
+        }
+
+        assertThat(behandlet, containsInAnyOrder(normalKvittering, prioritertKvittering));
+        verify(klient, never()).bekreft(any());
+    }
+
+    @Test
+    public void acknowledges_kvittering_explicitly_when_fetching_next_failed() throws InterruptedException {
+        ForretningsKvittering kvittering = mock(ForretningsKvittering.class);
+        SendException sendException = new SendException("feil", SendException.AntattSkyldig.SERVER, null);
+        when(klient.hentKvitteringOgBekreftForrige(same(prioritert), isNull())).thenReturn(kvittering);
+        when(klient.hentKvitteringOgBekreftForrige(prioritert, kvittering)).thenThrow(sendException);
+        when(klient.tilSendException(sendException)).thenReturn(sendException);
+
+        try (KvitteringPoller poller = KvitteringPoller.builder(klient, kvitteringHandler, singletonList(prioritert)).build()) {
+            poller.start();
+            verify(klient, timeout(5000)).bekreft(kvittering);
+        }
+
+        assertThat(feilet, contains(sendException));
+        verify(klient, times(1)).bekreft(kvittering);
+    }
+
+    @Test
+    public void refuses_ventetid_shorter_than_minimum_for_prioritet() {
+        KvitteringPoller.Builder builder = KvitteringPoller.builder(klient, kvitteringHandler, singletonList(normal));
+
+        assertThrows(IllegalArgumentException.class, () -> builder.ventetidNaarTom(Prioritet.NORMAL, Duration.ofMinutes(9)));
+        builder.ventetidNaarTom(Prioritet.PRIORITERT, Duration.ofMinutes(2));
+    }
+}
@@ -0,0 +1,120 @@
+package no.difi.sdp.client2;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static no.difi.sdp.client2.ObjectMother.databehandler;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MeldingsformidlerTransportTest {
+
+    @Test
+    public void warm_up_opens_connections_once_and_is_limited_by_pool_size() throws Exception {
+        try (ServerSocket meldingsformidler = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+             MeldingsformidlerTransport transport = new MeldingsformidlerTransport(konfigurasjon(meldingsformidler).maxConnectionPoolSize(3).build())) {
+
+            assertThat(transport.warmUp(5), is(3));
+            assertThat(transport.warmUp(2), is(2));
+
+            assertThat(aksepterteForbindelser(meldingsformidler), is(3));
+        }
+    }
+
+    @Test
+    public void client_warms_up_on_construction_when_configured() throws Exception {
+        try (ServerSocket meldingsformidler = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+             SikkerDigitalPostKlient klient = new SikkerDigitalPostKlient(databehandler(), konfigurasjon(meldingsformidler).warmUp(2).build())) {
+
+            assertThat(aksepterteForbindelser(meldingsformidler), is(2));
+        }
+    }
+
+    @Test
+    public void client_closes_its_own_transport_but_not_a_shared_one() throws Exception {
+        try (ServerSocket meldingsformidler = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+             MeldingsformidlerTransport transport = new MeldingsformidlerTransport(konfigurasjon(meldingsformidler).build())) {
+
+            SikkerDigitalPostKlient egenTransport = new SikkerDigitalPostKlient(databehandler(), konfigurasjon(meldingsformidler).build());
+            egenTransport.close();
+            assertThrows(IllegalStateException.class, () -> egenTransport.warmUp(1));
+
+            new SikkerDigitalPostKlient(databehandler(), transport).close();
+            assertThat(transport.warmUp(1), is(1));
+        }
+    }
+
+    @Test
+    public void client_closes_its_own_transport_when_warm_up_fails() throws Exception {
+        try (ServerSocket meldingsformidler = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+            long foer = connectionEvictors();
+            KlientKonfigurasjon klientKonfigurasjon = konfigurasjon(meldingsformidler).warmUp(1).metrics(new Metrics() {
+                @Override
+                public void tid(Steg steg, long nanos) {
+                    throw new IllegalStateException("Feil under oppvarming");
+                }
+            }).build();
+
+            assertThrows(IllegalStateException.class, () -> new SikkerDigitalPostKlient(databehandler(), klientKonfigurasjon));
+
+            long frist = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (connectionEvictors() > foer && System.nanoTime() < frist) {
+                Thread.sleep(10);
+            }
+            assertThat(connectionEvictors(), is(foer));
+        }
+    }
+
+    @Test
+    public void warm_up_does_not_fail_when_meldingsformidler_is_unavailable() throws Exception {
+        URI lukket;
+        try (ServerSocket meldingsformidler = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+            lukket = uri(meldingsformidler);
+        }
+        @SuppressWarnings("deprecation")
+        KlientKonfigurasjon klientKonfigurasjon = KlientKonfigurasjon.builder(lukket).build();
+
+        try (MeldingsformidlerTransport transport = new MeldingsformidlerTransport(klientKonfigurasjon)) {
+            assertThat(transport.warmUp(2), is(0));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static KlientKonfigurasjon.Builder konfigurasjon(ServerSocket meldingsformidler) {
+        return KlientKonfigurasjon.builder(uri(meldingsformidler))
+                .connectionTimeout(5, TimeUnit.SECONDS)
+                .evictIdleConnections(1, TimeUnit.MINUTES);
+    }
+
+    private static URI uri(ServerSocket meldingsformidler) {
+        return URI.create("http://localhost:" + meldingsformidler.getLocalPort());
+    }
+
+    private static int aksepterteForbindelser(ServerSocket meldingsformidler) throws Exception {
+        meldingsformidler.setSoTimeout(500);
+        List<Socket> forbindelser = new ArrayList<>();
+        try {
+            while (true) {
+                forbindelser.add(meldingsformidler.accept());
+            }
+        } catch (SocketTimeoutException ferdig) {
+            for (Socket forbindelse : forbindelser) {
+                forbindelse.close();
+            }
+        }
+        return forbindelser.size();
+    }
+
+    private static long connectionEvictors() {
+        return Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().startsWith("Connection evictor")).count();
+    }
+}
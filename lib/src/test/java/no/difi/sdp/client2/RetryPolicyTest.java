@@ -0,0 +1,60 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.exceptions.ForespoerselAvvistException;
+import no.difi.sdp.client2.domain.exceptions.MeldingsformidlerUtilgjengeligException;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SendIOException;
+import no.difi.sdp.client2.domain.exceptions.XmlValideringException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.KLIENT;
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.SERVER;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy retryPolicy = RetryPolicy.builder()
+            .maxForsoek(3)
+            .ventetid(Duration.ofMillis(100), Duration.ofMillis(300))
+            .build();
+
+    @Test
+    public void retries_failures_not_caused_by_the_client_until_max_attempts() {
+        SendException ioFeil = new SendIOException(new IOException("Connection reset"));
+        SendException serverFeil = new SendException("Feil", SERVER, null);
+
+        assertThat(retryPolicy.skalProeveIgjen(ioFeil, 1), is(true));
+        assertThat(retryPolicy.skalProeveIgjen(serverFeil, 2), is(true));
+        assertThat(retryPolicy.skalProeveIgjen(serverFeil, 3), is(false));
+    }
+
+    @Test
+    public void does_not_retry_client_errors_or_invalid_responses() {
+        assertThat(retryPolicy.skalProeveIgjen(new SendException("Feil", KLIENT, null), 1), is(false));
+        assertThat(retryPolicy.skalProeveIgjen(new XmlValideringException("Ugyldig svar", SERVER, null), 1), is(false));
+        assertThat(RetryPolicy.INGEN.skalProeveIgjen(new SendException("Feil", SERVER, null), 1), is(false));
+    }
+
+    @Test
+    public void does_not_retry_requests_rejected_by_the_client_itself() {
+        assertThat(retryPolicy.skalProeveIgjen(new MeldingsformidlerUtilgjengeligException("Circuit breaker er åpen"), 1), is(false));
+        assertThat(retryPolicy.skalProeveIgjen(new ForespoerselAvvistException("Slapp ikke til"), 1), is(false));
+    }
+
+    @Test
+    public void backs_off_exponentially_with_jitter_up_to_max() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(retryPolicy.ventetid(1).toMillis(), allOf(greaterThanOrEqualTo(50L), lessThanOrEqualTo(100L)));
+            assertThat(retryPolicy.ventetid(2).toMillis(), allOf(greaterThanOrEqualTo(100L), lessThanOrEqualTo(200L)));
+            assertThat(retryPolicy.ventetid(3).toMillis(), allOf(greaterThanOrEqualTo(150L), lessThanOrEqualTo(300L)));
+            assertThat(retryPolicy.ventetid(40).toMillis(), allOf(greaterThanOrEqualTo(150L), lessThanOrEqualTo(300L)));
+        }
+    }
+}
@@ -7,14 +7,22 @@ import no.difi.sdp.client2.domain.exceptions.SertifikatException;
 import org.junit.jupiter.api.Test;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static no.difi.sdp.client2.ObjectMother.databehandler;
 import static no.difi.sdp.client2.ObjectMother.forsendelse;
 import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.UKJENT;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -39,6 +47,53 @@ public class SikkerDigitalPostKlientTest {
         }
     }
 
+    @Test
+    public void send_async_completes_exceptionally_on_connection_timeouts() {
+        @SuppressWarnings("deprecation")
+        KlientKonfigurasjon klientKonfigurasjon = KlientKonfigurasjon.builder(lokalTimeoutUrl)
+                .connectionTimeout(1, TimeUnit.MILLISECONDS)
+                .build();
+
+        SikkerDigitalPostKlient postklient = new SikkerDigitalPostKlient(databehandler(), klientKonfigurasjon);
+
+        AtomicInteger byggOppgaver = new AtomicInteger();
+        Executor byggExecutor = oppgave -> {
+            byggOppgaver.incrementAndGet();
+            oppgave.run();
+        };
+        CompletableFuture<SendResultat> resultat = postklient.sendAsync(forsendelse(), byggExecutor);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> resultat.get(30, TimeUnit.SECONDS));
+        assertThat(e.getCause(), instanceOf(SendIOException.class));
+        assertThat(((SendIOException) e.getCause()).getAntattSkyldig(), equalTo(UKJENT));
+        assertThat(byggOppgaver.get(), equalTo(1));
+    }
+
+    @Test
+    public void resends_the_same_built_forsendelse_according_to_retry_policy() {
+        AtomicInteger sendinger = new AtomicInteger();
+
+        @SuppressWarnings("deprecation")
+        KlientKonfigurasjon klientKonfigurasjon = KlientKonfigurasjon.builder(lokalTimeoutUrl)
+                .connectionTimeout(1, TimeUnit.MILLISECONDS)
+                .httpRequestInterceptors((request, context) -> sendinger.incrementAndGet())
+                .retryPolicy(RetryPolicy.builder().maxForsoek(3).ventetid(Duration.ofMillis(1), Duration.ofMillis(2)).build())
+                .build();
+
+        SikkerDigitalPostKlient postklient = new SikkerDigitalPostKlient(databehandler(), klientKonfigurasjon);
+
+        AtomicInteger byggOppgaver = new AtomicInteger();
+        Executor byggExecutor = oppgave -> {
+            byggOppgaver.incrementAndGet();
+            oppgave.run();
+        };
+        ExecutionException e = assertThrows(ExecutionException.class, () -> postklient.sendAsync(forsendelse(), byggExecutor).get(30, TimeUnit.SECONDS));
+
+        assertThat(e.getCause(), instanceOf(SendIOException.class));
+        assertThat(byggOppgaver.get(), equalTo(1));
+        assertThat(sendinger.get(), equalTo(3));
+    }
+
     @Test
     public void calls_http_interceptors() {
         final StringBuilder interceptorString = new StringBuilder();
@@ -79,4 +134,26 @@ public class SikkerDigitalPostKlientTest {
 
         assertThat(postklient.getMeldingTemplate(), notNullValue());
     }
+
+    @Test
+    public void clients_on_same_transport_share_message_sender_and_call_its_http_interceptors() throws Exception {
+        final StringBuilder interceptorString = new StringBuilder();
+
+        @SuppressWarnings("deprecation")
+        KlientKonfigurasjon klientKonfigurasjon = KlientKonfigurasjon.builder(lokalTimeoutUrl)
+                .connectionTimeout(1, TimeUnit.MILLISECONDS)
+                .httpRequestInterceptors((request, context) -> interceptorString.append("Interceptor called"))
+                .build();
+
+        try (MeldingsformidlerTransport transport = new MeldingsformidlerTransport(klientKonfigurasjon)) {
+            SikkerDigitalPostKlient foersteKlient = new SikkerDigitalPostKlient(databehandler(), transport);
+            SikkerDigitalPostKlient andreKlient = new SikkerDigitalPostKlient(databehandler(), transport);
+
+            assertThat(foersteKlient.getMeldingTemplate().getMessageSenders(), arrayContaining(sameInstance(transport.getMessageSender())));
+            assertThat(andreKlient.getMeldingTemplate().getMessageSenders(), arrayContaining(sameInstance(transport.getMessageSender())));
+
+            assertThrows(SendIOException.class, () -> andreKlient.send(forsendelse()));
+            assertThat(interceptorString.toString(), equalTo("Interceptor called"));
+        }
+    }
 }
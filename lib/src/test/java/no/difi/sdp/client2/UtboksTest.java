@@ -0,0 +1,131 @@
+package no.difi.sdp.client2;
+
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static no.difi.sdp.client2.ObjectMother.databehandler;
+import static no.difi.sdp.client2.ObjectMother.forsendelse;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class UtboksTest {
+
+    private static final URI lokalTimeoutUrl = URI.create("http://10.255.255.1");
+
+    @TempDir
+    Path katalog;
+
+    private final List<SikkerDigitalPostKlient> klienter = new ArrayList<>();
+
+    @AfterEach
+    public void lukkKlienter() throws IOException {
+        for (SikkerDigitalPostKlient klient : klienter) {
+            klient.close();
+        }
+    }
+
+    @Test
+    public void stores_forsendelser_in_order_they_were_added() {
+        Utboks utboks = new Utboks(klient(), katalog);
+
+        String foerste = utboks.leggTil(forsendelse());
+        String andre = utboks.leggTil(forsendelse());
+
+        assertThat(new Utboks(klient(), katalog).getForsendelser(), contains(foerste, andre));
+        assertThat(katalog.resolve(foerste).toFile().list(), arrayContainingInAnyOrder("dokumentpakke.cms", "sbd.xml", "forsendelse.properties"));
+    }
+
+    @Test
+    public void keeps_forsendelser_that_fail_and_deletes_on_request() {
+        Utboks utboks = new Utboks(klient(), katalog);
+        String id = utboks.leggTil(forsendelse());
+        List<String> feilet = new CopyOnWriteArrayList<>();
+
+        int sendt = utboks.toem(new Resultater() {
+            @Override
+            public void feilet(String id, SendException sendException) {
+                feilet.add(id);
+            }
+        });
+
+        assertThat(sendt, is(0));
+        assertThat(feilet, contains(id));
+        assertThat(utboks.getForsendelser(), contains(id));
+
+        utboks.slett(id);
+        assertThat(utboks.getForsendelser(), empty());
+        assertThat(asList(katalog.toFile().listFiles()), hasSize(0));
+    }
+
+    @Test
+    public void sets_aside_and_reports_forsendelse_that_cannot_be_read_only_once() throws Exception {
+        Utboks utboks = new Utboks(klient(), katalog);
+        String id = utboks.leggTil(forsendelse());
+        Files.write(katalog.resolve(id).resolve("sbd.xml"), new byte[]{'<'}, StandardOpenOption.TRUNCATE_EXISTING);
+        List<String> ugyldige = new CopyOnWriteArrayList<>();
+        Resultater resultater = new Resultater() {
+            @Override
+            public void ugyldig(String id, SikkerDigitalPostException feil) {
+                ugyldige.add(id);
+            }
+        };
+
+        assertThat(utboks.toem(resultater), is(0));
+        assertThat(utboks.toem(resultater), is(0));
+
+        assertThat(ugyldige, contains(id));
+        assertThat(utboks.getForsendelser(), empty());
+        utboks.slett(id);
+        assertThat(asList(katalog.toFile().listFiles()), hasSize(0));
+    }
+
+    private static class Resultater implements Utboks.ResultatHandler {
+
+        @Override
+        public void sendt(String id, SendResultat sendResultat) {
+            throw new AssertionError("Skulle ikke blitt sendt: " + id);
+        }
+
+        @Override
+        public void feilet(String id, SendException sendException) {
+            throw new AssertionError("Skulle ikke feilet: " + id, sendException);
+        }
+
+        @Override
+        public void ugyldig(String id, SikkerDigitalPostException feil) {
+            throw new AssertionError("Skulle ikke vært ugyldig: " + id, feil);
+        }
+    }
+
+    private SikkerDigitalPostKlient klient() {
+        @SuppressWarnings("deprecation")
+        KlientKonfigurasjon klientKonfigurasjon = KlientKonfigurasjon.builder(lokalTimeoutUrl)
+                .connectionTimeout(1, TimeUnit.MILLISECONDS)
+                .build();
+        return klient(klientKonfigurasjon);
+    }
+
+    private SikkerDigitalPostKlient klient(KlientKonfigurasjon klientKonfigurasjon) {
+        SikkerDigitalPostKlient klient = new SikkerDigitalPostKlient(databehandler(), klientKonfigurasjon);
+        klienter.add(klient);
+        return klient;
+    }
+}
@@ -1,15 +1,32 @@
 package no.difi.sdp.client2.asice;
 
+import no.difi.sdp.client2.CompressionPolicy;
+import no.difi.sdp.client2.Metrics;
 import no.difi.sdp.client2.ObjectMother;
 import no.difi.sdp.client2.domain.Dokument;
+import no.difi.sdp.client2.domain.Dokumentpakke;
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.internal.XmlValidering;
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
 
 public class CreateASiCETest {
     @Test
@@ -21,4 +38,82 @@ public class CreateASiCETest {
 
         assertThat(unzippedContentBytesCount, equalTo((long) attachment.getBytes().length * attachments.size()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void reads_each_document_only_once() {
+        AtomicInteger reads = new AtomicInteger();
+        Dokument hoveddokument = Dokument.builder("Tittel", "faktura.pdf", () -> {
+            reads.incrementAndGet();
+            return new ByteArrayInputStream("hei".getBytes());
+        }).build();
+        Forsendelse forsendelse = Forsendelse.digital(ObjectMother.avsender(), ObjectMother.digitalPost(), Dokumentpakke.builder(hoveddokument).build()).build();
+
+        long unzippedContentBytesCount = new CreateASiCE().createAsice(ObjectMother.databehandler(), forsendelse, new ByteArrayOutputStream());
+
+        assertThat(reads.get(), is(1));
+        assertThat(unzippedContentBytesCount, greaterThan(3L));
+    }
+
+    @Test
+    public void parallel_zipping_gives_same_files_in_same_order() throws IOException {
+        List<Dokument> vedlegg = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            vedlegg.add(Dokument.builder("Vedlegg " + i, "vedlegg" + i + ".pdf", ("vedlegg " + i).getBytes()).build());
+        }
+        Forsendelse forsendelse = Forsendelse.digital(ObjectMother.avsender(), ObjectMother.digitalPost(),
+                Dokumentpakke.builder(ObjectMother.forsendelse().getDokumentpakke().getHoveddokument()).vedlegg(vedlegg).build()).build();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        ByteArrayOutputStream sekvensielt = new ByteArrayOutputStream();
+        ByteArrayOutputStream parallelt = new ByteArrayOutputStream();
+        long sekvensieltBytes = new CreateASiCE().createAsice(ObjectMother.databehandler(), forsendelse, sekvensielt);
+        long paralleltBytes;
+        try {
+            paralleltBytes = new CreateASiCE(XmlValidering.ALLTID, Metrics.INGEN, pool).createAsice(ObjectMother.databehandler(), forsendelse, parallelt);
+        } finally {
+            pool.shutdown();
+        }
+
+        Map<String, byte[]> sekvensielleFiler = unzip(sekvensielt.toByteArray());
+        Map<String, byte[]> paralleleFiler = unzip(parallelt.toByteArray());
+        assertThat(new ArrayList<>(paralleleFiler.keySet()), equalTo(new ArrayList<>(sekvensielleFiler.keySet())));
+        for (String fil : sekvensielleFiler.keySet()) {
+            if (!fil.endsWith("signatures.xml")) {
+                assertThat(fil, paralleleFiler.get(fil), equalTo(sekvensielleFiler.get(fil)));
+            }
+        }
+        assertThat(paralleltBytes, equalTo(sekvensieltBytes));
+    }
+
+    @Test
+    public void stored_files_give_same_files_and_billable_bytes() throws IOException {
+        Forsendelse forsendelse = ObjectMother.forsendelse();
+        CompressionPolicy ukomprimert = CompressionPolicy.builder().ukomprimert("application/pdf", "application/xml").build();
+
+        ByteArrayOutputStream komprimert = new ByteArrayOutputStream();
+        ByteArrayOutputStream lagret = new ByteArrayOutputStream();
+        long komprimertBytes = new CreateASiCE().createAsice(ObjectMother.databehandler(), forsendelse, komprimert);
+        long lagretBytes = new CreateASiCE(XmlValidering.ALLTID, Metrics.INGEN, null, ukomprimert)
+                .createAsice(ObjectMother.databehandler(), forsendelse, lagret);
+
+        Map<String, byte[]> komprimerteFiler = unzip(komprimert.toByteArray());
+        Map<String, byte[]> lagredeFiler = unzip(lagret.toByteArray());
+        assertThat(new ArrayList<>(lagredeFiler.keySet()), equalTo(new ArrayList<>(komprimerteFiler.keySet())));
+        for (String fil : komprimerteFiler.keySet()) {
+            if (!fil.endsWith("signatures.xml")) {
+                assertThat(fil, lagredeFiler.get(fil), equalTo(komprimerteFiler.get(fil)));
+            }
+        }
+        assertThat(lagretBytes, equalTo(komprimertBytes));
+    }
+
+    private static Map<String, byte[]> unzip(byte[] archive) throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                files.put(entry.getName(), IOUtils.toByteArray(zip));
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,77 @@
+package no.difi.sdp.client2.asice;
+
+import no.difi.sdp.client2.domain.Dokument;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DocumentSourceTest {
+
+    @TempDir
+    Path tempDirectory;
+
+    private final byte[] content = randomBytes(100_000);
+
+    @Test
+    public void file_source_reads_same_content_every_time() throws IOException {
+        Path file = Files.write(tempDirectory.resolve("dokument.pdf"), content);
+
+        assertReadsContent(DocumentSource.of(file));
+    }
+
+    @Test
+    public void memory_mapped_source_reads_same_content_every_time() throws IOException {
+        Path file = Files.write(tempDirectory.resolve("dokument.pdf"), content);
+
+        assertReadsContent(DocumentSource.memoryMapped(file));
+    }
+
+    @Test
+    public void stream_supplier_source_counts_size_by_reading_content() throws IOException {
+        assertReadsContent(() -> new ByteArrayInputStream(content));
+    }
+
+    @Test
+    public void dokument_from_file_is_not_read_until_needed() throws IOException {
+        Path file = Files.write(tempDirectory.resolve("dokument.pdf"), "før".getBytes());
+        Dokument dokument = Dokument.builder("Tittel", file).build();
+
+        Files.write(file, content);
+
+        assertThat(dokument.getFileName(), is("dokument.pdf"));
+        assertThat(dokument.getBytes(), equalTo(content));
+    }
+
+    @Test
+    public void dokument_from_missing_file_fails_when_built() {
+        assertThrows(Dokument.LastDokumentException.class, () -> Dokument.builder("Tittel", tempDirectory.resolve("finnes-ikke.pdf")));
+    }
+
+    private void assertReadsContent(DocumentSource source) throws IOException {
+        assertThat(source.size(), is((long) content.length));
+        for (int i = 0; i < 2; i++) {
+            try (InputStream stream = source.openStream()) {
+                assertThat(IOUtils.toByteArray(stream), equalTo(content));
+            }
+        }
+        assertThat(source.readAllBytes(), equalTo(content));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -1,16 +1,24 @@
 package no.difi.sdp.client2.asice.archive;
 
+import no.difi.sdp.client2.CompressionPolicy;
 import no.difi.sdp.client2.asice.AsicEAttachable;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -18,6 +26,7 @@ import static java.util.Arrays.asList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
 
 public class CreateZipTest {
 
@@ -38,6 +47,81 @@ public class CreateZipTest {
         verifyZipFile(zipInputStream, "file2.txt", "test2");
     }
 
+    @Test
+    public void zip_writer_digests_and_counts_each_file_while_zipping() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        ZipWriter.WrittenEntry entry;
+        try (ZipWriter zipWriter = new CreateZip().open(archive)) {
+            entry = zipWriter.write(file("file.txt", "test"));
+        }
+
+        assertThat(entry.getSha256(), equalTo(DigestUtils.sha256("test")));
+        assertThat(entry.getSize(), equalTo(4L));
+        verifyZipFile(new ZipInputStream(new ByteArrayInputStream(archive.toByteArray())), "file.txt", "test");
+    }
+
+    @Test
+    public void writes_files_deflated_in_parallel_in_original_order() throws IOException {
+        List<AsicEAttachable> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            files.add(file("file" + i + ".txt", StringUtils.repeat("innhold " + i, 1000 * (20 - i))));
+        }
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        List<ZipWriter.WrittenEntry> entries;
+        try (ZipWriter zipWriter = new CreateZip().open(archive)) {
+            entries = zipWriter.writeAll(files, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()));
+        for (int i = 0; i < files.size(); i++) {
+            String contents = new String(files.get(i).getBytes());
+            verifyZipFile(zipInputStream, "file" + i + ".txt", contents);
+            assertThat(entries.get(i).getSha256(), equalTo(DigestUtils.sha256(contents)));
+            assertThat(entries.get(i).getSize(), equalTo((long) contents.length()));
+        }
+        assertThat(zipInputStream.getNextEntry(), nullValue());
+    }
+
+    @Test
+    public void stores_files_uncompressed_according_to_policy() throws IOException {
+        CreateZip createZip = new CreateZip(CompressionPolicy.builder().ukomprimert("application/txt").build());
+        String contents = StringUtils.repeat("test", 1000);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        ZipWriter.WrittenEntry entry;
+        try (ZipWriter zipWriter = createZip.open(archive)) {
+            entry = zipWriter.write(file("file.txt", contents));
+        }
+
+        assertThat(entry.getSha256(), equalTo(DigestUtils.sha256(contents)));
+        assertThat(entry.getSize(), equalTo((long) contents.length()));
+        verifyStoredZipFile(archive.toByteArray(), "file.txt", contents);
+    }
+
+    @Test
+    public void stores_files_uncompressed_in_parallel_according_to_policy() throws IOException {
+        CreateZip createZip = new CreateZip(CompressionPolicy.builder().ukomprimert("application/txt").build());
+        String contents = StringUtils.repeat("test", 1000);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        List<ZipWriter.WrittenEntry> entries;
+        try (ZipWriter zipWriter = createZip.open(archive)) {
+            entries = zipWriter.writeAll(asList(file("file.txt", contents)), pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(entries.get(0).getSha256(), equalTo(DigestUtils.sha256(contents)));
+        assertThat(entries.get(0).getSize(), equalTo((long) contents.length()));
+        verifyStoredZipFile(archive.toByteArray(), "file.txt", contents);
+    }
+
     @Test
     @Disabled("WARN! Write zip file to to disk test is disabled.")
     public void write_file_to_disk() throws IOException {
@@ -55,6 +139,16 @@ public class CreateZipTest {
         System.out.println("Skrev zip-fil til " + tempFile);
     }
 
+    private void verifyStoredZipFile(byte[] archive, String fileName, String contents) throws IOException {
+        try (ZipArchiveInputStream zipInputStream = new ZipArchiveInputStream(new ByteArrayInputStream(archive))) {
+            ZipArchiveEntry entry = zipInputStream.getNextZipEntry();
+            assertThat(entry.getName(), equalTo(fileName));
+            assertThat(entry.getMethod(), equalTo(ZipEntry.STORED));
+            assertThat(entry.getCompressedSize(), equalTo((long) contents.length()));
+            assertThat(IOUtils.toByteArray(zipInputStream), equalTo(contents.getBytes()));
+        }
+    }
+
     private void verifyZipFile(ZipInputStream zipInputStream, String fileName, String contents) throws IOException {
         ZipEntry firstZipFile = zipInputStream.getNextEntry();
         assertThat(firstZipFile.getName(), containsString(fileName));
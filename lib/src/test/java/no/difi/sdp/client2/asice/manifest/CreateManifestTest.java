@@ -37,4 +37,14 @@ public class CreateManifestTest {
         Forsendelse ugyldigForsendelse = Forsendelse.digital(avsender, DigitalPost.builder(mottaker, "tittel").build(), ObjectMother.dokumentpakke()).build();
         assertThrows(XmlValideringException.class, () -> sut.createManifest(ugyldigForsendelse));
     }
+
+    @Test
+    public void skips_validation_when_not_requested() {
+        Mottaker mottaker = Mottaker.builder("04036125433", null, mottakerSertifikat(), Organisasjonsnummer.of("984661185")).build();
+        Avsender avsender = Avsender.builder(ObjectMother.avsenderOrganisasjonsnummer()).build();
+
+        Forsendelse ugyldigForsendelse = Forsendelse.digital(avsender, DigitalPost.builder(mottaker, "tittel").build(), ObjectMother.dokumentpakke()).build();
+        sut.createManifest(ugyldigForsendelse, false); // No Exceptions
+        assertThrows(XmlValideringException.class, () -> sut.createManifest(ugyldigForsendelse, true));
+    }
 }
\ No newline at end of file
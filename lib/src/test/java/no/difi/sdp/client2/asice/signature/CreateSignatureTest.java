@@ -2,6 +2,8 @@ package no.difi.sdp.client2.asice.signature;
 
 import no.difi.sdp.client2.ObjectMother;
 import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.domain.CountingKeyStore;
+import no.difi.sdp.client2.domain.NoValidationNoekkelpar;
 import no.difi.sdp.client2.domain.Noekkelpar;
 import no.digipost.time.ControllableClock;
 import org.apache.commons.io.IOUtils;
@@ -53,6 +55,8 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Arrays.asList;
+import static no.difi.sdp.client2.ObjectMother.SELVSIGNERT_VIRKSOMHETSSERTIFIKAT_ALIAS;
+import static no.difi.sdp.client2.ObjectMother.SELVSIGNERT_VIRKSOMHETSSERTIFIKAT_PASSORD;
 import static no.difi.sdp.client2.internal.SdpTimeConstants.UTC;
 import static no.digipost.DiggBase.nonNull;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -107,6 +111,21 @@ public class CreateSignatureTest {
         assertThat(dSignature.getKeyInfo(), notNullValue());
     }
 
+    @Test
+    public void unlocks_private_key_only_once_per_noekkelpar() {
+        CountingKeyStore keyStore = CountingKeyStore.wrap(ObjectMother.selvsignertKeyStore());
+        Noekkelpar countingNoekkelpar = new NoValidationNoekkelpar(keyStore, SELVSIGNERT_VIRKSOMHETSSERTIFIKAT_ALIAS, SELVSIGNERT_VIRKSOMHETSSERTIFIKAT_PASSORD);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(verify_signature(sut.createSignature(countingNoekkelpar, files)), is(true));
+        }
+        assertThat(keyStore.getKeyCount(), is(1));
+
+        countingNoekkelpar.oppdaterNoekkelmateriale();
+        assertThat(verify_signature(sut.createSignature(countingNoekkelpar, files)), is(true));
+        assertThat(keyStore.getKeyCount(), is(2));
+    }
+
     @Test
     public void multithreaded_signing() throws Exception {
         List<Thread> threads = new ArrayList<Thread>();
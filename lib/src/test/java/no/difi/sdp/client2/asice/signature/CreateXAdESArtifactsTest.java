@@ -0,0 +1,103 @@
+package no.difi.sdp.client2.asice.signature;
+
+import no.difi.sdp.client2.ObjectMother;
+import no.difi.sdp.client2.asice.AsicEAttachable;
+import no.difi.sdp.client2.domain.Sertifikat;
+import no.digipost.time.ControllableClock;
+import org.apache.xml.security.Init;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static no.difi.sdp.client2.internal.SdpTimeConstants.UTC;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CreateXAdESArtifactsTest {
+
+    private final ControllableClock clock = ControllableClock.freezedAt(Instant.now(), UTC);
+    private final CreateXAdESArtifacts sut = new CreateXAdESArtifacts(clock);
+    private final DomUtils domUtils = new DomUtils();
+    private final Sertifikat sertifikat = ObjectMother.selvsignertNoekkelparUtenTrustStore().getVirksomhetssertifikat();
+
+    private final List<AsicEAttachable> files = asList(
+            file("hoveddokument.pdf", "application/pdf"),
+            file("lenke.xml", "application/vnd.difi.dpi.lenke+xml"),
+            file("manifest.xml", "application/xml")
+    );
+
+    @BeforeAll
+    public static void initXmlSecurity() {
+        Init.init();
+    }
+
+    @Test
+    public void template_gives_same_canonical_xml_as_marshalling_every_time() throws Exception {
+        XAdESTemplate template = sut.createTemplate(sertifikat);
+
+        for (List<AsicEAttachable> attachedFiles : asList(files, singletonList(files.get(0)), files)) {
+            clock.timePasses(Duration.ofMillis(1234));
+
+            XAdESArtifacts marshalled = sut.createArtifactsToSign(attachedFiles, sertifikat);
+            XAdESArtifacts fromTemplate = sut.createArtifactsToSign(attachedFiles, template);
+
+            assertThat(fromTemplate.signablePropertiesReferenceUri, is(marshalled.signablePropertiesReferenceUri));
+            assertThat(canonicalize(fromTemplate), is(canonicalize(marshalled)));
+            assertThat(new String(domUtils.serializeToXml(fromTemplate.document)), is(new String(domUtils.serializeToXml(marshalled.document))));
+        }
+    }
+
+    @Test
+    public void all_nodes_below_gives_same_nodes_as_xpath() throws Exception {
+        Node signableProperties = sut.createArtifactsToSign(files, sertifikat).signableProperties;
+
+        NodeList expected = (NodeList) XPathFactory.newInstance().newXPath().evaluate(". | .//node() | .//@*", signableProperties, XPathConstants.NODESET);
+        List<Node> expectedNodes = new ArrayList<>();
+        for (int i = 0; i < expected.getLength(); i++) {
+            expectedNodes.add(expected.item(i));
+        }
+
+        assertThat(domUtils.allNodesBelow(signableProperties).collect(toList()), is(expectedNodes));
+    }
+
+    private String canonicalize(XAdESArtifacts artifacts) throws Exception {
+        Canonicalizer canonicalizer = Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS);
+        ByteArrayOutputStream canonical = new ByteArrayOutputStream();
+        canonicalizer.canonicalizeXPathNodeSet(new LinkedHashSet<>(domUtils.allNodesBelow(artifacts.signableProperties).collect(toList())), canonical);
+        return new String(canonical.toByteArray(), "UTF-8");
+    }
+
+    private static AsicEAttachable file(String fileName, String mimeType) {
+        return new AsicEAttachable() {
+            @Override
+            public String getFileName() {
+                return fileName;
+            }
+
+            @Override
+            public byte[] getBytes() {
+                return fileName.getBytes();
+            }
+
+            @Override
+            public String getMimeType() {
+                return mimeType;
+            }
+        };
+    }
+}
@@ -0,0 +1,148 @@
+package no.difi.sdp.client2.domain;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link KeyStore} som delegerer til en annen {@link KeyStore}, og teller hvor mange ganger privatnøkkelen er hentet ut.
+ */
+public class CountingKeyStore extends KeyStore {
+
+    public static CountingKeyStore wrap(KeyStore delegate) {
+        CountingKeyStore keyStore = new CountingKeyStore(new Spi(delegate), delegate);
+        try {
+            keyStore.load(null, null);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return keyStore;
+    }
+
+    private final Spi spi;
+
+    private CountingKeyStore(Spi spi, KeyStore delegate) {
+        super(spi, delegate.getProvider(), delegate.getType());
+        this.spi = spi;
+    }
+
+    public int getKeyCount() {
+        return spi.getKeyCount.get();
+    }
+
+    private static final class Spi extends KeyStoreSpi {
+
+        private final KeyStore delegate;
+        private final AtomicInteger getKeyCount = new AtomicInteger();
+
+        Spi(KeyStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) throws NoSuchAlgorithmException, UnrecoverableKeyException {
+            getKeyCount.incrementAndGet();
+            try {
+                return delegate.getKey(alias, password);
+            } catch (KeyStoreException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            return call(() -> delegate.getCertificateChain(alias));
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            return call(() -> delegate.getCertificate(alias));
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            return call(() -> delegate.getCreationDate(alias));
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) throws KeyStoreException {
+            delegate.setKeyEntry(alias, key, password, chain);
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
+            delegate.setKeyEntry(alias, key, chain);
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) throws KeyStoreException {
+            delegate.setCertificateEntry(alias, cert);
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) throws KeyStoreException {
+            delegate.deleteEntry(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return call(delegate::aliases);
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return call(() -> delegate.containsAlias(alias));
+        }
+
+        @Override
+        public int engineSize() {
+            return call(delegate::size);
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return call(() -> delegate.isKeyEntry(alias));
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return call(() -> delegate.isCertificateEntry(alias));
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return call(() -> delegate.getCertificateAlias(cert));
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) {
+        }
+
+        private static <T> T call(KeyStoreCall<T> call) {
+            try {
+                return call.call();
+            } catch (KeyStoreException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @FunctionalInterface
+        private interface KeyStoreCall<T> {
+            T call() throws KeyStoreException;
+        }
+    }
+}
@@ -8,7 +8,10 @@ import java.security.KeyStore;
 
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -66,4 +69,22 @@ public class NoekkelparTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void loads_key_material_once_until_refreshed() {
+        CountingKeyStore keyStore = CountingKeyStore.wrap(testKeyStore());
+        Noekkelpar noekkelpar = new NoValidationNoekkelpar(keyStore, ObjectMother.SELVSIGNERT_VIRKSOMHETSSERTIFIKAT_ALIAS, ObjectMother.SELVSIGNERT_VIRKSOMHETSSERTIFIKAT_PASSORD);
+
+        Noekkelmateriale noekkelmateriale = noekkelpar.getNoekkelmateriale();
+        assertThat(noekkelpar.getVirksomhetssertifikatPrivatnoekkel(), sameInstance(noekkelmateriale.getPrivatnoekkel()));
+        assertThat(noekkelpar.getVirksomhetssertifikatPrivatnoekkel(), sameInstance(noekkelmateriale.getPrivatnoekkel()));
+        assertThat(noekkelpar.getVirksomhetssertifikat(), sameInstance(noekkelmateriale.getVirksomhetssertifikat()));
+        assertThat(noekkelpar.getVirksomhetssertifikatKjede(), arrayWithSize(1));
+        assertThat(keyStore.getKeyCount(), is(1));
+
+        noekkelpar.oppdaterNoekkelmateriale();
+
+        assertThat(noekkelpar.getNoekkelmateriale(), not(sameInstance(noekkelmateriale)));
+        assertThat(keyStore.getKeyCount(), is(2));
+    }
+
+}
@@ -0,0 +1,164 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.AdmissionStatistics;
+import no.difi.sdp.client2.Metrics;
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.exceptions.ForespoerselAvvistException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AdmissionControllerTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    public void limits_requests_per_second_with_one_second_burst() {
+        AdmissionController sut = new AdmissionController(2, ubegrenset(), 0, nanoTime::get);
+
+        sut.slippInn(Prioritet.NORMAL);
+        sut.slippInn(Prioritet.NORMAL);
+        assertThrows(ForespoerselAvvistException.class, () -> sut.slippInn(Prioritet.NORMAL));
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        sut.slippInn(Prioritet.PRIORITERT);
+
+        AdmissionStatistics statistikk = sut.statistikk();
+        assertThat(statistikk.getSluppetInn(Prioritet.NORMAL), is(2L));
+        assertThat(statistikk.getAvvist(Prioritet.NORMAL), is(1L));
+        assertThat(statistikk.getSluppetInn(Prioritet.PRIORITERT), is(1L));
+    }
+
+    @Test
+    public void reports_wait_time_and_rejections_to_metrics() {
+        List<String> maalinger = new CopyOnWriteArrayList<>();
+        AdmissionController sut = new AdmissionController(1, ubegrenset(), TimeUnit.MILLISECONDS.toNanos(2000), nanoTime::get, new Metrics() {
+            @Override
+            public void sluppetInn(Prioritet prioritet, long ventetidNanos) {
+                maalinger.add("sluppet inn " + prioritet + " etter " + TimeUnit.NANOSECONDS.toMillis(ventetidNanos) + " ms");
+            }
+
+            @Override
+            public void avvist(Prioritet prioritet, long ventetidNanos) {
+                maalinger.add("avvist " + prioritet + " etter " + TimeUnit.NANOSECONDS.toMillis(ventetidNanos) + " ms");
+            }
+        });
+
+        sut.slippInn(Prioritet.NORMAL);
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        sut.slippInn(Prioritet.NORMAL);
+        AdmissionController avviser = new AdmissionController(1, ubegrenset(), 0, nanoTime::get, new Metrics() {
+            @Override
+            public void avvist(Prioritet prioritet, long ventetidNanos) {
+                maalinger.add("avvist " + prioritet);
+            }
+        });
+        avviser.slippInn(Prioritet.PRIORITERT);
+        assertThrows(ForespoerselAvvistException.class, () -> avviser.slippInn(Prioritet.PRIORITERT));
+
+        assertThat(maalinger, contains("sluppet inn NORMAL etter 0 ms", "sluppet inn NORMAL etter 0 ms", "avvist PRIORITERT"));
+    }
+
+    @Test
+    public void calls_metrics_without_holding_the_lock() {
+        AtomicReference<AdmissionController> sut = new AtomicReference<>();
+        List<Long> tellingerSettFraAnnenTraad = new CopyOnWriteArrayList<>();
+        sut.set(new AdmissionController(1, ubegrenset(), 0, nanoTime::get, new Metrics() {
+            @Override
+            public void sluppetInn(Prioritet prioritet, long ventetidNanos) {
+                tellingerSettFraAnnenTraad.add(statistikkFraAnnenTraad(sut.get()).getSluppetInn(prioritet));
+            }
+
+            @Override
+            public void avvist(Prioritet prioritet, long ventetidNanos) {
+                tellingerSettFraAnnenTraad.add(statistikkFraAnnenTraad(sut.get()).getAvvist(prioritet));
+            }
+        }));
+
+        sut.get().slippInn(Prioritet.NORMAL);
+        assertThrows(ForespoerselAvvistException.class, () -> sut.get().slippInn(Prioritet.NORMAL));
+
+        assertThat(tellingerSettFraAnnenTraad, contains(1L, 1L));
+    }
+
+    @Test
+    public void limits_in_flight_requests_per_prioritet() {
+        Map<Prioritet, Integer> maksPaagaaende = ubegrenset();
+        maksPaagaaende.put(Prioritet.NORMAL, 1);
+        AdmissionController sut = new AdmissionController(0, maksPaagaaende, TimeUnit.MILLISECONDS.toNanos(20), System::nanoTime);
+
+        sut.slippInn(Prioritet.NORMAL);
+        assertThrows(ForespoerselAvvistException.class, () -> sut.slippInn(Prioritet.NORMAL));
+        sut.slippInn(Prioritet.PRIORITERT);
+
+        sut.ferdig(Prioritet.NORMAL);
+        sut.slippInn(Prioritet.NORMAL);
+
+        AdmissionStatistics statistikk = sut.statistikk();
+        assertThat(statistikk.getPaagaaende(Prioritet.NORMAL), is(1));
+        assertThat(statistikk.getAvvist(Prioritet.NORMAL), is(1L));
+        assertThat(statistikk.getLengsteVentetid(Prioritet.NORMAL).compareTo(Duration.ofMillis(20)) >= 0, is(true));
+    }
+
+    @Test
+    public void waiting_prioritert_request_gets_next_token_before_normal_request_that_came_first() throws InterruptedException {
+        AdmissionController sut = new AdmissionController(1, ubegrenset(), TimeUnit.SECONDS.toNanos(30), nanoTime::get);
+        sut.slippInn(Prioritet.NORMAL);
+
+        Thread normal = new Thread(() -> sut.slippInn(Prioritet.NORMAL));
+        normal.start();
+        vent(() -> sut.statistikk().getVentende(Prioritet.NORMAL) == 1);
+        Thread prioritert = new Thread(() -> sut.slippInn(Prioritet.PRIORITERT));
+        prioritert.start();
+        vent(() -> sut.statistikk().getVentende(Prioritet.PRIORITERT) == 1);
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        sut.ferdig(Prioritet.NORMAL);
+        prioritert.join(5000);
+        assertThat(prioritert.isAlive(), is(false));
+        assertThat(sut.statistikk().getVentende(Prioritet.NORMAL), is(1));
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        sut.ferdig(Prioritet.PRIORITERT);
+        normal.join(5000);
+        assertThat(normal.isAlive(), is(false));
+        assertThat(sut.statistikk().getSluppetInn(Prioritet.NORMAL), is(2L));
+    }
+
+    private static AdmissionStatistics statistikkFraAnnenTraad(AdmissionController sut) {
+        try {
+            return CompletableFuture.supplyAsync(sut::statistikk).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new AssertionError("Kunne ikke hente statistikk mens Metrics ble kalt", e);
+        }
+    }
+
+    private static Map<Prioritet, Integer> ubegrenset() {
+        Map<Prioritet, Integer> maksPaagaaende = new EnumMap<>(Prioritet.class);
+        for (Prioritet prioritet : Prioritet.values()) {
+            maksPaagaaende.put(prioritet, Integer.MAX_VALUE);
+        }
+        return maksPaagaaende;
+    }
+
+    private static void vent(BooleanSupplier betingelse) throws InterruptedException {
+        for (int i = 0; i < 500 && !betingelse.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(betingelse.getAsBoolean(), is(true));
+    }
+}
@@ -0,0 +1,150 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.CircuitBreakerListener.Operasjon;
+import no.difi.sdp.client2.CircuitBreakerListener.Tilstand;
+import no.difi.sdp.client2.CircuitBreakerPolicy;
+import no.difi.sdp.client2.domain.exceptions.MeldingsformidlerUtilgjengeligException;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static no.difi.sdp.client2.CircuitBreakerListener.Operasjon.HENT_KVITTERING;
+import static no.difi.sdp.client2.CircuitBreakerListener.Operasjon.SEND;
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.KLIENT;
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.SERVER;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CircuitBreakersTest {
+
+    private static final URI ENDEPUNKT = URI.create("https://meldingsformidler.example");
+    private static final SendException SERVERFEIL = new SendException("Feil", SERVER, null);
+    private static final long RASK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final List<String> overganger = new CopyOnWriteArrayList<>();
+
+    private final CircuitBreakers sut = new CircuitBreakers(ENDEPUNKT, CircuitBreakerPolicy.builder()
+            .vindu(4, 4)
+            .feilrate(0.5)
+            .treghet(Duration.ofSeconds(1), 0.75)
+            .aapen(Duration.ofSeconds(30), 2)
+            .lytter((endepunkt, operasjon, fra, til) -> overganger.add(operasjon + ": " + fra + " -> " + til))
+            .build(), nanoTime::get);
+
+    @Test
+    public void opens_on_error_rate_per_operasjon_and_fails_fast() {
+        kall(SEND, null);
+        kall(SEND, SERVERFEIL);
+        kall(SEND, null);
+        assertThat(sut.getTilstand(SEND), is(Tilstand.LUKKET));
+        kall(SEND, SERVERFEIL);
+
+        assertThat(sut.getTilstand(SEND), is(Tilstand.AAPEN));
+        assertThrows(MeldingsformidlerUtilgjengeligException.class, () -> sut.slippInn(SEND));
+        sut.slippInn(HENT_KVITTERING);
+        assertThat(overganger, contains("SEND: LUKKET -> AAPEN"));
+    }
+
+    @Test
+    public void does_not_count_errors_caused_by_the_client() {
+        for (int i = 0; i < 8; i++) {
+            kall(SEND, new SendException("Ugyldig forsendelse", KLIENT, null));
+        }
+        assertThat(sut.getTilstand(SEND), is(Tilstand.LUKKET));
+    }
+
+    @Test
+    public void opens_on_slow_requests() {
+        for (int i = 0; i < 3; i++) {
+            sut.registrer(SEND, sut.slippInn(SEND), null, TimeUnit.SECONDS.toNanos(2));
+        }
+        kall(SEND, null);
+
+        assertThat(sut.getTilstand(SEND), is(Tilstand.AAPEN));
+    }
+
+    @Test
+    public void lets_limited_number_of_probes_through_when_half_open_and_closes_when_they_succeed() {
+        aapne();
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        long foersteProeve = sut.slippInn(SEND);
+        long andreProeve = sut.slippInn(SEND);
+        assertThat(sut.getTilstand(SEND), is(Tilstand.HALVAAPEN));
+        assertThrows(MeldingsformidlerUtilgjengeligException.class, () -> sut.slippInn(SEND));
+
+        sut.registrer(SEND, foersteProeve, null, RASK);
+        sut.registrer(SEND, andreProeve, null, RASK);
+
+        assertThat(sut.getTilstand(SEND), is(Tilstand.LUKKET));
+        assertThat(overganger, contains("SEND: LUKKET -> AAPEN", "SEND: AAPEN -> HALVAAPEN", "SEND: HALVAAPEN -> LUKKET"));
+    }
+
+    @Test
+    public void opens_again_when_a_probe_fails() {
+        aapne();
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        kall(SEND, SERVERFEIL);
+
+        assertThat(sut.getTilstand(SEND), is(Tilstand.AAPEN));
+        assertThrows(MeldingsformidlerUtilgjengeligException.class, () -> sut.slippInn(SEND));
+    }
+
+    @Test
+    public void probe_that_was_never_sent_does_not_use_up_a_probe() {
+        aapne();
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        sut.avbrutt(SEND, sut.slippInn(SEND));
+        sut.slippInn(SEND);
+        sut.slippInn(SEND);
+    }
+
+    @Test
+    public void late_outcome_of_request_let_in_before_opening_is_not_counted_as_a_probe() {
+        long sendtFoerAapning = sut.slippInn(SEND);
+        aapne();
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        long proeve = sut.slippInn(SEND);
+
+        sut.registrer(SEND, sendtFoerAapning, null, RASK);
+        sut.registrer(SEND, sendtFoerAapning, null, RASK);
+        assertThat(sut.getTilstand(SEND), is(Tilstand.HALVAAPEN));
+
+        sut.avbrutt(SEND, sendtFoerAapning);
+        sut.slippInn(SEND);
+        assertThrows(MeldingsformidlerUtilgjengeligException.class, () -> sut.slippInn(SEND));
+
+        sut.registrer(SEND, proeve, SERVERFEIL, RASK);
+        assertThat(sut.getTilstand(SEND), is(Tilstand.AAPEN));
+    }
+
+    @Test
+    public void no_policy_lets_everything_through() {
+        CircuitBreakers ingen = new CircuitBreakers(ENDEPUNKT, CircuitBreakerPolicy.INGEN, nanoTime::get);
+        for (int i = 0; i < 100; i++) {
+            ingen.registrer(SEND, ingen.slippInn(SEND), SERVERFEIL, RASK);
+        }
+        assertThat(ingen.getTilstand(SEND), is(Tilstand.LUKKET));
+    }
+
+    private void aapne() {
+        for (int i = 0; i < 4; i++) {
+            kall(SEND, SERVERFEIL);
+        }
+    }
+
+    private void kall(Operasjon operasjon, SendException feil) {
+        sut.registrer(operasjon, sut.slippInn(operasjon), feil, RASK);
+    }
+}
@@ -9,6 +9,8 @@ import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.security.PrivateKey;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -42,4 +44,20 @@ public class CreateCMSDocumentTest {
         assertThat(decryptedContent, equalTo("message".getBytes()));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void streamed_cms_can_be_decrypted_by_recipient() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (OutputStream cms = sut.createCMS(target, sertifikat)) {
+            cms.write("message".getBytes());
+        }
+
+        CMSEnvelopedDataParser cmsEnvelopeParser = new CMSEnvelopedDataParser(target.toByteArray());
+        JceKeyTransEnvelopedRecipient keyDecoder = new JceKeyTransEnvelopedRecipient(privateKey);
+
+        RecipientInformation recInfo = cmsEnvelopeParser.getRecipientInfos().getRecipients().iterator().next();
+        byte[] decryptedContent = recInfo.getContent(keyDecoder);
+
+        assertThat(decryptedContent, equalTo("message".getBytes()));
+    }
+
+}
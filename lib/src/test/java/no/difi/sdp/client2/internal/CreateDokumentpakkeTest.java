@@ -0,0 +1,107 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.Metrics;
+import no.difi.sdp.client2.asice.ArchivedASiCE;
+import no.difi.sdp.client2.domain.Miljo;
+import no.digipost.api.representations.Dokumentpakke;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static no.difi.sdp.client2.ObjectMother.databehandler;
+import static no.difi.sdp.client2.ObjectMother.forsendelse;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class CreateDokumentpakkeTest {
+
+    @TempDir
+    File tempDirectory;
+
+    @Test
+    public void streaming_dokumentpakke_is_kept_in_memory_when_smaller_than_buffer() throws Exception {
+        CreateDokumentpakke sut = new CreateDokumentpakke(konfigurasjon(1024 * 1024));
+
+        Billable<Dokumentpakke> dokumentpakke = sut.createDokumentpakke(databehandler(), forsendelse());
+
+        assertThat(dokumentpakke.entity, instanceOf(BufferedDokumentpakke.class));
+        assertThat(((BufferedDokumentpakke) dokumentpakke.entity).getSize(), is(not(0L)));
+        assertThat(tempDirectory.listFiles(), emptyArray());
+    }
+
+    @Test
+    public void streaming_dokumentpakke_spills_to_temporary_file_which_is_deleted_when_closed() throws Exception {
+        CreateDokumentpakke sut = new CreateDokumentpakke(konfigurasjon(16));
+
+        Billable<Dokumentpakke> dokumentpakke = sut.createDokumentpakke(databehandler(), forsendelse());
+
+        assertThat(tempDirectory.listFiles(), arrayWithSize(1));
+        ((BufferedDokumentpakke) dokumentpakke.entity).close();
+        assertThat(tempDirectory.listFiles(), emptyArray());
+    }
+
+    @Test
+    public void streaming_dokumentpakke_can_be_read_several_times_and_matches_its_digest() throws Exception {
+        CreateDokumentpakke sut = new CreateDokumentpakke(konfigurasjon(16));
+
+        try (BufferedDokumentpakke dokumentpakke = (BufferedDokumentpakke) sut.createDokumentpakke(databehandler(), forsendelse()).entity) {
+            byte[] sha256 = dokumentpakke.getSHA256();
+            try (InputStream first = dokumentpakke.getInputStream(); InputStream second = dokumentpakke.getInputStream()) {
+                assertThat(DigestUtils.sha256(first), equalTo(sha256));
+                assertThat(DigestUtils.sha256(second), equalTo(sha256));
+            }
+        }
+    }
+
+    @Test
+    public void signed_asice_spills_to_temporary_file_which_is_deleted_when_closed() throws Exception {
+        CreateDokumentpakke sut = new CreateDokumentpakke(konfigurasjon(16));
+
+        ArchivedASiCE archivedASiCE = sut.createAsice(databehandler(), forsendelse());
+        assertThat(tempDirectory.listFiles(), arrayWithSize(1));
+        assertThat(archivedASiCE.size(), is((long) archivedASiCE.getBytes().length));
+
+        try (BufferedDokumentpakke dokumentpakke = (BufferedDokumentpakke) sut.createDokumentpakke(archivedASiCE, forsendelse().getTekniskMottaker().sertifikat).entity) {
+            assertThat(tempDirectory.listFiles(), arrayWithSize(2));
+            archivedASiCE.close();
+            assertThat(tempDirectory.listFiles(), arrayWithSize(1));
+        }
+        assertThat(tempDirectory.listFiles(), emptyArray());
+    }
+
+    @Test
+    public void reports_time_spent_in_each_step() {
+        List<Metrics.Steg> steg = new CopyOnWriteArrayList<>();
+        CreateDokumentpakke sut = new CreateDokumentpakke(KlientKonfigurasjon.builder(Miljo.FUNKSJONELT_TESTMILJO)
+                .metrics(new Metrics() {
+                    @Override
+                    public void tid(Steg s, long nanos) {
+                        steg.add(s);
+                    }
+                })
+                .build());
+
+        sut.createDokumentpakke(databehandler(), forsendelse());
+
+        assertThat(steg, contains(Metrics.Steg.MANIFEST, Metrics.Steg.SIGNERING, Metrics.Steg.ZIP, Metrics.Steg.KRYPTERING));
+    }
+
+    private KlientKonfigurasjon konfigurasjon(int dokumentpakkeBufferSize) {
+        return KlientKonfigurasjon.builder(Miljo.FUNKSJONELT_TESTMILJO)
+                .dokumentpakkeBufferSize(dokumentpakkeBufferSize)
+                .tempDirectory(tempDirectory)
+                .build();
+    }
+}
@@ -0,0 +1,33 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.ObjectMother;
+import no.difi.sdp.client2.asice.manifest.CreateManifest;
+import org.junit.jupiter.api.Test;
+import org.springframework.xml.validation.XmlValidator;
+
+import javax.xml.transform.stream.StreamSource;
+
+import java.io.ByteArrayInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class PayloadSchemaCollectionTest {
+
+    @Test
+    public void shares_one_validator_for_all_interceptors() {
+        assertThat(PayloadSchemaCollection.INSTANCE.createValidator(), sameInstance(PayloadSchemaCollection.INSTANCE.createValidator()));
+    }
+
+    @Test
+    public void returns_validation_errors_instead_of_throwing() throws Exception {
+        XmlValidator validator = PayloadSchemaCollection.INSTANCE.createValidator();
+        byte[] manifest = new CreateManifest().createManifest(ObjectMother.forsendelse()).getBytes();
+
+        assertThat(validator.validate(new StreamSource(new ByteArrayInputStream(manifest))), emptyArray());
+        assertThat(validator.validate(new StreamSource(new ByteArrayInputStream("<ukjent/>".getBytes(UTF_8)))), arrayWithSize(1));
+    }
+}
@@ -0,0 +1,98 @@
+package no.difi.sdp.client2.internal;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.transport.WebServiceConnection;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class StreamingMessageSenderTest {
+
+    @TempDir
+    File tempDirectory;
+
+    private HttpServer server;
+    private final AtomicReference<byte[]> mottatt = new AtomicReference<>();
+    private final AtomicReference<String> contentLength = new AtomicReference<>();
+
+    @BeforeEach
+    public void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            contentLength.set(exchange.getRequestHeaders().getFirst("Content-Length"));
+            try (InputStream body = exchange.getRequestBody()) {
+                mottatt.set(IOUtils.toByteArray(body));
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopp() {
+        server.stop(0);
+    }
+
+    @Test
+    public void streams_message_from_temporary_file_with_known_length_and_deletes_it_when_closed() throws Exception {
+        byte[] melding = new byte[100_000];
+        new Random(42).nextBytes(melding);
+
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            StreamingMessageSender sender = new StreamingMessageSender(httpClient, 1024, tempDirectory);
+            WebServiceConnection connection = sender.createConnection(URI.create("http://localhost:" + server.getAddress().getPort() + "/"));
+            try {
+                connection.send(melding(melding));
+                assertThat(tempDirectory.listFiles(), arrayWithSize(1));
+            } finally {
+                connection.close();
+            }
+        }
+
+        assertThat(mottatt.get(), equalTo(melding));
+        assertThat(contentLength.get(), is(String.valueOf(melding.length)));
+        assertThat(tempDirectory.listFiles(), emptyArray());
+    }
+
+    private static WebServiceMessage melding(byte[] innhold) {
+        return new WebServiceMessage() {
+            @Override
+            public Source getPayloadSource() {
+                return null;
+            }
+
+            @Override
+            public Result getPayloadResult() {
+                return null;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws java.io.IOException {
+                outputStream.write(innhold);
+            }
+        };
+    }
+}
@@ -0,0 +1,49 @@
+package no.difi.sdp.client2.internal;
+
+import no.difi.sdp.client2.domain.Valideringsmodus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class XmlValideringTest {
+
+    @Test
+    public void always_validates_every_dokumentpakke() {
+        assertThat(beslutninger(new XmlValidering(Valideringsmodus.ALWAYS, 3), 5), everyItem(is(true)));
+    }
+
+    @Test
+    public void sampled_validates_first_and_every_nth_dokumentpakke() {
+        assertThat(beslutninger(new XmlValidering(Valideringsmodus.SAMPLED, 3), 7), is(asList(true, false, false, true, false, false, true)));
+    }
+
+    @Test
+    public void off_after_warmup_validates_only_the_first_dokumentpakker() {
+        assertThat(beslutninger(new XmlValidering(Valideringsmodus.OFF_AFTER_WARMUP, 2), 5), is(asList(true, true, false, false, false)));
+    }
+
+    @Test
+    public void off_never_validates() {
+        assertThat(beslutninger(new XmlValidering(Valideringsmodus.OFF, 1), 3), everyItem(is(false)));
+    }
+
+    @Test
+    public void rejects_antall_below_one() {
+        assertThrows(IllegalArgumentException.class, () -> new XmlValidering(Valideringsmodus.SAMPLED, 0));
+    }
+
+    private static List<Boolean> beslutninger(XmlValidering xmlValidering, int antallDokumentpakker) {
+        List<Boolean> beslutninger = new ArrayList<>();
+        for (int i = 0; i < antallDokumentpakker; i++) {
+            beslutninger.add(xmlValidering.skalValidere());
+        }
+        return beslutninger;
+    }
+}
@@ -0,0 +1,249 @@
+package no.difi.sdp.client2.lokal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import no.difi.begrep.sdp.schema_v10.SDPFeiltype;
+import no.difi.begrep.sdp.schema_v10.SDPVarslingskanal;
+import no.difi.sdp.client2.lokal.Kvitteringskoe.Kvittering;
+import no.difi.sdp.client2.lokal.LokalMeldingsformidler.Kvitteringstype;
+import no.digipost.api.EbmsReferenceExtractor;
+import no.digipost.api.MessageFactorySupplier;
+import no.digipost.api.PMode;
+import no.digipost.api.SdpMeldingSigner;
+import no.digipost.api.interceptors.KeyStoreInfo;
+import no.digipost.api.interceptors.WsSecurityInterceptor;
+import no.digipost.api.interceptors.steps.AddReferencesStep;
+import no.digipost.api.interceptors.steps.AddUserMessageStep;
+import no.digipost.api.representations.ApplikasjonsKvitteringBuilder;
+import no.digipost.api.representations.EbmsAktoer;
+import no.digipost.api.representations.EbmsContext;
+import no.digipost.api.representations.Mpc;
+import no.digipost.api.representations.SimpleStandardBusinessDocument;
+import no.digipost.api.xml.Constants;
+import no.digipost.api.xml.Marshalling;
+import no.digipost.org.oasis_open.docs.ebxml_msg.ebms.v3_0.ns.core._200704.Error;
+import no.digipost.org.oasis_open.docs.ebxml_msg.ebms.v3_0.ns.core._200704.MessageInfo;
+import no.digipost.org.oasis_open.docs.ebxml_msg.ebms.v3_0.ns.core._200704.Messaging;
+import no.digipost.org.oasis_open.docs.ebxml_msg.ebms.v3_0.ns.core._200704.SignalMessage;
+import no.digipost.org.oasis_open.docs.ebxml_msg.ebms.v3_0.ns.core._200704.UserMessage;
+import no.digipost.org.unece.cefact.namespaces.standardbusinessdocumentheader.StandardBusinessDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+import org.springframework.ws.context.DefaultMessageContext;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.soap.SoapHeaderElement;
+import org.springframework.ws.soap.SoapMessage;
+import org.springframework.ws.soap.SoapVersion;
+import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessageFactory;
+import org.w3c.dom.Element;
+
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.transform.dom.DOMSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+
+/**
+ * Tar imot ebMS-meldinger fra klienten og svarer som meldingsformidler: forsendelser gir en transportkvittering og
+ * legger forretningskvitteringer i køen, kun første gang en meldingsId mottas, pull requests henter neste kvittering fra køen, og kvitteringer fra klienten
+ * bekrefter en utlevert kvittering. Signaturen på forespørslene valideres ikke.
+ */
+final class EbmsHandler implements HttpHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EbmsHandler.class);
+    private static final String WSU_NAMESPACE = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd";
+    private static final String INGEN_MELDINGER_TILGJENGELIG = "EBMS:0006";
+
+    private final LokalMeldingsformidler konfigurasjon;
+    private final Kvitteringskoe kvitteringskoe;
+    private final EbmsAktoer meldingsformidler;
+    private final Jaxb2Marshaller marshaller = Marshalling.getMarshallerSingleton();
+    private final EbmsReferenceExtractor referenceExtractor = new EbmsReferenceExtractor(marshaller);
+    private final SdpMeldingSigner signer;
+    private final WsSecurityInterceptor wsSecurity;
+    private final MessageFactory messageFactory;
+    private final SaajSoapMessageFactory soapMessageFactory;
+    private final AtomicLong antallForsendelser = new AtomicLong();
+    private final Set<String> mottatteMeldingsIder = ConcurrentHashMap.newKeySet();
+
+    EbmsHandler(LokalMeldingsformidler konfigurasjon, Kvitteringskoe kvitteringskoe, LokaltSertifikat sertifikat) {
+        this.konfigurasjon = konfigurasjon;
+        this.kvitteringskoe = kvitteringskoe;
+        this.meldingsformidler = EbmsAktoer.meldingsformidler(LokalMeldingsformidler.ORGANISASJONSNUMMER);
+
+        KeyStoreInfo keyStoreInfo = new KeyStoreInfo(sertifikat.keyStore, LokaltSertifikat.ALIAS, LokaltSertifikat.PASSORD);
+        this.signer = new SdpMeldingSigner(keyStoreInfo, marshaller);
+        this.wsSecurity = new WsSecurityInterceptor(keyStoreInfo, null);
+        wsSecurity.afterPropertiesSet();
+        try {
+            this.messageFactory = MessageFactorySupplier.defaultIfNull(null).createMessageFactory();
+        } catch (Exception e) {
+            throw new IllegalStateException("Kunne ikke opprette SOAP MessageFactory", e);
+        }
+        this.soapMessageFactory = new SaajSoapMessageFactory(messageFactory);
+        soapMessageFactory.setSoapVersion(SoapVersion.SOAP_12);
+        soapMessageFactory.afterPropertiesSet();
+    }
+
+    long getAntallForsendelser() {
+        return antallForsendelser.get();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (InputStream forespoersel = exchange.getRequestBody()) {
+            forsink();
+            if (konfigurasjon.getFeilandel() > 0 && ThreadLocalRandom.current().nextDouble() < konfigurasjon.getFeilandel()) {
+                svarMedFeil(exchange, konfigurasjon.getFeilsvar(), "Feil lagt inn av lokal meldingsformidler");
+                return;
+            }
+
+            MimeHeaders mimeHeaders = new MimeHeaders();
+            mimeHeaders.addHeader("Content-Type", exchange.getRequestHeaders().getFirst("Content-Type"));
+            SaajSoapMessage request = new SaajSoapMessage(messageFactory.createMessage(mimeHeaders, forespoersel), messageFactory);
+            MessageContext messageContext = new DefaultMessageContext(request, soapMessageFactory);
+            SoapMessage response = (SoapMessage) messageContext.getResponse();
+
+            Messaging messaging = Marshalling.unmarshal(marshaller, messagingHeader(request), Messaging.class);
+            SoapHeaderElement responseMessaging = response.getSoapHeader().addHeaderElement(Constants.MESSAGING_QNAME);
+            responseMessaging.setMustUnderstand(true);
+            EbmsContext ebmsContext = EbmsContext.from(messageContext);
+
+            if (!messaging.getUserMessages().isEmpty()) {
+                mottaForsendelse(messaging.getUserMessages().get(0), request, ebmsContext, responseMessaging, response);
+            } else {
+                for (SignalMessage signal : messaging.getSignalMessages()) {
+                    if (signal.getReceipt() != null) {
+                        kvitteringskoe.bekreft(signal.getMessageInfo().getRefToMessageId());
+                    }
+                }
+                for (SignalMessage signal : messaging.getSignalMessages()) {
+                    if (signal.getPullRequest() != null) {
+                        utleverKvittering(signal, ebmsContext, responseMessaging, response);
+                    }
+                }
+            }
+
+            wsSecurity.handleResponse(messageContext, null);
+            skriv(exchange, HTTP_OK, response);
+        } catch (Exception e) {
+            LOG.warn("Kunne ikke behandle forespørsel til lokal meldingsformidler: {}", e.toString(), e);
+            svarMedFeil(exchange, LokalMeldingsformidler.Feilsvar.SOAP_FAULT, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void mottaForsendelse(UserMessage userMessage, SoapMessage request, EbmsContext ebmsContext, SoapHeaderElement responseMessaging, SoapMessage response) {
+        String meldingsId = userMessage.getMessageInfo().getMessageId();
+        new AddReferencesStep(marshaller, meldingsId, referenceExtractor.getReferences(request).values())
+                .apply(ebmsContext, responseMessaging, response);
+        if (!mottatteMeldingsIder.add(meldingsId)) {
+            // Sendt på nytt, f.eks. fordi klienten ikke fikk svaret. Får ny transportkvittering, men ingen nye kvitteringer.
+            LOG.debug("Forsendelse med meldingsId {} er allerede mottatt", meldingsId);
+            return;
+        }
+        antallForsendelser.incrementAndGet();
+
+        StandardBusinessDocument forsendelse = Marshalling.unmarshal(marshaller, request.getSoapBody(), StandardBusinessDocument.class);
+        SimpleStandardBusinessDocument sbd = new SimpleStandardBusinessDocument(forsendelse);
+        Mpc mpc = Mpc.from(userMessage.getMpc());
+        EbmsAktoer databehandler = EbmsAktoer.from(userMessage.getPartyInfo().getFrom());
+        for (Kvitteringstype type : konfigurasjon.getKvitteringer()) {
+            String kvitteringMeldingsId = UUID.randomUUID().toString();
+            ApplikasjonsKvitteringBuilder kvittering = ApplikasjonsKvitteringBuilder.create(meldingsformidler, databehandler, sbd.getSender(),
+                    kvitteringMeldingsId, sbd.getConversationId(), UUID.randomUUID().toString(), ZonedDateTime.now())
+                    .medPrioritet(mpc.prioritet)
+                    .medTidspunkt(ZonedDateTime.now());
+            switch (type) {
+                case MOTTAK: kvittering.medMottak(); break;
+                case LEVERING: kvittering.medLevering(); break;
+                case AAPNING: kvittering.medAapning(); break;
+                case RETURPOST: kvittering.medReturpost(); break;
+                case VARSLING_FEILET: kvittering.medVarslingfeilet(SDPVarslingskanal.EPOST, "Varsling feilet i lokal meldingsformidler"); break;
+                case FEIL: kvittering.medFeil(SDPFeiltype.KLIENT, "Feil fra lokal meldingsformidler"); break;
+                default: throw new IllegalArgumentException("Ukjent kvitteringstype " + type);
+            }
+            kvitteringskoe.leggTil(new Kvittering(kvitteringMeldingsId, meldingsId, mpc, databehandler, kvittering.build().sbd));
+        }
+    }
+
+    private void utleverKvittering(SignalMessage pullRequest, EbmsContext ebmsContext, SoapHeaderElement responseMessaging, SoapMessage response) {
+        Kvittering kvittering = kvitteringskoe.hent(Mpc.from(pullRequest.getPullRequest().getMpc()));
+        if (kvittering == null) {
+            SignalMessage ingenKvitteringer = new SignalMessage()
+                    .withMessageInfo(new MessageInfo(ZonedDateTime.now(), UUID.randomUUID().toString(), pullRequest.getMessageInfo().getMessageId()))
+                    .withErrors(new Error()
+                            .withErrorCode(INGEN_MELDINGER_TILGJENGELIG)
+                            .withSeverity("warning")
+                            .withShortDescription("EmptyMessagePartitionChannel")
+                            .withOrigin("ebMS")
+                            .withCategory("Communication")
+                            .withRefToMessageInError(pullRequest.getMessageInfo().getMessageId()));
+            Marshalling.marshal(marshaller, responseMessaging, Constants.SIGNAL_MESSAGE_QNAME, ingenKvitteringer);
+            return;
+        }
+
+        Element body = (Element) ((DOMSource) response.getSoapBody().getSource()).getNode();
+        body.setAttributeNS(WSU_NAMESPACE, "wsu:Id", "soapBody");
+        body.setIdAttributeNS(WSU_NAMESPACE, "Id", true);
+        Marshalling.marshal(signer.sign(kvittering.sbd), response.getSoapBody().getPayloadResult());
+        new AddUserMessageStep(kvittering.mpc, kvittering.meldingsId, PMode.Action.KVITTERING, kvittering.referanseTilMeldingId,
+                kvittering.sbd, meldingsformidler, kvittering.mottaker, marshaller)
+                .apply(ebmsContext, responseMessaging, response);
+    }
+
+    private void forsink() throws InterruptedException {
+        long min = konfigurasjon.getMinForsinkelse().toNanos();
+        long maks = konfigurasjon.getMaksForsinkelse().toNanos();
+        if (maks > 0) {
+            TimeUnit.NANOSECONDS.sleep(min == maks ? min : ThreadLocalRandom.current().nextLong(min, maks));
+        }
+    }
+
+    private void svarMedFeil(HttpExchange exchange, LokalMeldingsformidler.Feilsvar feilsvar, String melding) throws IOException {
+        if (feilsvar == LokalMeldingsformidler.Feilsvar.HTTP_503) {
+            exchange.sendResponseHeaders(HTTP_UNAVAILABLE, -1);
+            return;
+        }
+        SoapMessage fault = soapMessageFactory.createWebServiceMessage();
+        fault.getSoapBody().addServerOrReceiverFault(melding, Locale.ENGLISH);
+        skriv(exchange, HTTP_INTERNAL_ERROR, fault);
+    }
+
+    private static void skriv(HttpExchange exchange, int status, SoapMessage message) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        message.writeTo(buffer);
+        String[] contentType = ((SaajSoapMessage) message).getSaajMessage().getMimeHeaders().getHeader("Content-Type");
+        exchange.getResponseHeaders().set("Content-Type", contentType != null ? contentType[0] : "application/soap+xml; charset=utf-8");
+        exchange.sendResponseHeaders(status, buffer.size());
+        try (OutputStream body = exchange.getResponseBody()) {
+            buffer.writeTo(body);
+        }
+    }
+
+    private static SoapHeaderElement messagingHeader(SoapMessage request) {
+        Iterator<SoapHeaderElement> headere = request.getSoapHeader().examineHeaderElements(Constants.MESSAGING_QNAME);
+        if (!headere.hasNext()) {
+            throw new IllegalArgumentException("Forespørselen mangler ebMS Messaging-header");
+        }
+        return headere.next();
+    }
+}
@@ -0,0 +1,108 @@
+package no.difi.sdp.client2.lokal;
+
+import no.digipost.api.representations.EbmsAktoer;
+import no.digipost.api.representations.Mpc;
+import no.digipost.org.unece.cefact.namespaces.standardbusinessdocumentheader.StandardBusinessDocument;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Kvitteringer som venter på å bli hentet, i én kø per MPC, som hos meldingsformidler. En utlevert kvittering holdes
+ * til den er bekreftet, men leveres ikke ut på nytt. Med {@code ventPaaBekreftelse} leveres ingen flere kvitteringer
+ * på en MPC før den utleverte er bekreftet.
+ */
+final class Kvitteringskoe {
+
+    static final class Kvittering {
+        final String meldingsId;
+        final String referanseTilMeldingId;
+        final Mpc mpc;
+        final EbmsAktoer mottaker;
+        final StandardBusinessDocument sbd;
+
+        Kvittering(String meldingsId, String referanseTilMeldingId, Mpc mpc, EbmsAktoer mottaker, StandardBusinessDocument sbd) {
+            this.meldingsId = meldingsId;
+            this.referanseTilMeldingId = referanseTilMeldingId;
+            this.mpc = mpc;
+            this.mottaker = mottaker;
+            this.sbd = sbd;
+        }
+    }
+
+    private static final class Partisjon {
+        final Queue<Kvittering> koe = new ArrayDeque<>();
+        int ubekreftede = 0;
+    }
+
+    private final boolean ventPaaBekreftelse;
+    private final Map<Mpc, Partisjon> partisjoner = new ConcurrentHashMap<>();
+    private final Map<String, Kvittering> utleverte = new ConcurrentHashMap<>();
+    private final AtomicLong ventende = new AtomicLong();
+    private final AtomicLong antallUtleverte = new AtomicLong();
+    private final AtomicLong antallBekreftede = new AtomicLong();
+
+    Kvitteringskoe(boolean ventPaaBekreftelse) {
+        this.ventPaaBekreftelse = ventPaaBekreftelse;
+    }
+
+    void leggTil(Kvittering kvittering) {
+        Partisjon partisjon = partisjoner.computeIfAbsent(kvittering.mpc, mpc -> new Partisjon());
+        synchronized (partisjon) {
+            partisjon.koe.add(kvittering);
+        }
+        ventende.incrementAndGet();
+    }
+
+    /**
+     * @return neste kvittering på MPC-en, eller {@code null} om køen er tom eller MPC-en venter på bekreftelse av en
+     *         tidligere utlevert kvittering.
+     */
+    Kvittering hent(Mpc mpc) {
+        Partisjon partisjon = partisjoner.get(mpc);
+        if (partisjon == null) {
+            return null;
+        }
+        Kvittering kvittering;
+        synchronized (partisjon) {
+            if (ventPaaBekreftelse && partisjon.ubekreftede > 0) {
+                return null;
+            }
+            kvittering = partisjon.koe.poll();
+            if (kvittering == null) {
+                return null;
+            }
+            partisjon.ubekreftede++;
+            utleverte.put(kvittering.meldingsId, kvittering);
+        }
+        ventende.decrementAndGet();
+        antallUtleverte.incrementAndGet();
+        return kvittering;
+    }
+
+    void bekreft(String meldingsId) {
+        Kvittering kvittering = utleverte.remove(meldingsId);
+        if (kvittering != null) {
+            Partisjon partisjon = partisjoner.get(kvittering.mpc);
+            synchronized (partisjon) {
+                partisjon.ubekreftede--;
+            }
+            antallBekreftede.incrementAndGet();
+        }
+    }
+
+    long getAntallVentende() {
+        return ventende.get();
+    }
+
+    long getAntallUtleverte() {
+        return antallUtleverte.get();
+    }
+
+    long getAntallBekreftede() {
+        return antallBekreftede.get();
+    }
+}
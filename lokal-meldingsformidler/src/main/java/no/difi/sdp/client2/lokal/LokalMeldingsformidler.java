@@ -0,0 +1,284 @@
+package no.difi.sdp.client2.lokal;
+
+import com.sun.net.httpserver.HttpServer;
+import no.difi.sdp.client2.domain.Miljo;
+import no.difi.sdp.client2.domain.Noekkelpar;
+import no.difi.sdp.client2.domain.exceptions.KonfigurasjonException;
+import no.difi.sdp.client2.domain.exceptions.SertifikatException;
+import no.difi.sdp.client2.internal.TrustedCertificates;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * En meldingsformidler som kjører i samme JVM som testen, for lasttesting av klienten uten eksterne tjenester. Den tar
+ * imot forsendelser over HTTP og svarer med transportkvittering, legger forretningskvitteringer i kø per MPC og
+ * prioritet, utleverer dem ved {@link no.difi.sdp.client2.SikkerDigitalPostKlient#hentKvittering henting} og tar imot
+ * bekreftelser. Forsinkelse og feil kan legges inn for å teste connection-pool, {@link no.difi.sdp.client2.RetryPolicy}
+ * og circuit breaker.
+ * <pre>
+ * try (LokalMeldingsformidler meldingsformidler = LokalMeldingsformidler.builder()
+ *         .forsinkelse(Duration.ofMillis(5), Duration.ofMillis(20))
+ *         .build()
+ *         .start()) {
+ *     Noekkelpar noekkelpar = meldingsformidler.noekkelpar(keyStore, alias, passord);
+ *     SikkerDigitalPostKlient klient = new SikkerDigitalPostKlient(
+ *             Databehandler.builder(databehandlerOrganisasjonsnummer, noekkelpar).build(),
+ *             KlientKonfigurasjon.builder(meldingsformidler.getMiljo()).build());
+ *     ...
+ * }
+ * </pre>
+ * Svarene signeres med et selvsignert sertifikat som genereres ved oppstart, og klienten må derfor bruke et
+ * {@link Noekkelpar} som stoler på dette, se {@link #noekkelpar(KeyStore, String, String)}. Signaturen på forespørslene
+ * fra klienten valideres ikke, slik at også utgåtte testsertifikater kan brukes.
+ */
+public final class LokalMeldingsformidler implements AutoCloseable {
+
+    public enum Feilsvar {
+        /**
+         * SOAP fault med HTTP 500, som fra meldingsformidler.
+         */
+        SOAP_FAULT,
+
+        /**
+         * HTTP 503 uten innhold, som fra en lastbalanserer foran meldingsformidler.
+         */
+        HTTP_503
+    }
+
+    public enum Kvitteringstype {
+        MOTTAK, LEVERING, AAPNING, RETURPOST, VARSLING_FEILET, FEIL
+    }
+
+    /**
+     * Organisasjonsnummeret til meldingsformidler, som klienten forventer i sertifikatet som signerer svarene.
+     */
+    public static final String ORGANISASJONSNUMMER = "984661185";
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private int port = 0;
+    private int traader = 64;
+    private Duration minForsinkelse = Duration.ZERO;
+    private Duration maksForsinkelse = Duration.ZERO;
+    private double feilandel = 0;
+    private Feilsvar feilsvar = Feilsvar.SOAP_FAULT;
+    private List<Kvitteringstype> kvitteringer = Collections.singletonList(Kvitteringstype.LEVERING);
+    private boolean ventPaaBekreftelse = true;
+
+    private Kvitteringskoe kvitteringskoe;
+    private LokaltSertifikat sertifikat;
+    private EbmsHandler handler;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private LokalMeldingsformidler() {
+    }
+
+    /**
+     * Starter HTTP-serveren på {@code localhost}.
+     */
+    public LokalMeldingsformidler start() {
+        if (server != null) {
+            throw new IllegalStateException("Lokal meldingsformidler er allerede startet");
+        }
+        sertifikat = new LokaltSertifikat(ORGANISASJONSNUMMER);
+        kvitteringskoe = new Kvitteringskoe(ventPaaBekreftelse);
+        handler = new EbmsHandler(this, kvitteringskoe, sertifikat);
+        AtomicInteger traadnummer = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(traader, r -> {
+            Thread thread = new Thread(r, "lokal-meldingsformidler-" + traadnummer.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        } catch (IOException e) {
+            executor.shutdownNow();
+            throw new UncheckedIOException("Kunne ikke starte lokal meldingsformidler på port " + port, e);
+        }
+        server.createContext("/", handler);
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Adressen klienten skal sende til, for eksempel {@code http://127.0.0.1:53412/api/}.
+     */
+    public URI getUri() {
+        if (server == null) {
+            throw new IllegalStateException("Lokal meldingsformidler er ikke startet");
+        }
+        return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/api/");
+    }
+
+    /**
+     * Miljø som peker på den lokale meldingsformidleren. Virksomhetssertifikatet til databehandler valideres ikke mot
+     * noen sertifikatkjede.
+     */
+    public Miljo getMiljo() {
+        return new Miljo(null, getUri());
+    }
+
+    /**
+     * Klientens innebygde trust store, med sertifikatet til den lokale meldingsformidleren i tillegg.
+     */
+    public KeyStore getTrustStore() {
+        if (sertifikat == null) {
+            throw new IllegalStateException("Lokal meldingsformidler er ikke startet");
+        }
+        KeyStore trustStore = TrustedCertificates.getTrustStore();
+        try {
+            trustStore.setCertificateEntry(LokaltSertifikat.ALIAS, sertifikat.sertifikat);
+        } catch (KeyStoreException e) {
+            throw new SertifikatException("Kunne ikke legge sertifikatet til lokal meldingsformidler i trust store", e);
+        }
+        return trustStore;
+    }
+
+    /**
+     * Nøkkelpar for databehandler som stoler på svarene fra den lokale meldingsformidleren.
+     */
+    public Noekkelpar noekkelpar(KeyStore keyStore, String virksomhetssertifikatAlias, String virksomhetssertifikatPassord) {
+        return Noekkelpar.fraKeyStoreOgTrustStore(keyStore, getTrustStore(), virksomhetssertifikatAlias, virksomhetssertifikatPassord);
+    }
+
+    public long getAntallForsendelser() {
+        return handler != null ? handler.getAntallForsendelser() : 0;
+    }
+
+    public long getAntallVentendeKvitteringer() {
+        return kvitteringskoe != null ? kvitteringskoe.getAntallVentende() : 0;
+    }
+
+    public long getAntallUtleverteKvitteringer() {
+        return kvitteringskoe != null ? kvitteringskoe.getAntallUtleverte() : 0;
+    }
+
+    public long getAntallBekreftedeKvitteringer() {
+        return kvitteringskoe != null ? kvitteringskoe.getAntallBekreftede() : 0;
+    }
+
+    Duration getMinForsinkelse() {
+        return minForsinkelse;
+    }
+
+    Duration getMaksForsinkelse() {
+        return maksForsinkelse;
+    }
+
+    double getFeilandel() {
+        return feilandel;
+    }
+
+    Feilsvar getFeilsvar() {
+        return feilsvar;
+    }
+
+    List<Kvitteringstype> getKvitteringer() {
+        return kvitteringer;
+    }
+
+
+    public static class Builder {
+
+        private final LokalMeldingsformidler target = new LokalMeldingsformidler();
+
+        private Builder() {
+        }
+
+        /**
+         * Porten serveren lytter på. Standard er 0, som gir en ledig port, se {@link LokalMeldingsformidler#getUri()}.
+         */
+        public Builder port(int port) {
+            target.port = port;
+            return this;
+        }
+
+        /**
+         * Antall tråder som behandler forespørsler. Standard er 64. Med {@link #forsinkelse(Duration, Duration)} må
+         * dette være minst antall samtidige forespørsler klienten skal kunne ha mot meldingsformidler.
+         */
+        public Builder traader(int traader) {
+            if (traader < 1) {
+                throw new KonfigurasjonException("Antall tråder må være minst 1, var " + traader);
+            }
+            target.traader = traader;
+            return this;
+        }
+
+        /**
+         * Vent en tilfeldig tid mellom {@code min} og {@code maks} før hver forespørsel besvares, for å etterligne
+         * svartiden til meldingsformidler. Standard er ingen forsinkelse.
+         */
+        public Builder forsinkelse(Duration min, Duration maks) {
+            if (min.isNegative() || maks.compareTo(min) < 0) {
+                throw new KonfigurasjonException("Forsinkelsen må være fra 0 og opp, med maks større enn eller lik min, var " + min + " og " + maks);
+            }
+            target.minForsinkelse = min;
+            target.maksForsinkelse = maks;
+            return this;
+        }
+
+        /**
+         * Svar med feil på en andel av forespørslene, valgt tilfeldig. Standard er ingen feil.
+         *
+         * @param andel andelen forespørsler som feiler, fra 0 til 1.
+         */
+        public Builder feil(double andel, Feilsvar feilsvar) {
+            if (andel < 0 || andel > 1) {
+                throw new KonfigurasjonException("Andelen feil må være mellom 0 og 1, var " + andel);
+            }
+            target.feilandel = andel;
+            target.feilsvar = feilsvar;
+            return this;
+        }
+
+        /**
+         * Forretningskvitteringene som legges i kø for hver forsendelse, i rekkefølgen de skal hentes. Standard er
+         * én {@link Kvitteringstype#LEVERING leveringskvittering}.
+         */
+        public Builder kvitteringer(Kvitteringstype... kvitteringer) {
+            target.kvitteringer = Collections.unmodifiableList(Arrays.asList(kvitteringer));
+            return this;
+        }
+
+        /**
+         * Om en MPC skal holdes tilbake mens den har en utlevert kvittering som ikke er bekreftet, slik at neste
+         * kvittering først kan hentes etter {@link no.difi.sdp.client2.SikkerDigitalPostKlient#bekreft bekreftelse}.
+         * Standard er {@code true}. Med {@code false} leveres kvitteringene ut så fort de hentes, for å teste henting
+         * av kvitteringer uavhengig av bekreftelse.
+         */
+        public Builder ventPaaBekreftelse(boolean ventPaaBekreftelse) {
+            target.ventPaaBekreftelse = ventPaaBekreftelse;
+            return this;
+        }
+
+        public LokalMeldingsformidler build() {
+            return target;
+        }
+    }
+}
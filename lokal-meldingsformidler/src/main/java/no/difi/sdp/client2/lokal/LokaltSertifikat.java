@@ -0,0 +1,57 @@
+package no.difi.sdp.client2.lokal;
+
+import no.difi.sdp.client2.domain.exceptions.SertifikatException;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Selvsignert sertifikat for den lokale meldingsformidleren, generert ved oppstart. Organisasjonsnummeret ligger i
+ * CN slik som i virksomhetssertifikatet til meldingsformidler, fordi klienten sjekker at svarene er signert av
+ * {@link no.difi.sdp.client2.KlientKonfigurasjon#getMeldingsformidlerOrganisasjon() meldingsformidler}.
+ */
+final class LokaltSertifikat {
+
+    static final String ALIAS = "meldingsformidler";
+    static final String PASSORD = "lokal";
+
+    final KeyStore keyStore;
+    final X509Certificate sertifikat;
+
+    LokaltSertifikat(String organisasjonsnummer) {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            KeyPair noekkelpar = generator.generateKeyPair();
+
+            X500Name navn = new X500Name("CN=" + organisasjonsnummer + ", O=Lokal meldingsformidler, C=NO");
+            Instant naa = Instant.now();
+            JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(navn, BigInteger.valueOf(naa.toEpochMilli()),
+                    Date.from(naa.minus(Duration.ofDays(1))), Date.from(naa.plus(Duration.ofDays(365))), navn, noekkelpar.getPublic());
+            this.sertifikat = new JcaX509CertificateConverter()
+                    .getCertificate(builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(noekkelpar.getPrivate())));
+
+            this.keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(null, null);
+            keyStore.setKeyEntry(ALIAS, noekkelpar.getPrivate(), PASSORD.toCharArray(), new Certificate[]{sertifikat});
+        } catch (Exception e) {
+            throw new SertifikatException("Kunne ikke generere sertifikat for lokal meldingsformidler", e);
+        }
+    }
+}
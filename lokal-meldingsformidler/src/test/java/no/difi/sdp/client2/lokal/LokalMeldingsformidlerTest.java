@@ -0,0 +1,301 @@
+package no.difi.sdp.client2.lokal;
+
+import no.difi.sdp.client2.BulkSender;
+import no.difi.sdp.client2.KlientKonfigurasjon;
+import no.difi.sdp.client2.Metrics;
+import no.difi.sdp.client2.SendResultat;
+import no.difi.sdp.client2.SikkerDigitalPostKlient;
+import no.difi.sdp.client2.Utboks;
+import no.difi.sdp.client2.domain.AktoerOrganisasjonsnummer;
+import no.difi.sdp.client2.domain.Avsender;
+import no.difi.sdp.client2.domain.Databehandler;
+import no.difi.sdp.client2.domain.Dokument;
+import no.difi.sdp.client2.domain.Dokumentpakke;
+import no.difi.sdp.client2.domain.Forsendelse;
+import no.difi.sdp.client2.domain.Mottaker;
+import no.difi.sdp.client2.domain.Noekkelpar;
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.digital_post.DigitalPost;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
+import no.difi.sdp.client2.domain.kvittering.AapningsKvittering;
+import no.difi.sdp.client2.domain.kvittering.ForretningsKvittering;
+import no.difi.sdp.client2.domain.kvittering.KvitteringForespoersel;
+import no.difi.sdp.client2.domain.kvittering.LeveringsKvittering;
+import no.difi.sdp.client2.lokal.LokalMeldingsformidler.Feilsvar;
+import no.difi.sdp.client2.lokal.LokalMeldingsformidler.Kvitteringstype;
+import no.digipost.api.representations.Organisasjonsnummer;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.SERVER;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LokalMeldingsformidlerTest {
+
+    private LokalMeldingsformidler meldingsformidler;
+    private final List<SikkerDigitalPostKlient> klienter = new ArrayList<>();
+
+    @AfterEach
+    public void stopp() throws IOException {
+        for (SikkerDigitalPostKlient klient : klienter) {
+            klient.close();
+        }
+        meldingsformidler.close();
+    }
+
+    @Test
+    public void sends_and_fetches_and_confirms_receipts() {
+        meldingsformidler = LokalMeldingsformidler.builder()
+                .kvitteringer(Kvitteringstype.LEVERING, Kvitteringstype.AAPNING)
+                .build()
+                .start();
+        SikkerDigitalPostKlient klient = klient();
+        Forsendelse forsendelse = forsendelse();
+
+        SendResultat resultat = klient.send(forsendelse);
+
+        KvitteringForespoersel forespoersel = KvitteringForespoersel.builder(Prioritet.NORMAL).mpcId(forsendelse.getMpcId()).build();
+        ForretningsKvittering levering = klient.hentKvittering(forespoersel);
+        assertThat(levering, instanceOf(LeveringsKvittering.class));
+        assertThat(levering.getKonversasjonsId(), is(forsendelse.getKonversasjonsId()));
+        assertThat(levering.getReferanseTilMeldingId(), is(resultat.getReferanseTilMeldingsId()));
+
+        ForretningsKvittering aapning = klient.hentKvitteringOgBekreftForrige(forespoersel, levering);
+        assertThat(aapning, instanceOf(AapningsKvittering.class));
+        klient.bekreft(aapning);
+
+        assertThat(klient.hentKvittering(forespoersel), nullValue());
+        assertThat(meldingsformidler.getAntallForsendelser(), is(1L));
+        assertThat(meldingsformidler.getAntallUtleverteKvitteringer(), is(2L));
+        assertThat(meldingsformidler.getAntallBekreftedeKvitteringer(), is(2L));
+        assertThat(meldingsformidler.getAntallVentendeKvitteringer(), is(0L));
+    }
+
+    @Test
+    public void holds_back_receipts_on_mpc_until_the_previous_one_is_confirmed() {
+        meldingsformidler = LokalMeldingsformidler.builder()
+                .kvitteringer(Kvitteringstype.LEVERING, Kvitteringstype.AAPNING)
+                .build()
+                .start();
+        SikkerDigitalPostKlient klient = klient();
+        Forsendelse forsendelse = forsendelse();
+        klient.send(forsendelse);
+        KvitteringForespoersel forespoersel = KvitteringForespoersel.builder(Prioritet.NORMAL).mpcId(forsendelse.getMpcId()).build();
+
+        ForretningsKvittering levering = klient.hentKvittering(forespoersel);
+        assertThat(levering, instanceOf(LeveringsKvittering.class));
+        assertThat(klient.hentKvittering(forespoersel), nullValue());
+
+        klient.bekreft(levering);
+        assertThat(klient.hentKvittering(forespoersel), instanceOf(AapningsKvittering.class));
+        assertThat(meldingsformidler.getAntallUtleverteKvitteringer(), is(2L));
+    }
+
+    @Test
+    public void hands_out_receipts_without_waiting_for_confirmation_when_configured() {
+        meldingsformidler = LokalMeldingsformidler.builder()
+                .kvitteringer(Kvitteringstype.LEVERING, Kvitteringstype.AAPNING)
+                .ventPaaBekreftelse(false)
+                .build()
+                .start();
+        SikkerDigitalPostKlient klient = klient();
+        Forsendelse forsendelse = forsendelse();
+        klient.send(forsendelse);
+        KvitteringForespoersel forespoersel = KvitteringForespoersel.builder(Prioritet.NORMAL).mpcId(forsendelse.getMpcId()).build();
+
+        assertThat(klient.hentKvittering(forespoersel), instanceOf(LeveringsKvittering.class));
+        assertThat(klient.hentKvittering(forespoersel), instanceOf(AapningsKvittering.class));
+        assertThat(meldingsformidler.getAntallBekreftedeKvitteringer(), is(0L));
+    }
+
+    @Test
+    public void ignores_forsendelse_sent_again_with_same_meldingsId() throws IOException {
+        meldingsformidler = LokalMeldingsformidler.builder()
+                .build()
+                .start();
+        AtomicReference<byte[]> innhold = new AtomicReference<>();
+        AtomicReference<String> contentType = new AtomicReference<>();
+        SikkerDigitalPostKlient klient = klient(KlientKonfigurasjon.builder(meldingsformidler.getMiljo())
+                .httpRequestInterceptors((request, context) -> {
+                    if (request instanceof HttpEntityEnclosingRequest && innhold.get() == null) {
+                        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                        ((HttpEntityEnclosingRequest) request).getEntity().writeTo(buffer);
+                        innhold.set(buffer.toByteArray());
+                        contentType.set(request.getFirstHeader("Content-Type").getValue());
+                    }
+                })
+                .build());
+        klient.send(forsendelse());
+
+        HttpURLConnection sendPaaNytt = (HttpURLConnection) meldingsformidler.getUri().toURL().openConnection();
+        sendPaaNytt.setRequestMethod("POST");
+        sendPaaNytt.setRequestProperty("Content-Type", contentType.get());
+        sendPaaNytt.setDoOutput(true);
+        try (OutputStream body = sendPaaNytt.getOutputStream()) {
+            body.write(innhold.get());
+        }
+
+        assertThat(sendPaaNytt.getResponseCode(), is(200));
+        assertThat(meldingsformidler.getAntallForsendelser(), is(1L));
+        assertThat(meldingsformidler.getAntallVentendeKvitteringer(), is(1L));
+    }
+
+    @Test
+    public void sends_streaming_dokumentpakke() {
+        meldingsformidler = LokalMeldingsformidler.builder()
+                .build()
+                .start();
+        SikkerDigitalPostKlient klient = klient(KlientKonfigurasjon.builder(meldingsformidler.getMiljo()).dokumentpakkeBufferSize(16).build());
+
+        klient.send(forsendelse());
+
+        assertThat(meldingsformidler.getAntallForsendelser(), is(1L));
+    }
+
+    @Test
+    public void sends_forsendelser_from_utboks_built_by_another_client(@TempDir Path katalog) {
+        meldingsformidler = LokalMeldingsformidler.builder()
+                .build()
+                .start();
+        Utboks utboks = new Utboks(klient(), katalog);
+        utboks.leggTil(forsendelse());
+        utboks.leggTil(forsendelse());
+        List<SendResultat> sendt = new CopyOnWriteArrayList<>();
+
+        int antallSendt = new Utboks(klient(), katalog).toem(new Utboks.ResultatHandler() {
+            @Override
+            public void sendt(String id, SendResultat sendResultat) {
+                sendt.add(sendResultat);
+            }
+
+            @Override
+            public void feilet(String id, SendException sendException) {
+                throw sendException;
+            }
+
+            @Override
+            public void ugyldig(String id, SikkerDigitalPostException feil) {
+                throw feil;
+            }
+        });
+
+        assertThat(antallSendt, is(2));
+        assertThat(sendt.size(), is(2));
+        assertThat(meldingsformidler.getAntallForsendelser(), is(2L));
+        assertThat(utboks.getForsendelser(), empty());
+    }
+
+    @Test
+    public void sends_forsendelser_through_every_step_of_bulk_sender(@TempDir File tempDirectory) throws InterruptedException {
+        meldingsformidler = LokalMeldingsformidler.builder()
+                .build()
+                .start();
+        Map<Metrics.Steg, String> traader = new ConcurrentHashMap<>();
+        SikkerDigitalPostKlient klient = klient(KlientKonfigurasjon.builder(meldingsformidler.getMiljo())
+                .dokumentpakkeBufferSize(16)
+                .tempDirectory(tempDirectory)
+                .metrics(new Metrics() {
+                    @Override
+                    public void tid(Steg steg, long nanos) {
+                        traader.put(steg, Thread.currentThread().getName());
+                    }
+                })
+                .build());
+        List<SendResultat> sendt = new CopyOnWriteArrayList<>();
+
+        try (BulkSender bulkSender = BulkSender.builder(klient, new BulkSender.ResultatHandler() {
+            @Override
+            public void sendt(Forsendelse forsendelse, SendResultat sendResultat) {
+                sendt.add(sendResultat);
+            }
+
+            @Override
+            public void feilet(Forsendelse forsendelse, SendException sendException) {
+                throw sendException;
+            }
+        }).build()) {
+            bulkSender.sendAlle(Stream.generate(this::forsendelse).limit(3));
+        }
+
+        assertThat(sendt.size(), is(3));
+        assertThat(meldingsformidler.getAntallForsendelser(), is(3L));
+        assertThat(traader.get(Metrics.Steg.SIGNERING), startsWith("sdp-bulk-signering-"));
+        assertThat(traader.get(Metrics.Steg.KRYPTERING), startsWith("sdp-bulk-kryptering-"));
+        assertThat(traader.get(Metrics.Steg.SEND), startsWith("sdp-bulk-sending-"));
+        assertThat(tempDirectory.list(), emptyArray());
+    }
+
+    @Test
+    public void injected_errors_are_server_errors() {
+        meldingsformidler = LokalMeldingsformidler.builder()
+                .feil(1.0, Feilsvar.SOAP_FAULT)
+                .build()
+                .start();
+        SikkerDigitalPostKlient klient = klient();
+
+        SendException feil = assertThrows(SendException.class, () -> klient.send(forsendelse()));
+        assertThat(feil.getAntattSkyldig(), is(SERVER));
+        assertThat(meldingsformidler.getAntallForsendelser(), is(0L));
+    }
+
+    private SikkerDigitalPostKlient klient() {
+        return klient(KlientKonfigurasjon.builder(meldingsformidler.getMiljo()).build());
+    }
+
+    private SikkerDigitalPostKlient klient(KlientKonfigurasjon klientKonfigurasjon) {
+        Noekkelpar noekkelpar = meldingsformidler.noekkelpar(keyStore(), "avsender", "password1234");
+        Databehandler databehandler = Databehandler.builder(AktoerOrganisasjonsnummer.of("984661185").forfremTilDatabehandler(), noekkelpar).build();
+        SikkerDigitalPostKlient klient = new SikkerDigitalPostKlient(databehandler, klientKonfigurasjon);
+        klienter.add(klient);
+        return klient;
+    }
+
+    private Forsendelse forsendelse() {
+        Noekkelpar noekkelpar = meldingsformidler.noekkelpar(keyStore(), "avsender", "password1234");
+        Mottaker mottaker = Mottaker.builder("04036125433", "ove.jonsen#6K5A", noekkelpar.getVirksomhetssertifikat(), Organisasjonsnummer.of("984661185")).build();
+        Dokument hoveddokument = Dokument.builder("Tittel", "hoveddokument.pdf", "%PDF".getBytes(StandardCharsets.UTF_8)).mimeType("application/pdf").build();
+        return Forsendelse.digital(Avsender.builder(AktoerOrganisasjonsnummer.of("984661185").forfremTilAvsender()).build(),
+                DigitalPost.builder(mottaker, "Ikke-sensitiv tittel").build(), Dokumentpakke.builder(hoveddokument).build())
+                .konversasjonsId(UUID.randomUUID().toString())
+                .mpcId(UUID.randomUUID().toString())
+                .build();
+    }
+
+    private static KeyStore keyStore() {
+        try (InputStream keyStoreStream = LokalMeldingsformidlerTest.class.getResourceAsStream("/selfsigned-keystore.jks")) {
+            KeyStore keyStore = KeyStore.getInstance("jks");
+            keyStore.load(keyStoreStream, "password1234".toCharArray());
+            return keyStore;
+        } catch (Exception e) {
+            throw new RuntimeException("Kunne ikke laste keystore", e);
+        }
+    }
+}
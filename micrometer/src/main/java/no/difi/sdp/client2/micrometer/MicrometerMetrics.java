@@ -0,0 +1,140 @@
+package no.difi.sdp.client2.micrometer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import no.difi.sdp.client2.BulkSender;
+import no.difi.sdp.client2.Metrics;
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
+import no.difi.sdp.client2.domain.kvittering.ForretningsKvittering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registrerer metrikkene fra klienten i et {@link MeterRegistry}:
+ * <dl>
+ * <dt>{@code sdp.klient.steg}</dt>
+ * <dd>Timer per {@link Metrics.Steg}, med tag {@code steg}.</dd>
+ * <dt>{@code sdp.klient.fakturerbare.bytes}</dt>
+ * <dd>Teller for fakturerbare bytes i sendte forsendelser.</dd>
+ * <dt>{@code sdp.klient.kvitteringer}</dt>
+ * <dd>Teller for hentede kvitteringer, med tag {@code type}, for eksempel {@code LeveringsKvittering}.</dd>
+ * <dt>{@code sdp.klient.feil}</dt>
+ * <dd>Teller for feilede forespørsler, med tag {@code steg} og {@code antattSkyldig}.</dd>
+ * <dt>{@code sdp.klient.admission.ventetid}</dt>
+ * <dd>Timer for tiden forespørsler ventet før de slapp til, med tag {@code prioritet}.</dd>
+ * <dt>{@code sdp.klient.admission.avvist}</dt>
+ * <dd>Teller for forespørsler som ble avvist fordi de ikke slapp til i tide, med tag {@code prioritet}.</dd>
+ * <dt>{@code sdp.klient.bulk.koe}</dt>
+ * <dd>Antall forsendelser som ligger i kø foran hvert {@link BulkSender.Steg}, summert for alle {@link BulkSender}-e som
+ * er i bruk, med tag {@code steg}.</dd>
+ * </dl>
+ *
+ * <pre>
+ * KlientKonfigurasjon.builder(miljo).metrics(new MicrometerMetrics(meterRegistry)).build();
+ * </pre>
+ */
+public class MicrometerMetrics implements Metrics {
+
+    public static final String STEG = "sdp.klient.steg";
+    public static final String FAKTURERBARE_BYTES = "sdp.klient.fakturerbare.bytes";
+    public static final String KVITTERINGER = "sdp.klient.kvitteringer";
+    public static final String FEIL = "sdp.klient.feil";
+    public static final String ADMISSION_VENTETID = "sdp.klient.admission.ventetid";
+    public static final String ADMISSION_AVVIST = "sdp.klient.admission.avvist";
+    public static final String BULK_KOE = "sdp.klient.bulk.koe";
+
+    private final MeterRegistry registry;
+    private final Map<Steg, Timer> timere = new EnumMap<>(Steg.class);
+    private final Counter fakturerbareBytes;
+    private final Map<Prioritet, Timer> ventetider = new EnumMap<>(Prioritet.class);
+    private final Map<Prioritet, Counter> avviste = new EnumMap<>(Prioritet.class);
+    private final Set<BulkSender> bulkSendere = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    public MicrometerMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Steg steg : Steg.values()) {
+            timere.put(steg, Timer.builder(STEG)
+                    .description("Tid brukt på hvert steg i byggingen og sendingen av forsendelser")
+                    .tag("steg", steg.name())
+                    .register(registry));
+        }
+        this.fakturerbareBytes = Counter.builder(FAKTURERBARE_BYTES)
+                .description("Fakturerbare bytes i sendte forsendelser")
+                .baseUnit("bytes")
+                .register(registry);
+        for (Prioritet prioritet : Prioritet.values()) {
+            ventetider.put(prioritet, Timer.builder(ADMISSION_VENTETID)
+                    .description("Tid forespørsler til meldingsformidler ventet før de slapp til")
+                    .tag("prioritet", prioritet.name())
+                    .register(registry));
+            avviste.put(prioritet, Counter.builder(ADMISSION_AVVIST)
+                    .description("Forespørsler til meldingsformidler som ble avvist fordi de ikke slapp til i tide")
+                    .tag("prioritet", prioritet.name())
+                    .register(registry));
+        }
+        for (BulkSender.Steg steg : BulkSender.Steg.values()) {
+            Gauge.builder(BULK_KOE, () -> koeDybde(steg))
+                    .description("Forsendelser som ligger i kø foran hvert steg i BulkSender")
+                    .tag("steg", steg.name())
+                    .register(registry);
+        }
+    }
+
+    @Override
+    public void tid(Steg steg, long nanos) {
+        timere.get(steg).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void fakturerbareBytes(long bytes) {
+        fakturerbareBytes.increment(bytes);
+    }
+
+    @Override
+    public void kvittering(ForretningsKvittering kvittering) {
+        registry.counter(KVITTERINGER, "type", kvittering.getClass().getSimpleName()).increment();
+    }
+
+    @Override
+    public void feil(Steg steg, SikkerDigitalPostException feil) {
+        String antattSkyldig = feil instanceof SendException ? ((SendException) feil).getAntattSkyldig().name() : SendException.AntattSkyldig.UKJENT.name();
+        registry.counter(FEIL, "steg", steg.name(), "antattSkyldig", antattSkyldig).increment();
+    }
+
+    @Override
+    public void sluppetInn(Prioritet prioritet, long ventetidNanos) {
+        ventetider.get(prioritet).record(ventetidNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void avvist(Prioritet prioritet, long ventetidNanos) {
+        avviste.get(prioritet).increment();
+    }
+
+    /**
+     * BulkSender-en holdes ikke i live av metrikkene, og telles ikke med etter at den er ryddet bort.
+     */
+    @Override
+    public void bulkSender(BulkSender bulkSender) {
+        bulkSendere.add(bulkSender);
+    }
+
+    private int koeDybde(BulkSender.Steg steg) {
+        List<BulkSender> iBruk;
+        synchronized (bulkSendere) {
+            iBruk = new ArrayList<>(bulkSendere);
+        }
+        return iBruk.stream().mapToInt(bulkSender -> bulkSender.getKoeDybde(steg)).sum();
+    }
+}
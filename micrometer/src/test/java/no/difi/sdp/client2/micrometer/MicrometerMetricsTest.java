@@ -0,0 +1,66 @@
+package no.difi.sdp.client2.micrometer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import no.difi.sdp.client2.BulkSender;
+import no.difi.sdp.client2.Metrics.Steg;
+import no.difi.sdp.client2.domain.Prioritet;
+import no.difi.sdp.client2.domain.exceptions.SendException;
+import no.difi.sdp.client2.domain.exceptions.SikkerDigitalPostException;
+import no.difi.sdp.client2.domain.kvittering.LeveringsKvittering;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.SERVER;
+import static no.difi.sdp.client2.domain.exceptions.SendException.AntattSkyldig.UKJENT;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class MicrometerMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MicrometerMetrics sut = new MicrometerMetrics(registry);
+
+    @Test
+    public void records_time_per_step() {
+        sut.tid(Steg.SIGNERING, TimeUnit.MILLISECONDS.toNanos(20));
+        sut.tid(Steg.SIGNERING, TimeUnit.MILLISECONDS.toNanos(40));
+
+        assertThat(registry.get(MicrometerMetrics.STEG).tag("steg", "SIGNERING").timer().count(), is(2L));
+        assertThat(registry.get(MicrometerMetrics.STEG).tag("steg", "SIGNERING").timer().totalTime(TimeUnit.MILLISECONDS), is(60.0));
+        assertThat(registry.get(MicrometerMetrics.STEG).tag("steg", "SEND").timer().count(), is(0L));
+    }
+
+    @Test
+    public void counts_billable_bytes_receipts_and_errors() {
+        sut.fakturerbareBytes(1000);
+        sut.fakturerbareBytes(24);
+        sut.kvittering(new LeveringsKvittering(null, null));
+        sut.feil(Steg.SEND, new SendException("Feil", SERVER, null));
+        sut.feil(Steg.SEND, new SikkerDigitalPostException("Feil"));
+
+        assertThat(registry.get(MicrometerMetrics.FAKTURERBARE_BYTES).counter().count(), is(1024.0));
+        assertThat(registry.get(MicrometerMetrics.KVITTERINGER).tag("type", "LeveringsKvittering").counter().count(), is(1.0));
+        assertThat(registry.get(MicrometerMetrics.FEIL).tags("steg", "SEND", "antattSkyldig", SERVER.name()).counter().count(), is(1.0));
+        assertThat(registry.get(MicrometerMetrics.FEIL).tags("steg", "SEND", "antattSkyldig", UKJENT.name()).counter().count(), is(1.0));
+    }
+
+    @Test
+    public void records_admission_wait_time_and_rejections_per_prioritet() {
+        sut.sluppetInn(Prioritet.NORMAL, TimeUnit.MILLISECONDS.toNanos(5));
+        sut.sluppetInn(Prioritet.NORMAL, 0);
+        sut.avvist(Prioritet.PRIORITERT, TimeUnit.SECONDS.toNanos(1));
+
+        assertThat(registry.get(MicrometerMetrics.ADMISSION_VENTETID).tag("prioritet", "NORMAL").timer().count(), is(2L));
+        assertThat(registry.get(MicrometerMetrics.ADMISSION_VENTETID).tag("prioritet", "NORMAL").timer().totalTime(TimeUnit.MILLISECONDS), is(5.0));
+        assertThat(registry.get(MicrometerMetrics.ADMISSION_AVVIST).tag("prioritet", "PRIORITERT").counter().count(), is(1.0));
+        assertThat(registry.get(MicrometerMetrics.ADMISSION_AVVIST).tag("prioritet", "NORMAL").counter().count(), is(0.0));
+    }
+
+    @Test
+    public void exports_bulk_queue_depth_per_step() {
+        for (BulkSender.Steg steg : BulkSender.Steg.values()) {
+            assertThat(registry.get(MicrometerMetrics.BULK_KOE).tag("steg", steg.name()).gauge().value(), is(0.0));
+        }
+    }
+}